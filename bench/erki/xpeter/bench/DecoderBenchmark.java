@@ -0,0 +1,146 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.bench;
+
+import java.lang.management.ManagementFactory;
+
+import erki.xpeter.con.LineDecoder;
+
+/**
+ * Compares the {@link LineDecoder} with the way the ErkiTalk and Skype readers used to parse their
+ * lines (upper-casing the line for every command they tried and cutting it with
+ * {@code substring}). For both it prints the time and the bytes allocated per line.
+ * <p>
+ * Run it with {@code ant bench-decoder}.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class DecoderBenchmark {
+    
+    private static final int WARMUP = 200000;
+    
+    private static final int ROUNDS = 5;
+    
+    private static final int LINES_PER_ROUND = 2000000;
+    
+    private static final String[] LINES = {
+            "TEXT erki: Hat jemand Lust auf Mensa?",
+            "TEXT tobi: klar, in fünf Minuten unten",
+            "text anna: xpeter: wie viel habe ich heute geschrieben?",
+            "NEWNICK bernd: bernd_afk",
+            "QUIT clara: Feierabend",
+            "JOIN clara",
+            "USER 00 erki",
+            "PING",
+            "TEXT erki: Das ist eine etwas längere Zeile, wie sie beim Einfügen von Code oder "
+                    + "Fehlermeldungen öfter vorkommt, damit auch das Kopieren ins Gewicht fällt." };
+    
+    /* Keeps the JIT from dropping the results. */
+    static int sink;
+    
+    public static void main(String[] args) {
+        LineDecoder decoder = new LineDecoder();
+        
+        for (int i = 0; i < WARMUP; i++) {
+            sink += legacy(LINES[i % LINES.length]);
+            sink += decode(decoder, LINES[i % LINES.length]);
+        }
+        
+        for (int round = 1; round <= ROUNDS; round++) {
+            long bytes = allocated();
+            long start = System.nanoTime();
+            
+            for (int i = 0; i < LINES_PER_ROUND; i++) {
+                sink += legacy(LINES[i % LINES.length]);
+            }
+            
+            long legacyTime = System.nanoTime() - start;
+            long legacyBytes = allocated() - bytes;
+            bytes = allocated();
+            start = System.nanoTime();
+            
+            for (int i = 0; i < LINES_PER_ROUND; i++) {
+                sink += decode(decoder, LINES[i % LINES.length]);
+            }
+            
+            long decoderTime = System.nanoTime() - start;
+            long decoderBytes = allocated() - bytes;
+            System.out.printf("Round %d: old reader %d ns and %d bytes per line, LineDecoder %d "
+                    + "ns and %d bytes per line.%n", round, legacyTime / LINES_PER_ROUND,
+                    legacyBytes / LINES_PER_ROUND, decoderTime / LINES_PER_ROUND, decoderBytes
+                            / LINES_PER_ROUND);
+        }
+    }
+    
+    private static int decode(LineDecoder decoder, String line) {
+        decoder.decode(line);
+        return length(decoder.getFirst()) + length(decoder.getSecond());
+    }
+    
+    /* The parsing of the old ServerInputReader of ErkiTalk without processing the messages. */
+    private static int legacy(String line) {
+        
+        if (line.toUpperCase().startsWith("TEXT ")) {
+            line = line.substring("TEXT ".length());
+            String nick = line.substring(0, line.indexOf(':'));
+            String text = line.substring(line.indexOf(':') + 2);
+            return nick.length() + text.length();
+        } else if (line.toUpperCase().startsWith("NEWNICK ")) {
+            line = line.substring("NEWNICK ".length());
+            String oldNick = line.substring(0, line.indexOf(':'));
+            String newNick = line.substring(line.indexOf(':') + 2);
+            return oldNick.length() + newNick.length();
+        } else if (line.toUpperCase().startsWith("QUIT ")) {
+            line = line.substring("QUIT ".length());
+            String nick, reason = "";
+            
+            if (line.contains(":")) {
+                nick = line.substring(0, line.indexOf(':'));
+                reason = line.substring(line.indexOf(':') + 2);
+            } else {
+                nick = line;
+            }
+            
+            return nick.length() + reason.length();
+        } else if (line.toUpperCase().startsWith("JOIN ")) {
+            return line.substring("JOIN ".length()).length();
+        } else if (line.toUpperCase().startsWith("USER ")) {
+            return line.substring("USER XX ".length()).length();
+        } else if (line.toUpperCase().equals("PING")) {
+            return 0;
+        } else {
+            return -1;
+        }
+    }
+    
+    private static int length(String field) {
+        return field == null ? 0 : field.length();
+    }
+    
+    /* The number of bytes the current thread allocated so far or 0 if the JVM cannot tell. */
+    private static long allocated() {
+        Object bean = ManagementFactory.getThreadMXBean();
+        
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread
+                    .currentThread().getId());
+        }
+        
+        return 0;
+    }
+}
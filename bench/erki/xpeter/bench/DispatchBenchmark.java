@@ -0,0 +1,172 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import erki.api.storage.JavaObjectStorage;
+import erki.api.util.Level;
+import erki.api.util.Log;
+import erki.xpeter.Bot;
+import erki.xpeter.con.Connection;
+import erki.xpeter.msg.Message;
+import erki.xpeter.msg.TextMessage;
+import erki.xpeter.msg.UserJoinedMessage;
+import erki.xpeter.parsers.Action;
+import erki.xpeter.parsers.Parser;
+import erki.xpeter.parsers.SuperParser;
+import erki.xpeter.util.Keys;
+import erki.xpeter.util.ParserIndex;
+
+/**
+ * Measures what it costs to dispatch one chat line to all actions of all {@link SuperParser}s. The
+ * bot is started with only these parsers, a throw-away storage and a connection that discards
+ * everything, and is fed ordinary chat lines that most actions are not interested in. For
+ * comparison the benchmark also measures compiling the regular expression of every action once per
+ * line, which is what {@link Action#inform(Message)} used to do.
+ * <p>
+ * Run it with {@code ant bench-dispatch}.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class DispatchBenchmark {
+    
+    private static final int WARMUP = 20000;
+    
+    private static final int ROUNDS = 5;
+    
+    private static final int MESSAGES = 50000;
+    
+    private static final String[] LINES = { "hi", "na, wie geht’s?",
+            "hat jemand heute schon was von der Mensa gehört?", "ich bin in der Bib",
+            "das Kompilieren dauert mal wieder ewig", "re", "afk",
+            "xpeter: wie viel habe ich heute geschrieben?", "lol", "weiß jemand, wo Tobi ist?" };
+    
+    private static final String[] NICKS = { "erki", "tobi", "anna", "bernd", "clara" };
+    
+    /* Keeps the JIT from dropping the compiled patterns. */
+    static int sink;
+    
+    /* A connection that throws away whatever the bot says. */
+    private static class NullConnection implements Connection {
+        
+        @Override
+        public void run() {
+        }
+        
+        @Override
+        public void send(Message msg) {
+        }
+        
+        @Override
+        public void broadcast(Message msg) {
+        }
+        
+        @Override
+        public String getNick() {
+            return "xpeter";
+        }
+        
+        @Override
+        public Collection<String> getUserList() {
+            return new LinkedList<String>();
+        }
+        
+        @Override
+        public String getShortId() {
+            return "bench";
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        Log.setLevel(Level.WARNING);
+        File storage = File.createTempFile("xpeter-bench", ".storage");
+        storage.delete();
+        storage.deleteOnExit();
+        
+        List<Class<? extends Parser>> parsers = new LinkedList<>();
+        
+        for (Class<? extends Parser> clazz : ParserIndex.findAll()) {
+            
+            if (SuperParser.class.isAssignableFrom(clazz)) {
+                parsers.add(clazz);
+            }
+        }
+        
+        Bot bot = new Bot(parsers, new JavaObjectStorage<Keys>(storage.getPath()), storage);
+        List<String> regexes = new LinkedList<>();
+        
+        for (Parser parser : bot.getParsers()) {
+            
+            if (parser instanceof SuperParser) {
+                
+                for (Action<? extends Message> action : ((SuperParser) parser).getActions()) {
+                    
+                    if (action.getRegex() != null) {
+                        regexes.add(action.getRegex());
+                    }
+                }
+            }
+        }
+        
+        System.out.println("Loaded " + bot.getParsers().size() + " parsers with "
+                + regexes.size() + " actions.");
+        Connection con = new NullConnection();
+        
+        for (String nick : NICKS) {
+            bot.process(new UserJoinedMessage(nick, con));
+        }
+        
+        for (int i = 0; i < WARMUP; i++) {
+            dispatch(bot, con, i);
+        }
+        
+        for (int round = 1; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            
+            for (int i = 0; i < MESSAGES; i++) {
+                dispatch(bot, con, i);
+            }
+            
+            long dispatch = System.nanoTime() - start;
+            start = System.nanoTime();
+            
+            for (int i = 0; i < MESSAGES; i++) {
+                
+                for (String regex : regexes) {
+                    sink += Pattern.compile(regex).pattern().length();
+                }
+            }
+            
+            long compile = System.nanoTime() - start;
+            System.out.printf("Round %d: %,d ns per line dispatched, %,d ns per line to compile all "
+                    + "patterns.%n", round, dispatch / MESSAGES, compile / MESSAGES);
+        }
+        
+        System.exit(0);
+    }
+    
+    private static void dispatch(Bot bot, Connection con, int i) {
+        bot.process(new TextMessage(NICKS[i % NICKS.length], LINES[i % LINES.length], con));
+    }
+}
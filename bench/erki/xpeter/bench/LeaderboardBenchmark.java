@@ -0,0 +1,115 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.bench;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import erki.xpeter.parsers.statistics.Leaderboard;
+import erki.xpeter.parsers.statistics.Leaderboard.Rank;
+
+/**
+ * Compares a top 10 query on a {@link Leaderboard} of 100k synthetic users with rebuilding a sorted
+ * map of all users per query, which is what the top statistics actions used to do. It also
+ * measures the cost of updating the score of a single user.
+ * <p>
+ * Run it with {@code ant bench-leaderboard}.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class LeaderboardBenchmark {
+    
+    private static final int USERS = 100000;
+    
+    private static final int UPDATES = 100000;
+    
+    private static final int QUERIES = 10000;
+    
+    private static final int REBUILDS = 50;
+    
+    private static final int TOP = 10;
+    
+    private static final int ROUNDS = 5;
+    
+    /* Keeps the JIT from dropping the results. */
+    static int sink;
+    
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        String[] names = new String[USERS];
+        long[] scores = new long[USERS];
+        Leaderboard board = new Leaderboard();
+        
+        for (int i = 0; i < USERS; i++) {
+            names[i] = "user" + i;
+            scores[i] = random.nextInt(1000000);
+            board.update(names[i], scores[i]);
+        }
+        
+        for (int round = 1; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            
+            for (int i = 0; i < UPDATES; i++) {
+                int user = random.nextInt(USERS);
+                scores[user] += 1 + random.nextInt(20);
+                board.update(names[user], scores[user]);
+            }
+            
+            long update = (System.nanoTime() - start) / UPDATES;
+            start = System.nanoTime();
+            
+            for (int i = 0; i < QUERIES; i++) {
+                
+                for (Rank rank : board.top(TOP)) {
+                    sink += rank.getNames().size();
+                }
+            }
+            
+            long query = (System.nanoTime() - start) / QUERIES;
+            start = System.nanoTime();
+            
+            for (int i = 0; i < REBUILDS; i++) {
+                sink += rebuild(names, scores).size();
+            }
+            
+            long rebuild = (System.nanoTime() - start) / REBUILDS;
+            System.out.printf("Round %d: %,d ns per update, %,d ns per top %d query, %,d ns per "
+                    + "rebuilt map.%n", round, update, query, TOP, rebuild);
+        }
+    }
+    
+    /* The way the top statistics actions used to rank the users. */
+    private static Map<Long, TreeSet<String>> rebuild(String[] names, long[] scores) {
+        TreeMap<Long, TreeSet<String>> ranking = new TreeMap<Long, TreeSet<String>>();
+        
+        for (int i = 0; i < names.length; i++) {
+            TreeSet<String> rank = ranking.get(scores[i]);
+            
+            if (rank == null) {
+                rank = new TreeSet<String>();
+                ranking.put(scores[i], rank);
+            }
+            
+            rank.add(names[i]);
+        }
+        
+        return ranking.descendingMap();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package erki.xpeter.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import erki.xpeter.con.OutboundBuffer;
+import erki.xpeter.con.OutboundBuffer.Overflow;
+import erki.xpeter.msg.Message;
+
+/**
+ * Checks that an {@link OutboundBuffer} keeps the order of its messages if they are spilled to the
+ * file. It fails if the messages are drained in any other order than the one they were added in.
+ * <p>
+ * Run it with {@code ant check-outbound}.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class OutboundBufferCheck {
+    
+    private static final int LIMIT = 4;
+    
+    private static final int CAPACITY = 1 << 16;
+    
+    public static void main(String[] args) throws IOException {
+        checkSpill();
+        checkRequeue();
+        checkRequeueWhileSpilled();
+        System.out.println("OutboundBuffer keeps the order.");
+    }
+    
+    /* More messages than the limit are added at once. */
+    private static void checkSpill() throws IOException {
+        OutboundBuffer buffer = open();
+        offer(buffer, 0, 10);
+        expect("spill", buffer, range(0, 10));
+    }
+    
+    /* A failed batch is put back and the next message spills more than one message at once. */
+    private static void checkRequeue() throws IOException {
+        OutboundBuffer buffer = open();
+        offer(buffer, 0, 4);
+        List<Message> batch = poll(buffer, 2);
+        offer(buffer, 4, 6);
+        buffer.requeue(batch);
+        offer(buffer, 6, 7);
+        expect("requeue", buffer, range(0, 7));
+    }
+    
+    /* A failed batch is put back while newer messages are in the file. */
+    private static void checkRequeueWhileSpilled() throws IOException {
+        OutboundBuffer buffer = open();
+        offer(buffer, 0, 8);
+        List<Message> batch = poll(buffer, 2);
+        buffer.requeue(batch);
+        offer(buffer, 8, 10);
+        expect("requeue while spilled", buffer, range(0, 10));
+    }
+    
+    private static OutboundBuffer open() throws IOException {
+        File file = File.createTempFile("outbound", ".spill");
+        file.delete();
+        file.deleteOnExit();
+        OutboundBuffer buffer = new OutboundBuffer(LIMIT, Overflow.SPILL);
+        buffer.attach(file.getPath(), CAPACITY);
+        return buffer;
+    }
+    
+    private static void offer(OutboundBuffer buffer, int from, int to) {
+        
+        for (int i = from; i < to; i++) {
+            buffer.offer(new Message("m" + i), false);
+        }
+    }
+    
+    private static List<Message> poll(OutboundBuffer buffer, int count) {
+        List<Message> messages = new ArrayList<Message>();
+        
+        for (int i = 0; i < count; i++) {
+            messages.add(buffer.poll());
+        }
+        
+        return messages;
+    }
+    
+    private static List<String> range(int from, int to) {
+        List<String> texts = new ArrayList<String>();
+        
+        for (int i = from; i < to; i++) {
+            texts.add("m" + i);
+        }
+        
+        return texts;
+    }
+    
+    private static void expect(String name, OutboundBuffer buffer, List<String> expected) {
+        List<String> drained = new ArrayList<String>();
+        Message msg;
+        
+        while ((msg = buffer.poll()) != null) {
+            drained.add(msg.getText());
+        }
+        
+        if (!drained.equals(expected)) {
+            throw new AssertionError(name + ": expected " + expected + " but drained " + drained);
+        }
+        
+        if (buffer.takeDropped() != 0) {
+            throw new AssertionError(name + ": messages were dropped");
+        }
+    }
+}
@@ -17,20 +17,35 @@
 
 package erki.xpeter;
 
+import java.io.File;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import erki.api.storage.Storage;
+import erki.api.util.Level;
 import erki.api.util.Log;
 import erki.api.util.Observer;
+import erki.xpeter.con.AbstractQueuedConnection;
 import erki.xpeter.con.Connection;
+import erki.xpeter.jfr.DispatchEvent;
+import erki.xpeter.jfr.ProcessEvent;
 import erki.xpeter.msg.DelayedMessage;
 import erki.xpeter.msg.Message;
+import erki.xpeter.parsers.Action;
 import erki.xpeter.parsers.Parser;
+import erki.xpeter.util.DaemonThreadFactory;
+import erki.xpeter.util.HttpClient;
+import erki.xpeter.util.JournalStorage;
 import erki.xpeter.util.Keys;
 
 /**
@@ -38,32 +53,77 @@ import erki.xpeter.util.Keys;
  * {@link #add(Connection)}) the new connection is immediately started. This class also contains all
  * the parsers and {@link #process(Message)} is called by the connections to delegate incoming
  * messages to all available parsers.
+ * <p>
+ * Messages are not processed under a global lock. Every message is handed to all its observers in
+ * parallel using a bounded pool of dispatcher threads and the calling connection waits until all
+ * observers are done. Thus messages of one connection are still processed in order while different
+ * connections do not have to wait for each other. Only observers of different parsers run in
+ * parallel, though: all observers of one parser share a lock so a parser never sees two messages
+ * at once.
  * 
  * @author Edgar Kalkowski
  */
 public class Bot implements BotInterface {
     
+    /** The maximum number of messages that may wait for a free dispatcher thread. */
+    private static final int DISPATCH_QUEUE_SIZE = 1024;
+    
     private Collection<Connection> cons = new LinkedList<Connection>();
     
-    private Set<Parser> parsers = new TreeSet<Parser>(new Comparator<Parser>() {
+    private Set<Parser> parsers = new ConcurrentSkipListSet<Parser>(new Comparator<Parser>() {
         
         public int compare(Parser o1, Parser o2) {
             return (o1.getClass().getCanonicalName().compareTo(o2.getClass().getCanonicalName()));
         }
     });
     
-    private TreeMap<String, LinkedList<Observer<? extends Message>>> parserMapping = new TreeMap<String, LinkedList<Observer<? extends Message>>>();
+    /*
+     * The routers are immutable and replaced on every (rare) change so process() can use them
+     * without holding any lock.
+     */
+    private ConcurrentHashMap<String, CommandRouter> parserMapping = new ConcurrentHashMap<String, CommandRouter>();
+    
+    private final ThreadPoolExecutor dispatcher;
+    
+    private final ScheduledThreadPoolExecutor scheduler;
     
     private final Storage<Keys> storage;
     
+    private final File storageFile;
+    
+    private final HttpClient httpClient = new HttpClient();
+    
+    private final DispatchMetrics metrics = new DispatchMetrics(cons);
+    
+    private final ReplyTracer replyTracer = new ReplyTracer();
+    
     /**
      * Create a new Bot with an initial set of some parsers.
      * 
      * @param parsers
      *        The initially used parsers of this Bot.
+     * @param storage
+     *        The storage of this Bot.
+     * @param storageFile
+     *        The file the storage keeps its data in.
      */
-    public Bot(Iterable<Class<? extends Parser>> parsers, Storage<Keys> storage) {
+    public Bot(Iterable<Class<? extends Parser>> parsers, Storage<Keys> storage, File storageFile) {
         this.storage = storage;
+        this.storageFile = storageFile;
+        
+        /*
+         * If all dispatcher threads are busy and the queue is full the connection thread informs
+         * the observer itself. That slows down the connection that floods the bot but nothing gets
+         * lost.
+         */
+        int threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+        this.dispatcher = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(DISPATCH_QUEUE_SIZE), new DaemonThreadFactory(
+                        "Dispatcher"), new ThreadPoolExecutor.CallerRunsPolicy());
+        this.dispatcher.allowCoreThreadTimeOut(true);
+        
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("Scheduler"));
+        this.scheduler.setRemoveOnCancelPolicy(true);
         
         for (Class<? extends Parser> clazz : parsers) {
             add(clazz);
@@ -73,13 +133,16 @@ public class Bot implements BotInterface {
     @Override
     public void add(Class<? extends Parser> clazz) {
         Log.debug("Loading parser " + clazz.getSimpleName() + ".");
+        ParserModule module = ParserModule.create(clazz);
+        Thread thread = Thread.currentThread();
+        ClassLoader context = thread.getContextClassLoader();
         
         /*
          * Try to instanicate all the parser classes and be sure to catch all exceptions if some
          * parser goes mad because we do not want to crash the whole bot.
          */
         try {
-            Parser parser = clazz.newInstance();
+            Parser parser = (module == null ? clazz : module.loadParser()).newInstance();
             Parser[] pArray = this.parsers.toArray(new Parser[0]);
             
             for (Parser p : pArray) {
@@ -91,8 +154,17 @@ public class Bot implements BotInterface {
                 }
             }
             
+            /*
+             * Threads started by the parser inherit its module as context class loader. That way
+             * they can be found again when the parser is removed.
+             */
+            if (module != null) {
+                thread.setContextClassLoader(module);
+            }
+            
             parser.init(this);
             this.parsers.add(parser);
+            module = null;
         } catch (InstantiationException e) {
             Log.error(e);
             Log.warning("Parser " + clazz.getSimpleName() + " could not be loaded ("
@@ -108,6 +180,13 @@ public class Bot implements BotInterface {
             Log.warning("Could not initialize the parser " + clazz.getSimpleName() + " ("
                     + e.getClass().getSimpleName() + ").");
             Log.info("Trying to continue without this one.");
+        } finally {
+            thread.setContextClassLoader(context);
+            
+            // The module is only still set here if loading the parser failed.
+            if (module != null) {
+                release(module);
+            }
         }
     }
     
@@ -126,15 +205,112 @@ public class Bot implements BotInterface {
                 Log.debug("Removing parser " + p.getClass().getSimpleName() + ".");
                 p.destroy(this);
                 this.parsers.remove(p);
+                
+                if (p.getClass().getClassLoader() instanceof ParserModule) {
+                    release((ParserModule) p.getClass().getClassLoader());
+                }
             }
         }
     }
     
+    /**
+     * Save everything before the bot exits. The steps run one after another because each one may
+     * still produce something the next one has to save: First all parsers are destroyed so they
+     * save their data, then the unsent messages of all connections are saved and finally the
+     * storage is closed (if it is a {@link JournalStorage} this writes the final snapshot).
+     */
+    public void shutdown() {
+        Log.info("Shutting down.");
+        
+        for (Parser p : this.parsers.toArray(new Parser[0])) {
+            
+            try {
+                p.destroy(this);
+            } catch (Throwable e) {
+                Log.error(e);
+                Log.warning("Parser " + p.getClass().getSimpleName() + " could not be destroyed.");
+            }
+            
+            this.parsers.remove(p);
+        }
+        
+        synchronized (this.cons) {
+            
+            for (Connection con : this.cons) {
+                
+                if (con instanceof AbstractQueuedConnection) {
+                    ((AbstractQueuedConnection) con).persist();
+                }
+            }
+        }
+        
+        if (this.storage instanceof JournalStorage) {
+            ((JournalStorage<?>) this.storage).close();
+        }
+    }
+    
+    /**
+     * Release the module of a parser that is no longer used. Observers the parser forgot to
+     * deregister are removed so they don’t keep the module alive.
+     */
+    private void release(ParserModule module) {
+        
+        synchronized (this.parserMapping) {
+            
+            for (String type : this.parserMapping.keySet()) {
+                CommandRouter router = this.parserMapping.get(type);
+                CommandRouter cleaned = router.without(module);
+                
+                if (cleaned != router) {
+                    Log.warning(module + " did not deregister all its observers for " + type
+                            + ". Removing them.");
+                    this.parserMapping.put(type, cleaned);
+                }
+            }
+        }
+        
+        module.release();
+    }
+    
     @Override
     public Storage<Keys> getStorage() {
         return this.storage;
     }
     
+    @Override
+    public File getStorageFile() {
+        return this.storageFile;
+    }
+    
+    @Override
+    public ScheduledExecutorService getScheduler() {
+        return this.scheduler;
+    }
+    
+    @Override
+    public HttpClient getHttpClient() {
+        return this.httpClient;
+    }
+    
+    /**
+     * Access the statistics about how often and how long the observers of this bot were informed
+     * about messages.
+     * 
+     * @return The dispatch statistics of this bot.
+     */
+    public DispatchMetrics getMetrics() {
+        return this.metrics;
+    }
+    
+    /**
+     * Access the latencies of the replies the connections of this bot sent.
+     * 
+     * @return The reply latencies of this bot.
+     */
+    public ReplyTracer getReplyTracer() {
+        return this.replyTracer;
+    }
+    
     /**
      * Add a new connection to this bot. For each connection a separate {@link Thread} is started
      * immediately.
@@ -161,7 +337,7 @@ public class Bot implements BotInterface {
         synchronized (this.cons) {
             
             for (Connection con : this.cons) {
-                con.send(msg);
+                con.broadcast(msg);
             }
         }
     }
@@ -174,7 +350,7 @@ public class Bot implements BotInterface {
             for (Connection con : this.cons) {
                 
                 if (!con.getShortId().equals(shortId)) {
-                    con.send(msg);
+                    con.broadcast(msg);
                 }
             }
         }
@@ -182,7 +358,12 @@ public class Bot implements BotInterface {
     
     /**
      * Parsers can register themself via this method to be informed if a certain type of message was
-     * received.
+     * received. Observers are informed from several dispatcher threads but never concurrently with
+     * another observer of the same parser, so parsers need not guard their own state.
+     * <p>
+     * {@link Action}s are only informed about messages whose text contains the literal parts of
+     * their regular expression (see {@link CommandRouter}). Registering an action again makes the
+     * bot analyse its regular expression anew.
      * 
      * @param <MessageType>
      *        The type of message the parser wants to be informed about.
@@ -198,13 +379,13 @@ public class Bot implements BotInterface {
         synchronized (this.parserMapping) {
             Log.debug("Registered new listener for " + messageType.getSimpleName() + "s: "
                     + observer.getClass().getSimpleName());
+            CommandRouter router = this.parserMapping.get(messageType.getCanonicalName());
             
-            if (!this.parserMapping.containsKey(messageType.getCanonicalName())) {
-                this.parserMapping.put(messageType.getCanonicalName(),
-                        new LinkedList<Observer<? extends Message>>());
+            if (router == null) {
+                router = new CommandRouter();
             }
             
-            this.parserMapping.get(messageType.getCanonicalName()).add(observer);
+            this.parserMapping.put(messageType.getCanonicalName(), router.with(observer));
         }
     }
     
@@ -224,55 +405,153 @@ public class Bot implements BotInterface {
     public <MessageType extends Message> void deregister(Class<MessageType> messageType,
             Observer<MessageType> observer) {
         
+        
         synchronized (this.parserMapping) {
+            CommandRouter router = this.parserMapping.get(messageType.getCanonicalName());
             
-            if (this.parserMapping.containsKey(messageType.getCanonicalName())) {
-                this.parserMapping.get(messageType.getCanonicalName()).remove(observer);
+            if (router != null) {
+                this.parserMapping.put(messageType.getCanonicalName(), router.without(observer));
             }
         }
     }
     
     /**
      * Processes a message that was received from some connection. This method just delegates the
-     * message to all available parsers and lets them do the work.
+     * message to all available parsers and lets them do the work. The parsers are informed in
+     * parallel and this method returns after all of them are done and {@link Message#conclude()}
+     * was called. Connections must therefore not call this method for their next message before
+     * the previous call returned (which they automatically don’t if they call it from one thread).
      * 
      * @param msg
      *        The message to process.
      */
+    public void process(final Message msg) {
+        ProcessEvent event = new ProcessEvent();
+        event.begin();
+        int observers = dispatch(msg);
+        event.end();
+        
+        if (event.shouldCommit()) {
+            event.connection = msg.getShortId();
+            event.messageType = msg.getClass().getSimpleName();
+            event.observers = observers;
+            event.commit();
+        }
+    }
+    
+    /* Does the work of #process and returns the number of observers that were informed. */
+    private int dispatch(final Message msg) {
+        boolean debug = Log.isLoggable(Level.DEBUG);
+        
+        if (debug) {
+            Log.debug("Parsing a " + msg.getClass().getSimpleName() + ".");
+        }
+        
+        CommandRouter router = this.parserMapping.get(msg.getClass().getCanonicalName());
+        
+        if (router == null || router.isEmpty()) {
+            Log.debug("There are no parsers registered.");
+            return 0;
+        } else if (debug) {
+            Log.debug("Registered parsers are " + router + ".");
+        }
+        
+        Object[] parsers = router.route(msg.getText());
+        
+        if (parsers.length == 0) {
+            Log.debug("No parser is interested in this message.");
+            return 0;
+        }
+        
+        final CountDownLatch done = new CountDownLatch(parsers.length - 1);
+        
+        for (int i = 1; i < parsers.length; i++) {
+            final Object parser = parsers[i];
+            
+            this.dispatcher.execute(new Runnable() {
+                
+                @Override
+                public void run() {
+                    
+                    try {
+                        inform(parser, msg);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        
+        // Don’t let the calling thread idle and let it inform the first parser itself.
+        inform(parsers[0], msg);
+        boolean interrupted = false;
+        
+        while (true) {
+            
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        
+        msg.conclude();
+        return parsers.length;
+    }
+    
+    /*
+     * The lock that serializes all observers of one parser. Observers that were not loaded by a
+     * parser module only serialize themselves.
+     */
+    private static Object lockOf(Object observer) {
+        ClassLoader loader = observer.getClass().getClassLoader();
+        
+        if (loader instanceof ParserModule) {
+            return ((ParserModule) loader).getLock();
+        } else {
+            return observer;
+        }
+    }
+    
     /*
      * The unchecked casts here are safe because the types are actually forced to be correct when
      * registering observers (see #register).
      */
     @SuppressWarnings({ "unchecked", "rawtypes" })
-    public void process(Message msg) {
+    private void inform(Object parser, Message msg) {
+        DispatchEvent event = new DispatchEvent();
+        event.begin();
+        long start = System.nanoTime();
+        boolean failed = false;
         
-        synchronized (this.parserMapping) {
-            Log.debug("Parsing a " + msg.getClass().getSimpleName() + ".");
-            LinkedList<Observer<? extends Message>> parsers = this.parserMapping.get(msg.getClass()
-                    .getCanonicalName());
+        try {
             
-            if (parsers == null) {
-                Log.debug("There are no parsers registered.");
-                return;
-            } else {
-                Log.debug("Registered parsers are " + parsers + ".");
+            synchronized (lockOf(parser)) {
+                ((Observer) parser).inform(msg);
             }
+        } catch (Throwable e) {
+            failed = true;
+            Log.error(e);
+            Log.warning("Parser " + parser.getClass().getSimpleName() + " crashed!");
+            Log.info("Continuing anyway.");
+            msg.respond(new DelayedMessage("Mumble mumble in " + parser.getClass().getSimpleName()
+                    + ": " + e.getClass().getSimpleName(), 2500));
+        } finally {
+            this.metrics.record(parser, System.nanoTime() - start, failed);
+            event.end();
             
-            for (Observer parser : parsers) {
-                
-                try {
-                    parser.inform(msg);
-                } catch (Throwable e) {
-                    Log.error(e);
-                    Log.warning("Parser " + parser.getClass().getSimpleName() + " crashed!");
-                    Log.info("Continuing anyway.");
-                    msg.respond(new DelayedMessage("Mumble mumble in "
-                            + parser.getClass().getSimpleName() + ": "
-                            + e.getClass().getSimpleName(), 2500));
-                }
+            if (event.shouldCommit()) {
+                event.connection = msg.getShortId();
+                event.messageType = msg.getClass().getSimpleName();
+                event.observer = parser.getClass().getName();
+                event.failed = failed;
+                event.commit();
             }
-            
-            msg.conclude();
         }
     }
 }
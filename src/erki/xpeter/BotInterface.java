@@ -1,13 +1,17 @@
 package erki.xpeter;
 
+import java.io.File;
 import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
 
 import erki.api.storage.Storage;
 import erki.xpeter.con.Connection;
+import erki.xpeter.msg.DelayedMessage;
 import erki.xpeter.msg.Message;
 import erki.xpeter.parsers.Parser;
 import erki.xpeter.parsers.SuperParser;
+import erki.xpeter.util.HttpClient;
 import erki.xpeter.util.Keys;
 
 /**
@@ -53,6 +57,32 @@ public interface BotInterface {
      */
     public Storage<Keys> getStorage();
     
+    /**
+     * Access the file the storage of this bot keeps its data in. Parsers that need files of their
+     * own should put them next to it.
+     * 
+     * @return The storage file.
+     */
+    public File getStorageFile();
+    
+    /**
+     * Access the scheduler shared by all parts of this bot. The connections use it to send
+     * {@link DelayedMessage}s and parsers may use it for anything that shall happen later or
+     * periodically instead of starting threads of their own. Tasks run on a single thread so they
+     * should be short and never block.
+     * 
+     * @return The shared scheduler of this bot.
+     */
+    public ScheduledExecutorService getScheduler();
+    
+    /**
+     * Access the HTTP client shared by all parsers of this bot. It reuses connections, enforces
+     * timeouts and should be used instead of opening sockets to webservers directly.
+     * 
+     * @return The shared HTTP client of this bot.
+     */
+    public HttpClient getHttpClient();
+    
     /**
      * Access all connections of this bot. The returned instances of Connection are no copies! So
      * don’t mess with them! ;)
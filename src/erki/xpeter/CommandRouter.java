@@ -0,0 +1,194 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import erki.api.util.Observer;
+import erki.xpeter.msg.Message;
+import erki.xpeter.parsers.Action;
+import erki.xpeter.util.LiteralMatcher;
+import erki.xpeter.util.RegexLiterals;
+
+/**
+ * The observers {@link Bot} informs about one type of message. Most observers are {@link Action}s
+ * that only react if the text of a message matches their regular expression and most of those
+ * expressions contain some literal text that every matching message must contain. The router
+ * searches the text of a message for all those literals at once and only hands the message to the
+ * actions whose literal was found (and to all other observers). Thus the regular expressions of
+ * most actions never run for a message that cannot match them anyway.
+ * <p>
+ * Instances of this class are immutable. Adding or removing observers creates a new router.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class CommandRouter {
+    
+    /* Patterns compiled with one of these flags do not contain their literals as they are. */
+    private static final int IGNORED_FLAGS = Pattern.CASE_INSENSITIVE | Pattern.COMMENTS
+            | Pattern.LITERAL;
+    
+    private final Observer<? extends Message>[] observers;
+    
+    /* The index of the literal that is required for each observer or -1 if there is none. */
+    private final int[] required;
+    
+    private final LiteralMatcher matcher;
+    
+    /** Create a new CommandRouter without any observers. */
+    @SuppressWarnings("unchecked")
+    public CommandRouter() {
+        this((Observer<? extends Message>[]) new Observer<?>[0]);
+    }
+    
+    private CommandRouter(Observer<? extends Message>[] observers) {
+        this.observers = observers;
+        this.required = new int[observers.length];
+        List<String> literals = new ArrayList<String>();
+        
+        for (int i = 0; i < observers.length; i++) {
+            String literal = null;
+            
+            if (observers[i] instanceof Action) {
+                // Route by the pattern the action really matches (it may override getPattern()).
+                Pattern pattern = ((Action<?>) observers[i]).getPattern();
+                
+                if (pattern != null && (pattern.flags() & IGNORED_FLAGS) == 0) {
+                    literal = RegexLiterals.requiredLiteral(pattern.pattern());
+                }
+            }
+            
+            if (literal == null) {
+                this.required[i] = -1;
+            } else {
+                this.required[i] = literals.size();
+                literals.add(literal);
+            }
+        }
+        
+        this.matcher = new LiteralMatcher(literals);
+    }
+    
+    /**
+     * Create a router that additionally informs some observer. If the observer is already known to
+     * this router it is analysed again (which is needed if the regular expression of an action
+     * changes).
+     * 
+     * @param observer
+     *        The observer to add.
+     * @return A new router that also informs {@code observer}.
+     */
+    public CommandRouter with(Observer<? extends Message> observer) {
+        int index = Arrays.asList(observers).indexOf(observer);
+        Observer<? extends Message>[] result;
+        
+        if (index < 0) {
+            result = Arrays.copyOf(observers, observers.length + 1);
+            result[observers.length] = observer;
+        } else {
+            result = observers.clone();
+        }
+        
+        return new CommandRouter(result);
+    }
+    
+    /**
+     * Create a router that no longer informs some observer.
+     * 
+     * @param observer
+     *        The observer to remove.
+     * @return A new router without {@code observer} or this router if it did not contain the
+     *         observer.
+     */
+    public CommandRouter without(Observer<? extends Message> observer) {
+        List<Observer<? extends Message>> result = new ArrayList<Observer<? extends Message>>(
+                Arrays.asList(observers));
+        
+        if (!result.remove(observer)) {
+            return this;
+        }
+        
+        return new CommandRouter(result.toArray(Arrays.copyOf(observers, 0)));
+    }
+    
+    /**
+     * Create a router that no longer informs any observer whose class was loaded by a certain
+     * class loader.
+     * 
+     * @param loader
+     *        The class loader of the observers to remove.
+     * @return A new router without those observers or this router if it did not contain any.
+     */
+    public CommandRouter without(ClassLoader loader) {
+        List<Observer<? extends Message>> result = new ArrayList<Observer<? extends Message>>();
+        
+        for (Observer<? extends Message> observer : observers) {
+            
+            if (observer.getClass().getClassLoader() != loader) {
+                result.add(observer);
+            }
+        }
+        
+        if (result.size() == observers.length) {
+            return this;
+        }
+        
+        return new CommandRouter(result.toArray(Arrays.copyOf(observers, 0)));
+    }
+    
+    /** @return {@code true} if this router does not inform any observers. */
+    public boolean isEmpty() {
+        return observers.length == 0;
+    }
+    
+    /**
+     * Find the observers that might be interested in a message.
+     * 
+     * @param text
+     *        The text of the message.
+     * @return All observers that are not actions or whose required literal is contained in
+     *         {@code text}. If {@code text} is {@code null} all observers are returned.
+     */
+    public Observer<? extends Message>[] route(String text) {
+        
+        if (text == null) {
+            return observers.clone();
+        }
+        
+        boolean[] found = matcher.match(text);
+        Observer<? extends Message>[] result = Arrays.copyOf(observers, observers.length);
+        int count = 0;
+        
+        for (int i = 0; i < observers.length; i++) {
+            
+            if (required[i] < 0 || found[required[i]]) {
+                result[count++] = observers[i];
+            }
+        }
+        
+        return Arrays.copyOf(result, count);
+    }
+    
+    @Override
+    public String toString() {
+        return Arrays.toString(observers);
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import erki.api.util.Log;
+import erki.xpeter.con.Connection;
+import erki.xpeter.con.xmpp.Pinger;
+import erki.xpeter.con.xmpp.XmppConnection;
+import erki.xpeter.util.AtomicFile;
+import erki.xpeter.util.DaemonThreadFactory;
+import erki.xpeter.util.LatencyHistogram;
+
+/**
+ * Counts how often {@link Bot#process(erki.xpeter.msg.Message)} informed each observer (every
+ * {@link erki.xpeter.parsers.Action} is an observer of its own), how often that failed and how
+ * long it took. Recording never locks so it can stay enabled all the time. Observers are told
+ * apart by the name of their class and not the class itself so the statistics neither keep
+ * unloaded parsers in memory nor start from scratch when a parser is reloaded.
+ * <p>
+ * The dumps also contain the round trip times of the pings of all XMPP connections (see
+ * {@link Pinger}).
+ * 
+ * @author Edgar Kalkowski
+ */
+public class DispatchMetrics {
+    
+    /** The default time in minutes between two dumps to a file. */
+    public static final int DUMP_INTERVAL = 5;
+    
+    private static final Function<String, Observed> CREATE = new Function<String, Observed>() {
+        
+        @Override
+        public Observed apply(String name) {
+            return new Observed(name);
+        }
+    };
+    
+    private final ConcurrentHashMap<String, Observed> observers = new ConcurrentHashMap<>();
+    
+    private final Collection<Connection> connections;
+    
+    /**
+     * Create a new DispatchMetrics.
+     * 
+     * @param connections
+     *        The connections of the bot (synchronized on while they are read).
+     */
+    public DispatchMetrics(Collection<Connection> connections) {
+        this.connections = connections;
+    }
+    
+    /**
+     * Record that an observer was informed about a message.
+     * 
+     * @param observer
+     *        The observer that was informed.
+     * @param nanos
+     *        How long it took in nanoseconds.
+     * @param failed
+     *        {@code true} if the observer threw an exception.
+     */
+    public void record(Object observer, long nanos, boolean failed) {
+        Observed observed = observers.computeIfAbsent(observer.getClass().getName(), CREATE);
+        observed.invocations.incrementAndGet();
+        
+        if (failed) {
+            observed.errors.incrementAndGet();
+        }
+        
+        observed.latency.record(nanos);
+    }
+    
+    /**
+     * Access the statistics of all observers that were informed at least once.
+     * 
+     * @return The statistics sorted by the total time spent in each observer (longest first).
+     */
+    public List<Observed> getObservers() {
+        List<Observed> result = new ArrayList<>(observers.values());
+        
+        Collections.sort(result, new Comparator<Observed>() {
+            
+            @Override
+            public int compare(Observed o1, Observed o2) {
+                long t1 = o1.latency.getTotal(TimeUnit.NANOSECONDS);
+                long t2 = o2.latency.getTotal(TimeUnit.NANOSECONDS);
+                return t1 < t2 ? 1 : (t1 > t2 ? -1 : o1.name.compareTo(o2.name));
+            }
+        });
+        
+        return result;
+    }
+    
+    /** Forget all statistics recorded so far. */
+    public void reset() {
+        observers.clear();
+    }
+    
+    /**
+     * Write the statistics of all observers to a file. The file is replaced atomically so readers
+     * never see half of it.
+     * 
+     * @param file
+     *        The file to write.
+     * @throws IOException
+     *         if the file could not be written.
+     */
+    public void dump(File file) throws IOException {
+        AtomicFile target = new AtomicFile(file);
+        
+        try (PrintWriter out = target.openWriter()) {
+            out.println("# observer invocations errors total_ms mean_ms p50_ms p90_ms p99_ms "
+                    + "max_ms");
+            
+            for (Observed observed : getObservers()) {
+                LatencyHistogram l = observed.latency;
+                TimeUnit ms = TimeUnit.MILLISECONDS;
+                out.println(String.format(Locale.ENGLISH,
+                        "%s %d %d %d %.3f %.3f %.3f %.3f %.3f", observed.name,
+                        observed.getInvocations(), observed.getErrors(), l.getTotal(ms),
+                        l.getMean(ms), l.getPercentile(50, ms), l.getPercentile(90, ms),
+                        l.getPercentile(99, ms), l.getMax(ms)));
+            }
+            
+            out.println("# connection pings last_ms mean_ms max_ms timeouts");
+            
+            synchronized (connections) {
+                
+                for (Connection con : connections) {
+                    
+                    if (con instanceof XmppConnection) {
+                        Pinger p = ((XmppConnection) con).getPinger();
+                        out.println(con.getShortId() + " " + p.getPings() + " "
+                                + p.getRoundTripTime() + " " + p.getAverageRoundTripTime() + " "
+                                + p.getMaxRoundTripTime() + " " + p.getTimeouts());
+                    }
+                }
+            }
+        }
+        
+        target.commit();
+    }
+    
+    /**
+     * Periodically dump the statistics to a file. The dumps run on a thread of their own so writing
+     * the file never delays the shared scheduler of the bot.
+     * 
+     * @param file
+     *        The file to write.
+     * @param minutes
+     *        The time between two dumps in minutes.
+     */
+    public void dumpPeriodically(final File file, int minutes) {
+        Log.info("Writing dispatch statistics to " + file + " every " + minutes + " minutes.");
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("DispatchMetrics"));
+        
+        dumper.scheduleWithFixedDelay(new Runnable() {
+            
+            @Override
+            public void run() {
+                
+                try {
+                    dump(file);
+                } catch (IOException e) {
+                    Log.error(e);
+                    Log.warning("Could not write dispatch statistics to " + file + ".");
+                }
+            }
+        }, minutes, minutes, TimeUnit.MINUTES);
+    }
+    
+    /**
+     * The statistics of one observer.
+     * 
+     * @author Edgar Kalkowski
+     */
+    public static class Observed {
+        
+        private final String name;
+        
+        private final AtomicLong invocations = new AtomicLong();
+        
+        private final AtomicLong errors = new AtomicLong();
+        
+        private final LatencyHistogram latency = new LatencyHistogram();
+        
+        private Observed(String name) {
+            this.name = name;
+        }
+        
+        /** @return The fully qualified class name of the observer. */
+        public String getName() {
+            return name;
+        }
+        
+        /** @return The class name of the observer without its package. */
+        public String getSimpleName() {
+            return name.substring(name.lastIndexOf('.') + 1);
+        }
+        
+        /** @return How often the observer was informed. */
+        public long getInvocations() {
+            return invocations.get();
+        }
+        
+        /** @return How often the observer threw an exception. */
+        public long getErrors() {
+            return errors.get();
+        }
+        
+        /** @return The durations of all invocations of the observer. */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+    }
+}
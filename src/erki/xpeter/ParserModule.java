@@ -0,0 +1,249 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import erki.api.util.Log;
+import erki.xpeter.parsers.Parser;
+
+/**
+ * The class loader of one loaded parser. Every time {@link Bot} loads a parser it creates a new
+ * module which reads the classes of that parser afresh from the jar or folder they come from. So
+ * unloading and loading a parser again picks up new bytecode without restarting the bot. On
+ * {@link Bot#remove(Class)} the module is released and, as soon as nothing refers to it anymore,
+ * collected together with all its classes.
+ * <p>
+ * A parser in a package of its own below {@code erki.xpeter.parsers} owns that whole package (e.g.
+ * {@code erki.xpeter.parsers.rss}). A parser directly in {@code erki.xpeter.parsers} only owns its
+ * own class and the classes nested in it as that package also contains the parser API. All other
+ * classes are shared with the rest of the bot. Owned classes that are {@link Serializable} are
+ * shared as well because parsers put instances of them into the {@link Bot#getStorage() storage}
+ * which outlives the parser. Changes to such classes still need a restart.
+ * 
+ * @author Edgar Kalkowski
+ */
+class ParserModule extends URLClassLoader {
+    
+    private static final String PACKAGE = "erki.xpeter.parsers.";
+    
+    /** The time in milliseconds to wait for the threads of a released module to finish. */
+    private static final long THREAD_TIMEOUT = 5000;
+    
+    private static final ReferenceQueue<ParserModule> released = new ReferenceQueue<>();
+    
+    /* Keeps the references themselves reachable until their module was collected. */
+    private static final Set<Released> pending = Collections
+            .newSetFromMap(new ConcurrentHashMap<Released, Boolean>());
+    
+    private final String parser;
+    
+    private final String prefix;
+    
+    private final Object lock = new Object();
+    
+    private ParserModule(String parser, URL location) {
+        super(new URL[] { location }, ParserModule.class.getClassLoader());
+        this.parser = parser;
+        String pkg = parser.substring(0, parser.lastIndexOf('.') + 1);
+        
+        if (pkg.startsWith(PACKAGE) && pkg.length() > PACKAGE.length()) {
+            this.prefix = pkg;
+        } else {
+            this.prefix = null;
+        }
+    }
+    
+    /**
+     * Create a module for a parser.
+     * 
+     * @param clazz
+     *        The class of the parser as found by the system class loader.
+     * @return A new module for the parser or {@code null} if the location of its classes is
+     *         unknown (in which case the parser cannot be reloaded).
+     */
+    static ParserModule create(Class<? extends Parser> clazz) {
+        CodeSource source = clazz.getProtectionDomain().getCodeSource();
+        
+        if (source == null || source.getLocation() == null) {
+            Log.warning("The location of parser " + clazz.getName() + " is unknown. It will "
+                    + "not be isolated.");
+            return null;
+        }
+        
+        return new ParserModule(clazz.getName(), source.getLocation());
+    }
+    
+    /**
+     * Load the parser class of this module.
+     * 
+     * @return The class of the parser as defined by this module.
+     * @throws ClassNotFoundException
+     *         if the class could not be found anymore.
+     */
+    Class<? extends Parser> loadParser() throws ClassNotFoundException {
+        return loadClass(parser).asSubclass(Parser.class);
+    }
+    
+    /**
+     * The lock {@link Bot} holds while it informs an observer of this module. All observers of one
+     * parser share it so they never run concurrently and may share state without guarding it.
+     * 
+     * @return The dispatch lock of this module.
+     */
+    Object getLock() {
+        return lock;
+    }
+    
+    private boolean owns(String name) {
+        
+        if (prefix != null) {
+            return name.startsWith(prefix);
+        } else {
+            return name.equals(parser) || name.startsWith(parser + "$");
+        }
+    }
+    
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        
+        if (!owns(name)) {
+            return super.loadClass(name, resolve);
+        }
+        
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> clazz = findLoadedClass(name);
+            
+            if (clazz == null) {
+                
+                /*
+                 * The system class loader only ever holds one (not initialized) copy of such a
+                 * class, so asking it does not make the memory grow with every reload.
+                 */
+                try {
+                    Class<?> parent = getParent().loadClass(name);
+                    
+                    if (Serializable.class.isAssignableFrom(parent)) {
+                        Log.debug("Sharing serializable class " + name + ".");
+                        return parent;
+                    }
+                    
+                } catch (ClassNotFoundException e) {
+                    Log.finestDebug("Class " + name + " is only known to " + this + ".");
+                }
+                
+                clazz = findClass(name);
+            }
+            
+            if (resolve) {
+                resolveClass(clazz);
+            }
+            
+            return clazz;
+        }
+    }
+    
+    /**
+     * Check if a thread belongs to this module. That is the case if the thread was started while
+     * the parser was initialized (and therefore inherited this module as its context class loader)
+     * or if it is an instance of a class loaded by this module.
+     */
+    private boolean owns(Thread thread) {
+        return thread.getContextClassLoader() == this || thread.getClass().getClassLoader() == this;
+    }
+    
+    /**
+     * Release this module after its parser was destroyed. Threads of the module that are still
+     * running are given some time to finish and reported if they don’t. Afterwards the jar files
+     * of the module are closed. If the module is later collected this is logged, too, so leaking
+     * modules can be spotted.
+     */
+    void release() {
+        List<Thread> threads = new LinkedList<>();
+        
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            
+            if (thread != Thread.currentThread() && owns(thread)) {
+                threads.add(thread);
+            }
+        }
+        
+        long deadline = System.currentTimeMillis() + THREAD_TIMEOUT;
+        
+        for (Thread thread : threads) {
+            
+            try {
+                thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            
+            if (thread.isAlive()) {
+                Log.warning("Thread " + thread.getName() + " of parser " + parser + " is still "
+                        + "running after the parser was destroyed. The parser’s classes cannot "
+                        + "be unloaded until it stops.");
+            }
+        }
+        
+        try {
+            close();
+        } catch (IOException e) {
+            Log.error(e);
+        }
+        
+        pending.add(new Released(this));
+        Released collected;
+        
+        while ((collected = (Released) released.poll()) != null) {
+            pending.remove(collected);
+            Log.debug("Classes of a previous instance of parser " + collected.parser
+                    + " were unloaded.");
+        }
+        
+        if (!pending.isEmpty()) {
+            Log.debug(pending.size() + " released parser modules were not collected yet.");
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "ParserModule[" + parser + "]";
+    }
+    
+    private static class Released extends WeakReference<ParserModule> {
+        
+        private final String parser;
+        
+        public Released(ParserModule module) {
+            super(module, released);
+            this.parser = module.parser;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+import erki.api.util.Log;
+import erki.xpeter.msg.Trace;
+import erki.xpeter.util.AtomicFile;
+import erki.xpeter.util.DaemonThreadFactory;
+import erki.xpeter.util.LatencyHistogram;
+
+/**
+ * Measures how long it takes from receiving a message until the responses to it are written to
+ * the chat. The time is split into the stages a response passes through so the latency of the bot
+ * itself can be told apart from the delays parsers request on purpose (see
+ * {@link erki.xpeter.msg.DelayedMessage}):
+ * <ul>
+ * <li><b>processing</b> – from receiving the message until the response is handed to the
+ * connection (i.e. the time the parsers needed),</li>
+ * <li><b>delay</b> – the intentional delay of the response,</li>
+ * <li><b>queue</b> – the time the response waited in the send queue of the connection (for IRC
+ * this includes waiting for the rate limiter),</li>
+ * <li><b>write</b> – the time it took to write the response to the server and</li>
+ * <li><b>total</b> – all of the above.</li>
+ * </ul>
+ * Percentiles are kept per connection. Optionally the most recent replies are kept, too, and can
+ * be written as a Chrome trace (to be opened in {@code chrome://tracing} or Perfetto).
+ * 
+ * @author Edgar Kalkowski
+ */
+public class ReplyTracer {
+    
+    /** The number of replies kept for the Chrome trace if it is enabled without a capacity. */
+    public static final int CHROME_TRACE_CAPACITY = 10000;
+    
+    private static final Function<String, Stages> CREATE = new Function<String, Stages>() {
+        
+        @Override
+        public Stages apply(String connection) {
+            return new Stages(connection);
+        }
+    };
+    
+    private final ConcurrentHashMap<String, Stages> connections = new ConcurrentHashMap<>();
+    
+    private final long origin = System.nanoTime();
+    
+    private final AtomicLong replies = new AtomicLong();
+    
+    private volatile AtomicReferenceArray<Reply> recent;
+    
+    /**
+     * Record that a traced message was written by a connection.
+     * 
+     * @param connection
+     *        The short identifier of the connection.
+     * @param trace
+     *        The trace of the message.
+     * @param writeStart
+     *        The time the connection started writing the message.
+     * @param writeEnd
+     *        The time the connection finished writing the message.
+     */
+    public void record(String connection, Trace trace, long writeStart, long writeEnd) {
+        long queued = trace.getQueued() != 0 ? trace.getQueued() : writeStart;
+        long handedOff = trace.getHandedOff() != 0 ? trace.getHandedOff() : queued;
+        Reply reply = new Reply(connection, trace.getId(), trace.getReceived(), handedOff,
+                queued, writeStart, writeEnd);
+        Stages stages = connections.computeIfAbsent(connection, CREATE);
+        stages.processing.record(handedOff - reply.received);
+        stages.delay.record(queued - handedOff);
+        stages.queue.record(writeStart - queued);
+        stages.write.record(writeEnd - writeStart);
+        stages.total.record(writeEnd - reply.received);
+        AtomicReferenceArray<Reply> recent = this.recent;
+        
+        if (recent != null) {
+            int index = (int) (replies.getAndIncrement() % recent.length());
+            recent.set(index, reply);
+        }
+    }
+    
+    /**
+     * Access the reply latencies of all connections that sent at least one traced message.
+     * 
+     * @return The latencies sorted by the short identifiers of the connections.
+     */
+    public TreeMap<String, Stages> getConnections() {
+        return new TreeMap<>(connections);
+    }
+    
+    /**
+     * Start keeping the most recent replies for {@link #dumpChromeTrace(File)}.
+     * 
+     * @param capacity
+     *        The number of replies to keep.
+     */
+    public void enableChromeTrace(int capacity) {
+        
+        if (recent == null) {
+            recent = new AtomicReferenceArray<>(capacity);
+        }
+    }
+    
+    /**
+     * Write the percentiles of all stages of all connections to a file.
+     * 
+     * @param file
+     *        The file to write.
+     * @throws IOException
+     *         if the file could not be written.
+     */
+    public void dump(File file) throws IOException {
+        AtomicFile target = new AtomicFile(file);
+        
+        try (PrintWriter out = target.openWriter()) {
+            out.println("# connection stage replies mean_ms p50_ms p90_ms p99_ms max_ms");
+            TimeUnit ms = TimeUnit.MILLISECONDS;
+            
+            for (Stages stages : getConnections().values()) {
+                
+                for (Map.Entry<String, LatencyHistogram> stage : stages.asMap().entrySet()) {
+                    LatencyHistogram l = stage.getValue();
+                    out.println(String.format(Locale.ENGLISH, "%s %s %d %.3f %.3f %.3f %.3f %.3f",
+                            stages.connection.replace(' ', '_'), stage.getKey(), l.getCount(),
+                            l.getMean(ms), l.getPercentile(50, ms), l.getPercentile(90, ms),
+                            l.getPercentile(99, ms), l.getMax(ms)));
+                }
+            }
+        }
+        
+        target.commit();
+    }
+    
+    /**
+     * Write the most recent replies as a Chrome trace (JSON object format). Every connection is
+     * shown as a thread and every reply as a span that contains one span per stage. Nothing is
+     * written if the Chrome trace was not {@link #enableChromeTrace(int) enabled}.
+     * 
+     * @param file
+     *        The file to write.
+     * @throws IOException
+     *         if the file could not be written.
+     */
+    public void dumpChromeTrace(File file) throws IOException {
+        AtomicReferenceArray<Reply> recent = this.recent;
+        
+        if (recent == null) {
+            return;
+        }
+        
+        List<String> events = new ArrayList<>();
+        HashMap<String, Integer> threads = new HashMap<>();
+        
+        for (int i = 0; i < recent.length(); i++) {
+            Reply reply = recent.get(i);
+            
+            if (reply == null) {
+                continue;
+            }
+            
+            Integer tid = threads.get(reply.connection);
+            
+            if (tid == null) {
+                tid = threads.size() + 1;
+                threads.put(reply.connection, tid);
+                events.add("{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":1,\"tid\":" + tid
+                        + ",\"args\":{\"name\":\"" + escape(reply.connection) + "\"}}");
+            }
+            
+            events.add(span("reply", tid, reply.id, reply.received, reply.writeEnd));
+            events.add(span("processing", tid, reply.id, reply.received, reply.handedOff));
+            
+            if (reply.queued > reply.handedOff) {
+                events.add(span("delay", tid, reply.id, reply.handedOff, reply.queued));
+            }
+            
+            events.add(span("queue", tid, reply.id, reply.queued, reply.writeStart));
+            events.add(span("write", tid, reply.id, reply.writeStart, reply.writeEnd));
+        }
+        
+        AtomicFile target = new AtomicFile(file);
+        
+        try (PrintWriter out = target.openWriter()) {
+            out.println("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+            
+            for (int i = 0; i < events.size(); i++) {
+                out.println(events.get(i) + (i < events.size() - 1 ? "," : ""));
+            }
+            
+            out.println("]}");
+        }
+        
+        target.commit();
+    }
+    
+    private String span(String name, int tid, long id, long start, long end) {
+        return String.format(Locale.ENGLISH, "{\"ph\":\"X\",\"cat\":\"xpeter\",\"name\":\"%s\","
+                + "\"pid\":1,\"tid\":%d,\"ts\":%.3f,\"dur\":%.3f,\"args\":{\"trace\":%d}}", name,
+                tid, (start - origin) / 1000.0, Math.max(0, end - start) / 1000.0, id);
+    }
+    
+    private static String escape(String text) {
+        StringBuilder result = new StringBuilder(text.length());
+        
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < ' ') {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        
+        return result.toString();
+    }
+    
+    /**
+     * Periodically write the percentiles and (if enabled) the Chrome trace to files. The files are
+     * written on a thread of their own and not on the shared scheduler of the bot.
+     * 
+     * @param percentiles
+     *        The file for the percentiles or {@code null}.
+     * @param chromeTrace
+     *        The file for the Chrome trace or {@code null}.
+     * @param minutes
+     *        The time between two dumps in minutes.
+     */
+    public void dumpPeriodically(final File percentiles, final File chromeTrace, int minutes) {
+        
+        if (chromeTrace != null) {
+            enableChromeTrace(CHROME_TRACE_CAPACITY);
+        }
+        
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("ReplyTracer"));
+        
+        dumper.scheduleWithFixedDelay(new Runnable() {
+            
+            @Override
+            public void run() {
+                
+                try {
+                    
+                    if (percentiles != null) {
+                        dump(percentiles);
+                    }
+                    
+                    if (chromeTrace != null) {
+                        dumpChromeTrace(chromeTrace);
+                    }
+                    
+                } catch (IOException e) {
+                    Log.error(e);
+                    Log.warning("Could not write the reply latencies.");
+                }
+            }
+        }, minutes, minutes, TimeUnit.MINUTES);
+    }
+    
+    /**
+     * The latencies of the replies sent by one connection.
+     * 
+     * @author Edgar Kalkowski
+     */
+    public static class Stages {
+        
+        private final String connection;
+        
+        private final LatencyHistogram processing = new LatencyHistogram();
+        
+        private final LatencyHistogram delay = new LatencyHistogram();
+        
+        private final LatencyHistogram queue = new LatencyHistogram();
+        
+        private final LatencyHistogram write = new LatencyHistogram();
+        
+        private final LatencyHistogram total = new LatencyHistogram();
+        
+        private Stages(String connection) {
+            this.connection = connection;
+        }
+        
+        /** @return The short identifier of the connection. */
+        public String getConnection() {
+            return connection;
+        }
+        
+        /** @return The time from receiving a message until its response was handed over. */
+        public LatencyHistogram getProcessing() {
+            return processing;
+        }
+        
+        /** @return The intentional delays of the responses. */
+        public LatencyHistogram getDelay() {
+            return delay;
+        }
+        
+        /** @return The time the responses waited in the send queue. */
+        public LatencyHistogram getQueue() {
+            return queue;
+        }
+        
+        /** @return The time it took to write the responses. */
+        public LatencyHistogram getWrite() {
+            return write;
+        }
+        
+        /** @return The time from receiving a message until its response was written. */
+        public LatencyHistogram getTotal() {
+            return total;
+        }
+        
+        private Map<String, LatencyHistogram> asMap() {
+            Map<String, LatencyHistogram> result = new LinkedHashMap<>();
+            result.put("processing", processing);
+            result.put("delay", delay);
+            result.put("queue", queue);
+            result.put("write", write);
+            result.put("total", total);
+            return result;
+        }
+    }
+    
+    private static class Reply {
+        
+        private final String connection;
+        
+        private final long id, received, handedOff, queued, writeStart, writeEnd;
+        
+        public Reply(String connection, long id, long received, long handedOff, long queued,
+                long writeStart, long writeEnd) {
+            this.connection = connection;
+            this.id = id;
+            this.received = received;
+            this.handedOff = handedOff;
+            this.queued = queued;
+            this.writeStart = writeStart;
+            this.writeEnd = writeEnd;
+        }
+    }
+}
@@ -0,0 +1,445 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.con;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import erki.api.util.Log;
+import erki.api.util.Observer;
+import erki.xpeter.Bot;
+import erki.xpeter.jfr.WriteEvent;
+import erki.xpeter.msg.DelayedMessage;
+import erki.xpeter.msg.Message;
+import erki.xpeter.msg.Trace;
+import erki.xpeter.util.DelayedMessages;
+
+/**
+ * The common part of all connections. Messages that shall be sent are put into an
+ * {@link OutboundBuffer} so the threads that send them never wait for the connection. The thread
+ * that runs the connection (see {@link #run()}) connects to the server, writes the queued messages
+ * in batches of up to {@link #MAX_BATCH} and reconnects if the connection breaks. Messages are kept
+ * in the buffer while the connection is down and sent once it is back. A batch whose write failed
+ * is put back in front of the buffer.
+ * <p>
+ * How long the bot waits before it tries to reconnect and how many messages are buffered meanwhile
+ * is decided by a {@link ReconnectPolicy}. The messages that were not sent when the bot exits are
+ * kept in a file named after the connection (see {@link #persist()}) and sent after the next
+ * start.
+ * 
+ * @author Edgar Kalkowski
+ */
+public abstract class AbstractQueuedConnection implements Connection {
+    
+    /** The maximum number of messages that are written at once. */
+    public static final int MAX_BATCH = 32;
+    
+    /* How long the sending thread sleeps before it checks isConnected() again by itself. */
+    private static final long IDLE_CHECK = 10000;
+    
+    /** The states a connection passes through. */
+    public static enum State {
+        
+        /** The connection is being established. */
+        CONNECTING,
+        
+        /** The connection is established and messages are sent. */
+        CONNECTED,
+        
+        /** The connection was lost and the bot waits before it reconnects. */
+        WAITING,
+        
+        /** Reconnecting failed too often and the bot waits longer before it tries again. */
+        CIRCUIT_OPEN
+    }
+    
+    /** The bot this connection belongs to. */
+    protected final Bot bot;
+    
+    private volatile ReconnectPolicy policy = ReconnectPolicy.DEFAULT;
+    
+    private volatile OutboundBuffer buffer = new OutboundBuffer(policy.getQueueLimit(), policy
+            .getOverflow());
+    
+    private final DelayedMessages delayedMessages;
+    
+    private volatile Thread sender;
+    
+    private volatile boolean reconnect = false;
+    
+    private volatile State state = State.WAITING;
+    
+    private int failures = 0;
+    
+    /* When the current connection was established (in ns) or 0 if it was not. */
+    private long connected = 0;
+    
+    /**
+     * Create a new AbstractQueuedConnection.
+     * 
+     * @param bot
+     *        The bot this connection belongs to.
+     */
+    protected AbstractQueuedConnection(Bot bot) {
+        this.bot = bot;
+        this.delayedMessages = new DelayedMessages(bot.getScheduler(), new Observer<Message>() {
+            
+            @Override
+            public void inform(Message msg) {
+                enqueue(msg);
+            }
+        });
+    }
+    
+    /**
+     * Establish the connection to the server and join the chat.
+     * 
+     * @throws Exception
+     *         If the connection could not be established.
+     */
+    protected abstract void connect() throws Exception;
+    
+    /**
+     * Send some messages to the server.
+     * 
+     * @param messages
+     *        The messages to send in the order they were queued.
+     * @throws Exception
+     *         If the connection broke while sending. The bot will reconnect then.
+     */
+    protected abstract void write(List<Message> messages) throws Exception;
+    
+    /** Close the connection to the server. Called after the connection was lost, too. */
+    protected abstract void disconnect();
+    
+    /**
+     * Send messages that were held back (e.g. because of a rate limit). This is called by the
+     * sending thread whenever there are no more queued messages to {@link #write(List)}.
+     * 
+     * @return The time (in ms) after which this method wants to be called again or 0 if nothing is
+     *         held back.
+     * @throws Exception
+     *         If the connection broke while sending. The bot will reconnect then.
+     */
+    protected long flush() throws Exception {
+        return 0;
+    }
+    
+    /**
+     * Connections that hold messages back override this so the messages wait in the
+     * {@link OutboundBuffer} instead (where the overflow policy applies and from where they are
+     * saved when the bot exits) until they can really be sent.
+     * 
+     * @return The number of messages {@link #write(List)} may be given now.
+     */
+    protected int getCapacity() {
+        return MAX_BATCH;
+    }
+    
+    /**
+     * Record the latencies of the messages that were just written (see
+     * {@link erki.xpeter.ReplyTracer}). Connections that hold messages back override this and
+     * record them once they are really sent.
+     * 
+     * @param messages
+     *        The messages that were written.
+     * @param start
+     *        The time {@link #write(List)} was called.
+     * @param end
+     *        The time {@link #write(List)} returned.
+     */
+    protected void written(List<Message> messages, long start, long end) {
+        
+        for (Message msg : messages) {
+            Trace trace = msg.getTrace();
+            
+            if (trace != null) {
+                bot.getReplyTracer().record(getShortId(), trace, start, end);
+            }
+        }
+    }
+    
+    /**
+     * Take back the messages that were written but are still held back (see {@link #flush()}). This
+     * is called when the bot exits so they are saved with the buffered messages.
+     * 
+     * @return The messages that were not sent yet in the order they were written.
+     */
+    protected List<Message> takeHeldBack() {
+        return new ArrayList<Message>();
+    }
+    
+    /**
+     * @return The name of the kind of server this connection connects to (used for logging).
+     */
+    protected abstract String getServerName();
+    
+    /**
+     * Check if the connection is still established. Connections that can only be asked whether they
+     * are still connected override this. All others call {@link #reconnect()} if they notice that
+     * the connection broke.
+     * 
+     * @return {@code true} if messages can be written.
+     */
+    protected boolean isConnected() {
+        return true;
+    }
+    
+    /**
+     * Change how this connection reconnects and how many messages it buffers. This must be called
+     * before the connection is started.
+     * 
+     * @param policy
+     *        The new policy.
+     */
+    public void setReconnectPolicy(ReconnectPolicy policy) {
+        OutboundBuffer old = buffer;
+        buffer = new OutboundBuffer(policy.getQueueLimit(), policy.getOverflow());
+        this.policy = policy;
+        old.drainTo(buffer);
+    }
+    
+    /** @return The policy that decides how this connection reconnects. */
+    public ReconnectPolicy getReconnectPolicy() {
+        return policy;
+    }
+    
+    /** @return The number of messages that wait to be sent. */
+    public int getQueueLength() {
+        return buffer.size();
+    }
+    
+    /** @return The current state of this connection. */
+    public State getState() {
+        return state;
+    }
+    
+    @Override
+    public void send(Message msg) {
+        Trace trace = msg.getTrace();
+        
+        if (trace != null) {
+            trace.markHandedOff();
+        }
+        
+        if (msg instanceof DelayedMessage) {
+            delayedMessages.schedule((DelayedMessage) msg);
+        } else {
+            enqueue(msg);
+        }
+    }
+    
+    /**
+     * Broadcasts are sent in the same order as the other messages by default but they are dropped
+     * first if the buffer overflows (see {@link OutboundBuffer.Overflow#DROP_BROADCASTS}).
+     */
+    @Override
+    public void broadcast(Message msg) {
+        
+        if (msg instanceof DelayedMessage) {
+            delayedMessages.schedule((DelayedMessage) msg);
+        } else {
+            buffer.offer(msg, true);
+            wakeUp();
+        }
+    }
+    
+    private void enqueue(Message msg) {
+        Trace trace = msg.getTrace();
+        
+        if (trace != null) {
+            trace.markQueued();
+        }
+        
+        buffer.offer(msg, false);
+        wakeUp();
+    }
+    
+    /** Make the sending thread check for messages to send. */
+    protected void wakeUp() {
+        LockSupport.unpark(sender);
+    }
+    
+    /**
+     * Make this connection reconnect to the server, e.g. because the connection broke. If the
+     * connection is waiting to reconnect it stops waiting and tries right away.
+     */
+    public void reconnect() {
+        reconnect = true;
+        LockSupport.unpark(sender);
+    }
+    
+    @Override
+    public final void run() {
+        sender = Thread.currentThread();
+        attachOutbox();
+        
+        while (true) {
+            
+            try {
+                state = State.CONNECTING;
+                reconnect = false;
+                connected = 0;
+                connect();
+                state = State.CONNECTED;
+                connected = System.nanoTime();
+                int lost = buffer.takeDropped();
+                
+                if (lost > 0) {
+                    Log.warning(lost + " messages for " + getServerName()
+                            + " were dropped while the connection was down.");
+                }
+                
+                List<Message> batch = new ArrayList<Message>(MAX_BATCH);
+                
+                while (!reconnect && isConnected()) {
+                    int capacity = Math.min(MAX_BATCH, getCapacity());
+                    Message msg;
+                    
+                    while (batch.size() < capacity && (msg = buffer.poll()) != null) {
+                        batch.add(msg);
+                    }
+                    
+                    if (batch.isEmpty()) {
+                        long wait = flush();
+                        wait = wait > 0 ? Math.min(wait, IDLE_CHECK) : IDLE_CHECK;
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(wait));
+                    } else {
+                        WriteEvent event = new WriteEvent();
+                        event.begin();
+                        long start = System.nanoTime();
+                        
+                        try {
+                            write(batch);
+                        } catch (Throwable e) {
+                            /*
+                             * The server may have got some of the messages but sending one twice
+                             * is better than losing the whole batch.
+                             */
+                            buffer.requeue(batch);
+                            batch.clear();
+                            throw e;
+                        }
+                        
+                        long end = System.nanoTime();
+                        event.end();
+                        written(batch, start, end);
+                        
+                        if (event.shouldCommit()) {
+                            event.connection = getShortId();
+                            event.messages = batch.size();
+                            event.commit();
+                        }
+                        
+                        batch.clear();
+                    }
+                }
+                
+            } catch (Throwable e) {
+                // See that _everything_ goes to the log.
+                Log.error(e);
+            } finally {
+                ReconnectPolicy policy = this.policy;
+                
+                /*
+                 * Only a connection that stayed up for a while counts as success. Otherwise a server
+                 * that accepts the connection and drops it right away is retried without a break.
+                 */
+                if (connected != 0
+                        && System.nanoTime() - connected >= TimeUnit.MILLISECONDS.toNanos(policy
+                                .getMinDelay())) {
+                    failures = 0;
+                }
+                
+                state = policy.isOpen(failures) ? State.CIRCUIT_OPEN : State.WAITING;
+                disconnect();
+                cancelDelayedMessages();
+                
+                // Requests that belong to the connection that was just closed are done now.
+                reconnect = false;
+                long delay = policy.getDelay(failures);
+                
+                if (state == State.CIRCUIT_OPEN) {
+                    Log.warning("Could not reconnect to " + getServerName() + " " + failures
+                            + " times in a row. Trying again in " + delay / 1000 + " s.");
+                } else if (delay > 0) {
+                    Log.info("Lost connection to " + getServerName() + ". Trying to reconnect in "
+                            + delay / 1000 + " s.");
+                }
+                
+                failures++;
+                
+                if (delay > 0) {
+                    await(delay);
+                } else {
+                    Log.info("Lost connection to " + getServerName() + ". Trying to reconnect.");
+                }
+            }
+        }
+    }
+    
+    /* Waits until the delay is over or reconnect() is called. */
+    private void await(long delay) {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        long left;
+        
+        while (!reconnect && (left = end - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, left);
+        }
+    }
+    
+    /*
+     * The file is named after the connection which is only known once the subclass is initialized.
+     */
+    private void attachOutbox() {
+        String filename = ".outbox-" + (getClass().getSimpleName() + "-" + getShortId()).replaceAll(
+                "[^A-Za-z0-9._-]", "_");
+        
+        try {
+            buffer.attach(filename, policy.getSpillSize());
+        } catch (IOException e) {
+            Log.error(e);
+            Log.warning("Unsent messages for " + getServerName() + " will be lost on exit.");
+        }
+    }
+    
+    /**
+     * Save the messages that were not sent yet (including the held back and the delayed ones) so
+     * they are sent after the next start of the bot. This is called by {@link Bot#shutdown()}.
+     */
+    public void persist() {
+        // The held back messages were taken from the buffer before the ones still in it.
+        buffer.requeue(takeHeldBack());
+        cancelDelayedMessages();
+        buffer.persist();
+    }
+    
+    /*
+     * Nothing can be sent until the connection is back anyway so the delayed messages that are not
+     * yet due are cancelled and buffered like all the other messages.
+     */
+    private void cancelDelayedMessages() {
+        
+        for (DelayedMessage msg : delayedMessages.cancel()) {
+            enqueue(msg);
+        }
+    }
+}
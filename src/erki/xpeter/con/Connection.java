@@ -27,7 +27,8 @@ import erki.xpeter.parsers.Interconnector;
  * connect to a single chat (so multiple connections are required if xpeter shall join multiple
  * channels on one server) and see to it that the connection is re-established if it breaks. In case
  * the connection is not ready to send outgoing messages at one point those messages shall be
- * buffered until the connection becomes ready again.
+ * buffered until the connection becomes ready again. {@link AbstractQueuedConnection} implements
+ * this for all connections.
  * 
  * @author Edgar Kalkowski
  */
@@ -40,12 +41,18 @@ public interface Connection extends Runnable {
      * @param msg
      *        The message to send.
      */
-    /*
-     * TODO: The implementation of this method in ErkiTalkConnection and XmppConnection is exactly
-     * the same. Perhaps refactor this to a common super-class?
-     */
     public void send(Message msg);
     
+    /**
+     * Send a message that is not a response to something said in this chat (e.g. a new item of an
+     * RSS feed or a message forwarded from another chat). Connections may send such messages after
+     * the responses that are waiting to be sent.
+     * 
+     * @param msg
+     *        The message to send.
+     */
+    public void broadcast(Message msg);
+    
     /**
      * Access the nickname the bot uses with this connection.
      * 
@@ -0,0 +1,175 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.con;
+
+/**
+ * Decodes the lines of the ErkiTalk and Skype bridge protocols. The command is recognized by
+ * comparing the beginning of the line in place (ignoring case) and only the fields that are needed
+ * are cut out of the line. Malformed lines are reported as {@link Command#INVALID} instead of
+ * throwing exceptions.
+ * <p>
+ * The decoder keeps the fields of the last decoded line so one instance must not be used by several
+ * threads at once. The lines of one connection are decoded one after another anyway.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class LineDecoder {
+    
+    /** The commands of the protocols. */
+    public static enum Command {
+        
+        /** {@code TEXT <nick>: <text>} – someone said something. */
+        TEXT,
+        
+        /** {@code NEWNICK <old nick>: <new nick>} – someone changed the nickname. */
+        NEWNICK,
+        
+        /** {@code QUIT <nick>[: <reason>]} – someone left. */
+        QUIT,
+        
+        /** {@code JOIN <nick>} – someone joined. */
+        JOIN,
+        
+        /** {@code USER <flags> <nick>} – someone is online (sent after login). */
+        USER,
+        
+        /** {@code PING} – the server checks if the bot is still there. */
+        PING,
+        
+        /** The line could not be decoded. */
+        INVALID
+    }
+    
+    private Command command;
+    
+    private String first, second;
+    
+    /**
+     * Decode a line.
+     * 
+     * @param line
+     *        The line to decode.
+     * @return The command of the line. Its fields can be accessed via {@link #getFirst()} and
+     *         {@link #getSecond()}.
+     */
+    public Command decode(String line) {
+        first = null;
+        second = null;
+        command = Command.INVALID;
+        
+        if (line.isEmpty()) {
+            return command;
+        }
+        
+        switch (Character.toUpperCase(line.charAt(0))) {
+            case 'T':
+                if (starts(line, "TEXT ") && pair(line, 5, true)) {
+                    command = Command.TEXT;
+                }
+                break;
+            case 'N':
+                if (starts(line, "NEWNICK ") && pair(line, 8, true)) {
+                    command = Command.NEWNICK;
+                }
+                break;
+            case 'Q':
+                if (starts(line, "QUIT ") && pair(line, 5, false)) {
+                    command = Command.QUIT;
+                }
+                break;
+            case 'J':
+                if (starts(line, "JOIN ") && line.length() > 5) {
+                    first = line.substring(5);
+                    command = Command.JOIN;
+                }
+                break;
+            case 'U':
+                if (starts(line, "USER ")) {
+                    // The flags are skipped.
+                    int space = line.indexOf(' ', 5);
+                    
+                    if (space > 0 && space < line.length() - 1) {
+                        first = line.substring(space + 1);
+                        command = Command.USER;
+                    }
+                }
+                break;
+            case 'P':
+                if (line.length() == 4 && starts(line, "PING")) {
+                    command = Command.PING;
+                }
+                break;
+        }
+        
+        return command;
+    }
+    
+    private static boolean starts(String line, String prefix) {
+        return line.regionMatches(true, 0, prefix, 0, prefix.length());
+    }
+    
+    /*
+     * Splits “<first>: <second>” that starts at some offset. One space after the colon is skipped.
+     * If the second part is not required and there is no colon the whole rest is the first part.
+     */
+    private boolean pair(String line, int offset, boolean required) {
+        int colon = line.indexOf(':', offset);
+        
+        if (colon < 0) {
+            
+            if (required || offset == line.length()) {
+                return false;
+            }
+            
+            first = line.substring(offset);
+            second = "";
+            return true;
+        }
+        
+        if (colon == offset) {
+            return false;
+        }
+        
+        int start = colon + 1 < line.length() && line.charAt(colon + 1) == ' ' ? colon + 2
+                : colon + 1;
+        first = line.substring(offset, colon);
+        second = line.substring(start);
+        return true;
+    }
+    
+    /** @return The command of the last decoded line. */
+    public Command getCommand() {
+        return command;
+    }
+    
+    /**
+     * @return The first field of the last decoded line (the nickname for all commands that have
+     *         fields) or {@code null} if it has none.
+     */
+    public String getFirst() {
+        return first;
+    }
+    
+    /**
+     * @return The second field of the last decoded line (the text, the new nickname or the reason)
+     *         or {@code null} if it has none.
+     */
+    public String getSecond() {
+        return second;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.con;
+
+/**
+ * Receives the lines read by a {@link LineTransport}. The methods of one handler are never called
+ * concurrently and always in the order the lines were received.
+ * 
+ * @author Edgar Kalkowski
+ */
+public interface LineHandler {
+    
+    /**
+     * Called for every line received from the server.
+     * 
+     * @param line
+     *        The line without the line terminator.
+     */
+    public void onLine(String line);
+    
+    /**
+     * Called once if the server closed the connection or if reading from it or writing to it
+     * failed.
+     */
+    public void onClose();
+}
@@ -0,0 +1,405 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.con;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import erki.api.util.Log;
+import erki.xpeter.util.DaemonThreadFactory;
+import erki.xpeter.util.SerialExecutor;
+
+/**
+ * Multiplexes the sockets of all connections that speak a line based protocol (like ErkiTalk and
+ * the Skype bridge) on one thread. Received bytes are split into lines directly in the read buffer
+ * and decoded as UTF-8. The lines are then handed to the {@link LineHandler} of the connection on a
+ * small shared thread pool of {@link #HANDLER_THREADS} threads, so a handler that takes long does
+ * not block the other connections. Each connection occupies at most one of these threads at a
+ * time.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class LineTransport implements Runnable {
+    
+    /** The longest line (in bytes) that is accepted. Longer lines are dropped. */
+    public static final int MAX_LINE_LENGTH = 1 << 20;
+    
+    /** The number of threads that run the handlers of all connections. */
+    public static final int HANDLER_THREADS = 4;
+    
+    /** The longest time (in ms) writing some lines may take before the connection is closed. */
+    public static final long WRITE_TIMEOUT = 60000;
+    
+    private static final int BUFFER_SIZE = 8192;
+    
+    private static LineTransport instance;
+    
+    private final Selector selector;
+    
+    /* Changes of the registrations must happen on the thread of the selector. */
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    
+    private final ExecutorService handlers = Executors.newFixedThreadPool(HANDLER_THREADS,
+            new DaemonThreadFactory("LineHandler"));
+    
+    private LineTransport() throws IOException {
+        selector = Selector.open();
+    }
+    
+    /**
+     * Access the transport shared by all connections. It is started when it is first used.
+     * 
+     * @return The shared LineTransport.
+     * @throws IOException
+     *         If the selector could not be opened.
+     */
+    public static synchronized LineTransport getInstance() throws IOException {
+        
+        if (instance == null) {
+            instance = new LineTransport();
+            Thread thread = new Thread(instance, "LineTransport");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        return instance;
+    }
+    
+    /**
+     * Connect to a server. This blocks until the connection is established.
+     * 
+     * @param host
+     *        The hostname of the server.
+     * @param port
+     *        The port of the server.
+     * @param handler
+     *        The handler for the lines received from the server.
+     * @return The channel that can be used to send lines to the server.
+     * @throws IOException
+     *         If the connection could not be established.
+     */
+    public LineChannel open(String host, int port, LineHandler handler) throws IOException {
+        final SocketChannel socket = SocketChannel.open(new InetSocketAddress(host, port));
+        socket.configureBlocking(false);
+        final LineChannel channel = new LineChannel(socket, handler);
+        
+        execute(new Runnable() {
+            
+            @Override
+            public void run() {
+                
+                try {
+                    channel.key = socket.register(selector, SelectionKey.OP_READ, channel);
+                } catch (ClosedChannelException e) {
+                    channel.fail(e);
+                }
+            }
+        });
+        
+        return channel;
+    }
+    
+    private void execute(Runnable task) {
+        tasks.offer(task);
+        selector.wakeup();
+    }
+    
+    @Override
+    public void run() {
+        
+        while (true) {
+            
+            try {
+                selector.select();
+            } catch (IOException e) {
+                Log.error(e);
+            }
+            
+            Runnable task;
+            
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+            
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                LineChannel channel = (LineChannel) key.attachment();
+                
+                try {
+                    
+                    if (key.isValid() && key.isReadable()) {
+                        channel.read();
+                    }
+                    
+                    if (key.isValid() && key.isWritable()) {
+                        channel.flush();
+                    }
+                    
+                } catch (IOException e) {
+                    channel.fail(e);
+                }
+            }
+        }
+    }
+    
+    /** The connection to one server. */
+    public class LineChannel {
+        
+        private final SocketChannel socket;
+        
+        private final LineHandler handler;
+        
+        private final SerialExecutor inbound = new SerialExecutor(handlers);
+        
+        private final ConcurrentLinkedQueue<Pending> outbound;
+        
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        
+        /* Only used by the thread of the selector. */
+        private SelectionKey key;
+        
+        private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        
+        private volatile boolean closed = false;
+        
+        private LineChannel(SocketChannel socket, LineHandler handler) {
+            this.socket = socket;
+            this.handler = handler;
+            outbound = new ConcurrentLinkedQueue<Pending>();
+        }
+        
+        /**
+         * Send some lines to the server. This blocks until the lines were handed to the operating
+         * system, so the caller learns if they could not be sent.
+         * 
+         * @param lines
+         *        The lines to send (without line terminators).
+         * @throws IOException
+         *         If the connection is closed or breaks before all lines were written or if the
+         *         server did not accept them within {@link LineTransport#WRITE_TIMEOUT}.
+         */
+        public void write(List<String> lines) throws IOException {
+            
+            if (closed) {
+                throw new IOException("The connection is closed.");
+            }
+            
+            StringBuilder text = new StringBuilder();
+            
+            for (String line : lines) {
+                text.append(line).append('\n');
+            }
+            
+            Pending pending = new Pending(StandardCharsets.UTF_8.encode(text.toString()));
+            outbound.offer(pending);
+            
+            // close() may have missed the new lines.
+            if (closed) {
+                failPending();
+            }
+            
+            execute(new Runnable() {
+                
+                @Override
+                public void run() {
+                    
+                    if (key != null && key.isValid()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                }
+            });
+            
+            try {
+                
+                if (!pending.done.await(WRITE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    fail(new IOException("The server did not accept any data for "
+                            + WRITE_TIMEOUT / 1000 + " s."));
+                }
+                
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing.");
+            }
+            
+            if (pending.error != null) {
+                throw pending.error;
+            }
+        }
+        
+        /**
+         * Close the connection. The handler is not informed about this. Lines that were not
+         * written yet are dropped and their writers get an exception.
+         */
+        public void close() {
+            closed = true;
+            
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+            
+            failPending();
+        }
+        
+        private void failPending() {
+            Pending pending;
+            
+            while ((pending = outbound.poll()) != null) {
+                pending.error = new IOException("The connection was closed before all lines were "
+                        + "written.");
+                pending.done.countDown();
+            }
+        }
+        
+        private void read() throws IOException {
+            
+            if (socket.read(in) < 0) {
+                fail(null);
+                return;
+            }
+            
+            in.flip();
+            int start = 0;
+            
+            for (int i = 0; i < in.limit(); i++) {
+                
+                if (in.get(i) == '\n') {
+                    int end = i > start && in.get(i - 1) == '\r' ? i - 1 : i;
+                    ByteBuffer bytes = in.duplicate();
+                    bytes.position(start);
+                    bytes.limit(end);
+                    deliver(decode(bytes));
+                    start = i + 1;
+                }
+            }
+            
+            in.position(start);
+            in.compact();
+            
+            if (!in.hasRemaining()) {
+                
+                if (in.capacity() >= MAX_LINE_LENGTH) {
+                    Log.warning("Dropping a line that is longer than " + MAX_LINE_LENGTH
+                            + " bytes.");
+                    in.clear();
+                } else {
+                    ByteBuffer larger = ByteBuffer.allocate(in.capacity() * 2);
+                    in.flip();
+                    larger.put(in);
+                    in = larger;
+                }
+            }
+        }
+        
+        private String decode(ByteBuffer bytes) {
+            
+            try {
+                return decoder.decode(bytes).toString();
+            } catch (CharacterCodingException e) {
+                // Cannot happen as malformed input is replaced.
+                throw new Error(e);
+            }
+        }
+        
+        private void deliver(final String line) {
+            
+            inbound.execute(new Runnable() {
+                
+                @Override
+                public void run() {
+                    handler.onLine(line);
+                }
+            });
+        }
+        
+        private void flush() throws IOException {
+            Pending pending;
+            
+            while ((pending = outbound.peek()) != null) {
+                socket.write(pending.bytes);
+                
+                if (pending.bytes.hasRemaining()) {
+                    return;
+                }
+                
+                // close() may have removed it already.
+                outbound.remove(pending);
+                pending.done.countDown();
+            }
+            
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+        
+        private void fail(IOException e) {
+            
+            if (closed) {
+                return;
+            }
+            
+            if (e != null) {
+                Log.error(e);
+            }
+            
+            close();
+            
+            inbound.execute(new Runnable() {
+                
+                @Override
+                public void run() {
+                    handler.onClose();
+                }
+            });
+        }
+    }
+    
+    /* Some lines that wait to be written and the result of writing them. */
+    private static class Pending {
+        
+        private final ByteBuffer bytes;
+        
+        private final CountDownLatch done = new CountDownLatch(1);
+        
+        private volatile IOException error;
+        
+        private Pending(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,420 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package erki.xpeter.con;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import erki.api.util.Log;
+import erki.xpeter.msg.Message;
+
+/**
+ * The messages an {@link AbstractQueuedConnection} has not sent yet. At most a fixed number of
+ * messages are kept in memory. What happens if more messages are added is decided by an
+ * {@link Overflow} policy.
+ * <p>
+ * If a file was {@link #attach(String, int) attached} the messages are also kept across restarts of
+ * the bot: Messages that were spilled to the file stay there and {@link #persist()} moves the
+ * messages that are in memory into the file before the bot exits. The file is read again when it
+ * is attached the next time.
+ * <p>
+ * As long as nothing was spilled and the limit is not exceeded adding and removing messages does
+ * not take any lock. Only handling an overflow, the file and {@link #persist()} synchronize on the
+ * buffer. Messages are removed by a single thread (the sending thread of the connection).
+ * 
+ * @author Edgar Kalkowski
+ */
+public class OutboundBuffer {
+    
+    /** What happens if more messages are buffered than fit into memory. */
+    public static enum Overflow {
+        
+        /** The oldest messages are dropped. */
+        DROP_OLDEST,
+        
+        /** The oldest broadcasts are dropped. Responses are only dropped if there are none. */
+        DROP_BROADCASTS,
+        
+        /** The newest messages are moved to a memory-mapped file and read back once sent. */
+        SPILL
+    }
+    
+    private final ConcurrentLinkedDeque<Entry> memory = new ConcurrentLinkedDeque<Entry>();
+    
+    /* The number of messages in memory and how many of them are broadcasts. */
+    private final AtomicInteger inMemory = new AtomicInteger(), broadcasts = new AtomicInteger();
+    
+    private final AtomicInteger dropped = new AtomicInteger();
+    
+    /* The number of threads that are adding a message to memory without the lock right now. */
+    private final AtomicInteger writers = new AtomicInteger();
+    
+    private final int limit;
+    
+    private final Overflow overflow;
+    
+    /* Guarded by the lock of this buffer. */
+    private SpillRing ring;
+    
+    /*
+     * Set while the file holds messages. New messages must then go to the file (with the lock) to
+     * keep the order.
+     */
+    private volatile boolean spilled = false;
+    
+    /**
+     * Create a new OutboundBuffer.
+     * 
+     * @param limit
+     *        The maximum number of messages kept in memory.
+     * @param overflow
+     *        What happens if more messages are added.
+     */
+    public OutboundBuffer(int limit, Overflow overflow) {
+        this.limit = limit;
+        this.overflow = overflow;
+    }
+    
+    /**
+     * Attach a file that keeps the messages across restarts. Messages that are already in the file
+     * are sent before the ones added so far.
+     * 
+     * @param filename
+     *        The file to use.
+     * @param capacity
+     *        The size (in bytes) of the file if it is created.
+     * @throws IOException
+     *         If the file could not be opened.
+     */
+    public synchronized void attach(String filename, int capacity) throws IOException {
+        ring = new SpillRing(filename, capacity);
+        
+        if (ring.size() > 0) {
+            stopWriters();
+            Entry entry;
+            
+            // Keep the order: everything in memory is newer than the messages in the file.
+            while ((entry = take()) != null) {
+                dropped.addAndGet(ring.add(entry));
+            }
+            
+            refill();
+        }
+    }
+    
+    /**
+     * Add a message.
+     * 
+     * @param msg
+     *        The message to add.
+     * @param broadcast
+     *        {@code true} if the message is not a response to something said in the chat.
+     */
+    public void offer(Message msg, boolean broadcast) {
+        Entry entry = new Entry(msg, broadcast);
+        int size = -1;
+        writers.incrementAndGet();
+        
+        try {
+            
+            if (!spilled) {
+                size = add(entry);
+            }
+            
+        } finally {
+            writers.decrementAndGet();
+        }
+        
+        if (size < 0) {
+            offerLocked(entry);
+        } else if (size > limit) {
+            shrink();
+        }
+    }
+    
+    private synchronized void offerLocked(Entry entry) {
+        
+        // Once messages were spilled all newer ones go to the file, too, to keep the order.
+        if (spilled) {
+            dropped.addAndGet(ring.add(entry));
+        } else if (add(entry) > limit) {
+            shrink();
+        }
+    }
+    
+    /* Returns the number of messages in memory afterwards. */
+    private int add(Entry entry) {
+        memory.offerLast(entry);
+        
+        if (entry.broadcast) {
+            broadcasts.incrementAndGet();
+        }
+        
+        return inMemory.incrementAndGet();
+    }
+    
+    /* Applies the overflow policy until the limit is kept. */
+    private synchronized void shrink() {
+        
+        if (overflow == Overflow.SPILL && ring != null) {
+            spill();
+            return;
+        }
+        
+        while (inMemory.get() > limit) {
+            
+            if (overflow == Overflow.DROP_BROADCASTS && broadcasts.get() > 0) {
+                Iterator<Entry> iterator = memory.iterator();
+                
+                while (iterator.hasNext()) {
+                    Entry entry = iterator.next();
+                    
+                    if (entry.broadcast && memory.removeFirstOccurrence(entry)) {
+                        removed(entry);
+                        dropped.incrementAndGet();
+                        break;
+                    }
+                }
+                
+            } else if (take() != null) {
+                dropped.incrementAndGet();
+            } else {
+                break;
+            }
+        }
+        
+        if (spilled && ring.size() == 0) {
+            spilled = false;
+        }
+    }
+    
+    /* Moves the newest messages above the limit to the file. Must be called with the lock. */
+    private void spill() {
+        
+        // Nobody may add to memory anymore before the newest messages are moved.
+        stopWriters();
+        LinkedList<Entry> moved = new LinkedList<Entry>();
+        
+        while (inMemory.get() > limit) {
+            Entry entry = memory.pollLast();
+            
+            if (entry == null) {
+                break;
+            }
+            
+            removed(entry);
+            moved.addFirst(entry);
+        }
+        
+        /*
+         * The messages already in the file are newer than the ones just moved (this happens if
+         * messages were requeued while the file was in use), so they have to go behind them.
+         */
+        if (!moved.isEmpty() && ring.size() > 0) {
+            Entry entry;
+            
+            while ((entry = ring.poll()) != null) {
+                moved.add(entry);
+            }
+            
+            ring.clear();
+        }
+        
+        for (Entry entry : moved) {
+            dropped.addAndGet(ring.add(entry));
+        }
+        
+        if (ring.size() == 0) {
+            spilled = false;
+        }
+    }
+    
+    /* Makes new messages go to the file and waits until all lock-free adds are finished. */
+    private void stopWriters() {
+        spilled = true;
+        
+        while (writers.get() > 0) {
+            Thread.yield();
+        }
+    }
+    
+    private Entry take() {
+        Entry entry = memory.pollFirst();
+        
+        if (entry != null) {
+            removed(entry);
+        }
+        
+        return entry;
+    }
+    
+    private void removed(Entry entry) {
+        inMemory.decrementAndGet();
+        
+        if (entry.broadcast) {
+            broadcasts.decrementAndGet();
+        }
+    }
+    
+    /**
+     * Remove the oldest message.
+     * 
+     * @return The oldest message or {@code null} if there are none.
+     */
+    public Message poll() {
+        Entry entry = take();
+        
+        if (spilled) {
+            
+            synchronized (this) {
+                
+                if (entry == null) {
+                    refill();
+                    entry = take();
+                }
+                
+                refill();
+            }
+        }
+        
+        return entry == null ? null : entry.msg;
+    }
+    
+    /**
+     * Put messages that were taken but could not be sent back in front of all other messages. They
+     * are not subject to the overflow policy, so the buffer may briefly hold more messages than its
+     * limit, and they are treated as responses even if some of them were broadcasts.
+     * 
+     * @param messages
+     *        The messages in the order they were taken.
+     */
+    public void requeue(List<Message> messages) {
+        
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            memory.offerFirst(new Entry(messages.get(i), false));
+            inMemory.incrementAndGet();
+        }
+    }
+    
+    /* Must be called with the lock. */
+    private void refill() {
+        
+        while (spilled && inMemory.get() < limit) {
+            Entry entry = ring.poll();
+            
+            if (entry == null) {
+                spilled = false;
+            } else {
+                add(entry);
+            }
+        }
+    }
+    
+    /**
+     * Move all messages to another buffer.
+     * 
+     * @param other
+     *        The buffer that gets the messages.
+     */
+    public synchronized void drainTo(OutboundBuffer other) {
+        
+        while (true) {
+            Entry entry = take();
+            
+            if (entry == null && spilled) {
+                refill();
+                entry = take();
+            }
+            
+            if (entry == null) {
+                return;
+            }
+            
+            other.offer(entry.msg, entry.broadcast);
+        }
+    }
+    
+    /** @return The number of buffered messages (in memory and in the file). */
+    public int size() {
+        
+        if (!spilled) {
+            return inMemory.get();
+        }
+        
+        synchronized (this) {
+            return inMemory.get() + (ring == null ? 0 : ring.size());
+        }
+    }
+    
+    /** @return The number of messages dropped since the last call of this method. */
+    public int takeDropped() {
+        return dropped.getAndSet(0);
+    }
+    
+    /**
+     * Move all messages that are in memory to the attached file so they are sent after a restart of
+     * the bot. Does nothing if no file is attached.
+     */
+    public synchronized void persist() {
+        
+        if (ring == null) {
+            return;
+        }
+        
+        stopWriters();
+        LinkedList<Entry> entries = new LinkedList<Entry>();
+        Entry entry;
+        
+        while ((entry = take()) != null) {
+            entries.add(entry);
+        }
+        
+        while ((entry = ring.poll()) != null) {
+            entries.add(entry);
+        }
+        
+        ring.clear();
+        
+        for (Entry e : entries) {
+            dropped.addAndGet(ring.add(e));
+        }
+        
+        ring.force();
+        spilled = ring.size() > 0;
+        
+        if (!entries.isEmpty()) {
+            Log.info("Saved " + ring.size() + " unsent messages.");
+        }
+    }
+    
+    /* A buffered message. */
+    static class Entry {
+        
+        final Message msg;
+        
+        final boolean broadcast;
+        
+        Entry(Message msg, boolean broadcast) {
+            this.msg = msg;
+            this.broadcast = broadcast;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.con;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import erki.xpeter.con.OutboundBuffer.Overflow;
+
+/**
+ * Decides how long an {@link AbstractQueuedConnection} waits before it tries to reconnect and how
+ * many messages it buffers while the connection is down. After the connection was lost the first
+ * try waits {@link #getInitialDelay()} ms (immediately by default). Every further try waits twice
+ * as long as the one before, starting with {@link #getMinDelay()} and up to {@link #getMaxDelay()}
+ * ms. A try only counts as successful once the connection stayed up for {@link #getMinDelay()} ms.
+ * All delays are varied randomly by {@link #getJitter()} so connections that broke at the same
+ * time do not all reconnect at the same time.
+ * <p>
+ * If {@link #getThreshold()} tries failed in a row the server is considered to be down for longer
+ * (the circuit is open). The connection then only tries again every {@link #getCooldown()} ms until
+ * one try succeeds.
+ * <p>
+ * At most {@link #getQueueLimit()} unsent messages are kept in memory. What happens to further
+ * messages is decided by {@link #getOverflow()}. By default they are spilled to a file of
+ * {@link #getSpillSize()} bytes.
+ * <p>
+ * A policy can be specified for every connection by appending options to the connection
+ * specification like {@code irc://#chan@server:6667?min=5000&max=60000}. See
+ * {@link #parse(String)}.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class ReconnectPolicy {
+    
+    /** The policy used if nothing else is specified. */
+    public static final ReconnectPolicy DEFAULT = new ReconnectPolicy(0, 10000, 300000, 0.2, 10,
+            1800000, 1000, Overflow.SPILL, 4 << 20);
+    
+    private final long initial, min, max, cooldown;
+    
+    private final double jitter;
+    
+    private final int threshold, queueLimit, spillSize;
+    
+    private final Overflow overflow;
+    
+    /**
+     * Create a new ReconnectPolicy.
+     * 
+     * @param initial
+     *        The time (in ms) to wait before the first try.
+     * @param min
+     *        The time (in ms) to wait before the second try.
+     * @param max
+     *        The maximum time (in ms) to wait between two tries.
+     * @param jitter
+     *        The fraction (between 0 and 1) by which the delays are varied randomly.
+     * @param threshold
+     *        The number of failed tries after which the circuit opens or 0 if it never shall.
+     * @param cooldown
+     *        The time (in ms) to wait between two tries while the circuit is open.
+     * @param queueLimit
+     *        The maximum number of messages that are buffered in memory.
+     * @param overflow
+     *        What happens if more messages are buffered.
+     * @param spillSize
+     *        The size (in bytes) of the file that keeps the messages that do not fit into memory
+     *        and those that were not sent when the bot exited.
+     * @throws IllegalArgumentException
+     *         If one of the values is out of range.
+     */
+    public ReconnectPolicy(long initial, long min, long max, double jitter, int threshold,
+            long cooldown, int queueLimit, Overflow overflow, int spillSize) {
+        
+        if (initial < 0 || min <= 0 || max < min || cooldown <= 0) {
+            throw new IllegalArgumentException("Invalid delays: initial=" + initial + ", min="
+                    + min + ", max=" + max + ", cooldown=" + cooldown);
+        }
+        
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("The jitter must be between 0 and 1: " + jitter);
+        }
+        
+        if (threshold < 0 || queueLimit <= 0 || spillSize <= 0) {
+            throw new IllegalArgumentException("Invalid limits: threshold=" + threshold
+                    + ", queue=" + queueLimit + ", spill=" + spillSize);
+        }
+        
+        this.initial = initial;
+        this.min = min;
+        this.max = max;
+        this.jitter = jitter;
+        this.threshold = threshold;
+        this.cooldown = cooldown;
+        this.queueLimit = queueLimit;
+        this.overflow = overflow;
+        this.spillSize = spillSize;
+    }
+    
+    /**
+     * Parse a policy from options like {@code min=5000&max=60000}. Valid options are
+     * {@code initial}, {@code min}, {@code max}, {@code cooldown} (all in ms), {@code jitter} (a
+     * fraction between 0 and 1), {@code threshold}, {@code queue}, {@code overflow} (one of
+     * {@code drop-oldest}, {@code drop-broadcasts} and {@code spill}) and {@code spill} (in bytes).
+     * Options that are not given are taken from {@link #DEFAULT}.
+     * 
+     * @param options
+     *        The options to parse (may be {@code null} or empty).
+     * @return The parsed policy.
+     * @throws IllegalArgumentException
+     *         If some option is unknown or its value is invalid.
+     */
+    public static ReconnectPolicy parse(String options) {
+        ReconnectPolicy d = DEFAULT;
+        long initial = d.initial, min = d.min, max = d.max, cooldown = d.cooldown;
+        double jitter = d.jitter;
+        int threshold = d.threshold, queueLimit = d.queueLimit, spillSize = d.spillSize;
+        Overflow overflow = d.overflow;
+        
+        if (options == null || options.isEmpty()) {
+            return DEFAULT;
+        }
+        
+        for (String option : options.split("&")) {
+            
+            if (!option.contains("=")) {
+                throw new IllegalArgumentException("Invalid option: " + option);
+            }
+            
+            String key = option.substring(0, option.indexOf('=')).trim().toLowerCase();
+            String value = option.substring(option.indexOf('=') + 1).trim();
+            
+            try {
+                
+                if (key.equals("initial")) {
+                    initial = Long.parseLong(value);
+                } else if (key.equals("min")) {
+                    min = Long.parseLong(value);
+                } else if (key.equals("max")) {
+                    max = Long.parseLong(value);
+                } else if (key.equals("cooldown")) {
+                    cooldown = Long.parseLong(value);
+                } else if (key.equals("jitter")) {
+                    jitter = Double.parseDouble(value);
+                } else if (key.equals("threshold")) {
+                    threshold = Integer.parseInt(value);
+                } else if (key.equals("queue")) {
+                    queueLimit = Integer.parseInt(value);
+                } else if (key.equals("overflow")) {
+                    overflow = parseOverflow(value);
+                } else if (key.equals("spill")) {
+                    spillSize = Integer.parseInt(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + key);
+                }
+                
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value of option " + key + ": "
+                        + value);
+            }
+        }
+        
+        return new ReconnectPolicy(initial, min, max, jitter, threshold, cooldown, queueLimit,
+                overflow, spillSize);
+    }
+    
+    private static Overflow parseOverflow(String value) {
+        
+        for (Overflow overflow : Overflow.values()) {
+            
+            if (overflow.name().replace('_', '-').equalsIgnoreCase(value)) {
+                return overflow;
+            }
+        }
+        
+        throw new IllegalArgumentException("Invalid value of option overflow: " + value);
+    }
+    
+    /**
+     * Compute the time to wait before the next try.
+     * 
+     * @param failures
+     *        The number of tries that failed since the connection was lost (0 right after the
+     *        connection was lost).
+     * @return The time (in ms) to wait.
+     */
+    public long getDelay(int failures) {
+        long delay;
+        
+        if (isOpen(failures)) {
+            delay = cooldown;
+        } else if (failures == 0) {
+            delay = initial;
+        } else {
+            delay = Math.min(max, min << Math.min(failures - 1, 20));
+        }
+        
+        if (delay == 0 || jitter == 0) {
+            return delay;
+        }
+        
+        double factor = 1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return Math.max(1, (long) (delay * factor));
+    }
+    
+    /**
+     * Check if the circuit is open, i.e. so many tries failed that the server is considered to be
+     * down for longer.
+     * 
+     * @param failures
+     *        The number of tries that failed since the connection was lost.
+     * @return {@code true} if the circuit is open.
+     */
+    public boolean isOpen(int failures) {
+        return threshold > 0 && failures >= threshold;
+    }
+    
+    /** @return The time (in ms) to wait before the first try. */
+    public long getInitialDelay() {
+        return initial;
+    }
+    
+    /** @return The time (in ms) to wait before the second try. */
+    public long getMinDelay() {
+        return min;
+    }
+    
+    /** @return The maximum time (in ms) to wait between two tries. */
+    public long getMaxDelay() {
+        return max;
+    }
+    
+    /** @return The fraction by which the delays are varied randomly. */
+    public double getJitter() {
+        return jitter;
+    }
+    
+    /** @return The number of failed tries after which the circuit opens (0 means never). */
+    public int getThreshold() {
+        return threshold;
+    }
+    
+    /** @return The time (in ms) to wait between two tries while the circuit is open. */
+    public long getCooldown() {
+        return cooldown;
+    }
+    
+    /** @return The maximum number of messages that are buffered in memory. */
+    public int getQueueLimit() {
+        return queueLimit;
+    }
+    
+    /** @return What happens if more messages are buffered than fit into memory. */
+    public Overflow getOverflow() {
+        return overflow;
+    }
+    
+    /** @return The size (in bytes) of the file that keeps unsent messages. */
+    public int getSpillSize() {
+        return spillSize;
+    }
+    
+    @Override
+    public String toString() {
+        return "initial=" + initial + "&min=" + min + "&max=" + max + "&jitter=" + jitter
+                + "&threshold=" + threshold + "&cooldown=" + cooldown + "&queue=" + queueLimit
+                + "&overflow=" + overflow.name().toLowerCase().replace('_', '-') + "&spill="
+                + spillSize;
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.con;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import erki.api.util.Log;
+import erki.xpeter.con.OutboundBuffer.Entry;
+import erki.xpeter.msg.DelayedMessage;
+import erki.xpeter.msg.Message;
+import erki.xpeter.msg.RawMessage;
+
+/**
+ * A queue of messages in a memory-mapped file of fixed size. The data area is used as a ring of
+ * bytes so records may wrap around its end. If a new record does not fit the oldest records are
+ * dropped. As the file is mapped the records are kept by the operating system even if the bot is
+ * killed and they are read again when the bot is restarted.
+ * <p>
+ * The file starts with a header of {@link #HEADER} bytes (magic number, size of the data area,
+ * offset of the oldest record, number of used bytes and number of records). Every record consists
+ * of the length of its text (an int), its kind (a byte), the time the message is due (a long, only
+ * used by {@link DelayedMessage}s) and the text of the message encoded in UTF-8.
+ * <p>
+ * The kind records whether the message was a plain {@link Message}, a {@link RawMessage} or a
+ * {@link DelayedMessage} and whether it was a broadcast. Messages of other classes cannot be
+ * restored and are refused. The {@link erki.xpeter.msg.Trace} of a message is not stored, so
+ * messages that went through the file are not traced.
+ * 
+ * @author Edgar Kalkowski
+ */
+class SpillRing {
+    
+    /* Files written before the kind of a message was stored used 0x78706f62. */
+    private static final int MAGIC = 0x78706f63;
+    
+    private static final int HEADER = 20;
+    
+    private static final int RECORD_HEADER = 13;
+    
+    private static final byte PLAIN = 0, RAW = 1, DELAYED = 2, TYPE = 3, BROADCAST = 4;
+    
+    private final String filename;
+    
+    private final MappedByteBuffer map;
+    
+    private final int capacity;
+    
+    private int head, used, count;
+    
+    /**
+     * Open a ring. If the file already exists its records are kept.
+     * 
+     * @param filename
+     *        The file to map.
+     * @param capacity
+     *        The size (in bytes) of the data area if the file is created.
+     * @throws IOException
+     *         If the file could not be mapped.
+     */
+    SpillRing(String filename, int capacity) throws IOException {
+        this.filename = filename;
+        
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+            boolean valid = false;
+            
+            if (file.length() >= HEADER) {
+                file.seek(0);
+                
+                if (file.readInt() == MAGIC) {
+                    int existing = file.readInt();
+                    
+                    if (existing > 0 && file.length() == HEADER + (long) existing) {
+                        capacity = existing;
+                        valid = true;
+                    }
+                }
+            }
+            
+            if (!valid) {
+                file.setLength(0);
+                file.setLength(HEADER + (long) capacity);
+            }
+            
+            this.capacity = capacity;
+            map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER + capacity);
+            
+            if (valid) {
+                head = map.getInt(8);
+                used = map.getInt(12);
+                count = map.getInt(16);
+                
+                if (head < 0 || head >= capacity || used < 0 || used > capacity || count < 0
+                        || !check()) {
+                    Log.warning("The spill file " + filename + " is corrupt. Starting empty.");
+                    head = used = count = 0;
+                }
+                
+            } else {
+                map.putInt(0, MAGIC);
+                map.putInt(4, capacity);
+            }
+            
+            writeHeader();
+        }
+        
+        if (count > 0) {
+            Log.info("Found " + count + " unsent messages in " + filename + ".");
+        }
+    }
+    
+    /* Returns whether the records exactly fill the used bytes. */
+    private boolean check() {
+        int position = head;
+        int remaining = used;
+        
+        for (int i = 0; i < count; i++) {
+            int size = recordSize(position, remaining);
+            
+            if (size < 0) {
+                return false;
+            }
+            
+            position = (position + size) % capacity;
+            remaining -= size;
+        }
+        
+        return remaining == 0;
+    }
+    
+    /*
+     * Returns the size of the record at the given position or -1 if its header is broken or it is
+     * longer than the remaining used bytes.
+     */
+    private int recordSize(int position, int remaining) {
+        
+        if (remaining < RECORD_HEADER) {
+            return -1;
+        }
+        
+        ByteBuffer header = ByteBuffer.wrap(get(position, RECORD_HEADER));
+        int length = header.getInt();
+        int type = header.get() & TYPE;
+        
+        if (length < 0 || length > remaining - RECORD_HEADER || type == TYPE) {
+            return -1;
+        }
+        
+        return RECORD_HEADER + length;
+    }
+    
+    /**
+     * Append a message. The oldest messages are dropped if there is not enough space.
+     * 
+     * @param entry
+     *        The message to append.
+     * @return The number of messages that were dropped. Messages of classes that cannot be
+     *         restored count as dropped, too.
+     */
+    int add(Entry entry) {
+        byte type;
+        long due = 0;
+        
+        if (entry.msg.getClass() == Message.class) {
+            type = PLAIN;
+        } else if (entry.msg.getClass() == RawMessage.class) {
+            type = RAW;
+        } else if (entry.msg.getClass() == DelayedMessage.class) {
+            DelayedMessage delayed = (DelayedMessage) entry.msg;
+            type = DELAYED;
+            due = delayed.getTimeOfCreation() + delayed.getDelay();
+        } else {
+            Log.warning("A " + entry.msg.getClass().getSimpleName() + " cannot be stored in "
+                    + filename + ". Dropping it.");
+            return 1;
+        }
+        
+        byte[] text = entry.msg.getText().getBytes(StandardCharsets.UTF_8);
+        int size = RECORD_HEADER + text.length;
+        
+        if (size > capacity) {
+            Log.warning("A message is too large for " + filename + ". Dropping it.");
+            return 1;
+        }
+        
+        int dropped = 0;
+        
+        while (capacity - used < size) {
+            skip();
+            dropped++;
+        }
+        
+        int tail = (head + used) % capacity;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        header.putInt(text.length);
+        header.put((byte) (type | (entry.broadcast ? BROADCAST : 0)));
+        header.putLong(due);
+        put(tail, header.array());
+        put((tail + RECORD_HEADER) % capacity, text);
+        
+        // The header is changed last so a killed bot never sees a partial record.
+        used += size;
+        count++;
+        writeHeader();
+        return dropped;
+    }
+    
+    /**
+     * Remove the oldest message.
+     * 
+     * @return The oldest message or {@code null} if the ring is empty.
+     */
+    Entry poll() {
+        
+        if (count == 0) {
+            return null;
+        }
+        
+        int size = recordSize(head, used);
+        
+        if (size < 0) {
+            corrupt();
+            return null;
+        }
+        
+        ByteBuffer header = ByteBuffer.wrap(get(head, RECORD_HEADER));
+        int length = header.getInt();
+        byte kind = header.get();
+        long due = header.getLong();
+        String text = new String(get((head + RECORD_HEADER) % capacity, length),
+                StandardCharsets.UTF_8);
+        advance(size);
+        Message msg;
+        
+        switch (kind & TYPE) {
+        case RAW:
+            msg = new RawMessage(text);
+            break;
+        case DELAYED:
+            msg = new DelayedMessage(text, Math.max(0, due - System.currentTimeMillis()));
+            break;
+        default:
+            msg = new Message(text);
+        }
+        
+        return new Entry(msg, (kind & BROADCAST) != 0);
+    }
+    
+    private void skip() {
+        int size = recordSize(head, used);
+        
+        if (size < 0) {
+            corrupt();
+        } else {
+            advance(size);
+        }
+    }
+    
+    /* The records were damaged (e.g. by another program). The rest of them is dropped. */
+    private void corrupt() {
+        Log.warning("The spill file " + filename + " is corrupt. Dropping " + count
+                + " messages.");
+        clear();
+    }
+    
+    private void advance(int size) {
+        head = (head + size) % capacity;
+        used -= size;
+        count--;
+        
+        if (count == 0) {
+            head = used = 0;
+        }
+        
+        writeHeader();
+    }
+    
+    /** Remove all messages. */
+    void clear() {
+        head = used = count = 0;
+        writeHeader();
+    }
+    
+    /** @return The number of messages in the ring. */
+    int size() {
+        return count;
+    }
+    
+    /** Write all changes to the disk. */
+    void force() {
+        map.force();
+    }
+    
+    private void writeHeader() {
+        map.putInt(8, head);
+        map.putInt(12, used);
+        map.putInt(16, count);
+    }
+    
+    private void put(int position, byte[] bytes) {
+        int first = Math.min(bytes.length, capacity - position);
+        ByteBuffer buffer = map.duplicate();
+        buffer.position(HEADER + position);
+        buffer.put(bytes, 0, first);
+        
+        if (first < bytes.length) {
+            buffer.position(HEADER);
+            buffer.put(bytes, first, bytes.length - first);
+        }
+    }
+    
+    private byte[] get(int position, int length) {
+        byte[] bytes = new byte[length];
+        int first = Math.min(length, capacity - position);
+        ByteBuffer buffer = map.duplicate();
+        buffer.position(HEADER + position);
+        buffer.get(bytes, 0, first);
+        
+        if (first < length) {
+            buffer.position(HEADER);
+            buffer.get(bytes, first, length - first);
+        }
+        
+        return bytes;
+    }
+}
@@ -17,23 +17,17 @@
 
 package erki.xpeter.con.erkitalk;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.net.Socket;
-import java.net.UnknownHostException;
 import java.util.Collection;
 import java.util.LinkedList;
-import java.util.Queue;
+import java.util.List;
 
 import erki.api.util.Log;
 import erki.xpeter.Bot;
-import erki.xpeter.con.Connection;
-import erki.xpeter.msg.DelayedMessage;
+import erki.xpeter.con.AbstractQueuedConnection;
+import erki.xpeter.con.LineTransport;
+import erki.xpeter.con.LineTransport.LineChannel;
 import erki.xpeter.msg.Message;
-import erki.xpeter.util.Delay;
 
 /**
  * This class implements a connection to an ErkiTalk server. If the connection breaks because the
@@ -42,24 +36,18 @@ import erki.xpeter.util.Delay;
  * 
  * @author Edgar Kalkowski
  */
-public class ErkiTalkConnection implements Connection {
-    
-    private Bot bot;
+public class ErkiTalkConnection extends AbstractQueuedConnection {
     
     private String host, nick;
     
     private int port;
     
-    private Queue<Message> sendQueue = new LinkedList<Message>();
-    
-    private boolean reconnect = false;
-    
-    private Socket socket;
+    private volatile LineChannel channel;
     
     private ServerInputReader serverInputReader;
     
     public ErkiTalkConnection(Bot bot, String host, int port, String nick) {
-        this.bot = bot;
+        super(bot);
         this.host = host;
         this.port = port;
         this.nick = nick;
@@ -76,116 +64,40 @@ public class ErkiTalkConnection implements Connection {
     }
     
     @Override
-    public void send(final Message msg) {
+    protected String getServerName() {
+        return "ErkiTalk server";
+    }
+    
+    @Override
+    protected void connect() throws IOException {
+        Log.info("Trying to connect to " + host + ":" + port + ".");
+        serverInputReader = new ServerInputReader(bot, this);
+        channel = LineTransport.getInstance().open(host, port, serverInputReader);
+        Log.info("Connection established. Logging in.");
         
-        if (msg instanceof DelayedMessage) {
-            
-            new Delay((DelayedMessage) msg) {
-                
-                @Override
-                public void delayedAction() {
-                    
-                    synchronized (sendQueue) {
-                        sendQueue.offer(msg);
-                        sendQueue.notify();
-                    }
-                }
-                
-            }.start();
-            
-        } else {
-            
-            synchronized (sendQueue) {
-                sendQueue.offer(msg);
-                sendQueue.notify();
-            }
-        }
+        LinkedList<String> lines = new LinkedList<String>();
+        lines.add("PONG");
+        lines.add("NICK " + nick);
+        lines.add("LIST");
+        channel.write(lines);
     }
     
-    /**
-     * Used by {@link ServerInputReader} to trigger a reconnect if the connection was lost and thus
-     * no more input could be read from the server.
-     */
-    public void reconnect() {
+    @Override
+    protected void write(List<Message> messages) throws IOException {
+        LinkedList<String> lines = new LinkedList<String>();
         
-        synchronized (sendQueue) {
-            reconnect = true;
-            sendQueue.notify();
+        for (Message msg : messages) {
+            lines.add(new MessageEncoder(msg).get());
         }
+        
+        channel.write(lines);
     }
     
     @Override
-    public void run() {
-        boolean pause = false;
+    protected void disconnect() {
         
-        while (true) {
-            
-            try {
-                Log.info("Trying to connect to " + host + ":" + port + ".");
-                socket = new Socket(host, port);
-                
-                BufferedReader socketIn = new BufferedReader(new InputStreamReader(socket
-                        .getInputStream(), "UTF-8"));
-                serverInputReader = new ServerInputReader(bot, this, socketIn);
-                serverInputReader.start();
-                
-                final PrintWriter socketOut = new PrintWriter(new OutputStreamWriter(socket
-                        .getOutputStream(), "UTF-8"), true);
-                pause = false;
-                reconnect = false;
-                Log.info("Connection established. Logging in.");
-                socketOut.println("PONG");
-                socketOut.println("NICK " + nick);
-                socketOut.println("LIST");
-                socketOut.flush();
-                
-                while (!reconnect) {
-                    
-                    synchronized (sendQueue) {
-                        
-                        while (!sendQueue.isEmpty()) {
-                            Message msg = sendQueue.poll();
-                            socketOut.println(new MessageEncoder(msg).get());
-                            socketOut.flush();
-                        }
-                        
-                        try {
-                            sendQueue.wait();
-                        } catch (InterruptedException e) {
-                        }
-                    }
-                }
-                
-            } catch (UnknownHostException e) {
-                Log.error(e);
-            } catch (IOException e) {
-                Log.error(e);
-            } catch (Throwable e) {
-                // See that _everything_ goes to the log.
-                Log.error(e);
-            } finally {
-                
-                if (socket != null) {
-                    
-                    try {
-                        socket.close();
-                    } catch (IOException e) {
-                    }
-                }
-                
-                if (pause) {
-                    Log.info("Lost connection to ErkiTalk server. Trying to reconnect in 5 min.");
-                    
-                    try {
-                        Thread.sleep(10000);
-                    } catch (InterruptedException e) {
-                    }
-                    
-                } else {
-                    pause = true;
-                    Log.info("Lost connection to ErkiTalk server. Trying to reconnect.");
-                }
-            }
+        if (channel != null) {
+            channel.close();
         }
     }
     
@@ -17,13 +17,13 @@
 
 package erki.xpeter.con.erkitalk;
 
-import java.io.BufferedReader;
-import java.io.IOException;
 import java.util.Collection;
 import java.util.LinkedList;
 
 import erki.api.util.Log;
 import erki.xpeter.Bot;
+import erki.xpeter.con.LineDecoder;
+import erki.xpeter.con.LineHandler;
 import erki.xpeter.msg.Message;
 import erki.xpeter.msg.NickChangeMessage;
 import erki.xpeter.msg.RawMessage;
@@ -37,102 +37,72 @@ import erki.xpeter.msg.UserLeftMessage;
  * 
  * @author Edgar Kalkowski
  */
-public class ServerInputReader extends Thread {
+public class ServerInputReader implements LineHandler {
     
     private Bot bot;
     
-    private BufferedReader socketIn;
-    
     private ErkiTalkConnection con;
     
     private Collection<String> userList = new LinkedList<String>();
     
-    public ServerInputReader(Bot bot, ErkiTalkConnection con, BufferedReader socketIn) {
+    private final LineDecoder decoder = new LineDecoder();
+    
+    public ServerInputReader(Bot bot, ErkiTalkConnection con) {
         this.bot = bot;
         this.con = con;
-        this.socketIn = socketIn;
     }
     
     @Override
-    public void run() {
-        super.run();
+    public void onLine(String line) {
+        Log.debug("Received “" + line + "” from server.");
         
-        while (true) {
-            
-            try {
-                String line = socketIn.readLine();
+        switch (decoder.decode(line)) {
+            case TEXT:
+                TextMessage msg = new TextMessage(decoder.getFirst(), decoder.getSecond(), con);
+                Log.info("Received " + msg + ".");
+                bot.process(msg);
+                break;
+            case NEWNICK:
+                String oldNick = decoder.getFirst(), newNick = decoder.getSecond();
+                Log.info(oldNick + " is now known as " + newNick + ".");
+                
+                synchronized (userList) {
+                    userList.remove(oldNick);
+                    userList.add(newNick);
+                }
+                
+                bot.process(new NickChangeMessage(oldNick, newNick, con));
+                break;
+            case QUIT:
                 
-                if (line == null) {
-                    con.reconnect();
-                    break;
+                synchronized (userList) {
+                    userList.remove(decoder.getFirst());
                 }
                 
-                Log.debug("Received “" + line + "” from server.");
+                bot.process(new UserLeftMessage(decoder.getFirst(), decoder.getSecond(), con));
+                break;
+            case JOIN:
+            case USER:
                 
-                if (line.toUpperCase().startsWith("TEXT ")) {
-                    line = line.substring("TEXT ".length());
-                    String nick = line.substring(0, line.indexOf(':'));
-                    String text = line.substring(line.indexOf(':') + 2);
-                    TextMessage msg = new TextMessage(nick, text, con);
-                    Log.info("Received " + msg + ".");
-                    bot.process(msg);
-                } else if (line.toUpperCase().startsWith("NEWNICK ")) {
-                    line = line.substring("NEWNICK ".length());
-                    String oldNick = line.substring(0, line.indexOf(':'));
-                    String newNick = line.substring(line.indexOf(':') + 2);
-                    Log.info(oldNick + " is now known as " + newNick + ".");
-                    
-                    synchronized (userList) {
-                        userList.remove(oldNick);
-                        userList.add(newNick);
-                    }
-                    
-                    bot.process(new NickChangeMessage(oldNick, newNick, con));
-                } else if (line.toUpperCase().startsWith("QUIT ")) {
-                    line = line.substring("QUIT ".length());
-                    String nick, reason = "";
-                    
-                    if (line.contains(":")) {
-                        nick = line.substring(0, line.indexOf(':'));
-                        reason = line.substring(line.indexOf(':') + 2);
-                    } else {
-                        nick = line;
-                    }
-                    
-                    synchronized (userList) {
-                        userList.remove(nick);
-                    }
-                    
-                    bot.process(new UserLeftMessage(nick, reason, con));
-                } else if (line.toUpperCase().startsWith("JOIN ")) {
-                    line = line.substring("JOIN ".length());
-                    
-                    synchronized (userList) {
-                        userList.add(line);
-                    }
-                    
-                    bot.process(new UserJoinedMessage(line, con));
-                } else if (line.toUpperCase().startsWith("USER ")) {
-                    line = line.substring("USER XX ".length());
-                    
-                    synchronized (userList) {
-                        userList.add(line);
-                    }
-                    
-                    bot.process(new UserJoinedMessage(line, con));
-                } else if (line.toUpperCase().equals("PING")) {
-                    con.send(new RawMessage("PONG"));
-                } else {
-                    Log.warning("Unparsable message received: “" + line + "”.");
+                synchronized (userList) {
+                    userList.add(decoder.getFirst());
                 }
                 
-            } catch (IOException e) {
-                con.reconnect();
+                bot.process(new UserJoinedMessage(decoder.getFirst(), con));
+                break;
+            case PING:
+                con.send(new RawMessage("PONG"));
                 break;
-            }
+            default:
+                Log.warning("Unparsable message received: “" + line + "”.");
         }
     }
     
+    @Override
+    public void onClose() {
+        con.reconnect();
+    }
+    
     /**
      * Access the currently online users of this chat. The returned Collection is copied so no harm
      * can be done editing it.
@@ -20,50 +20,42 @@ package erki.xpeter.con.irc;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.LinkedList;
-import java.util.Queue;
+import java.util.List;
 
 import org.jibble.pircbot.IrcException;
-import org.jibble.pircbot.NickAlreadyInUseException;
-import org.jibble.pircbot.PircBot;
 import org.jibble.pircbot.User;
 
 import erki.api.util.Log;
 import erki.xpeter.Bot;
-import erki.xpeter.con.Connection;
-import erki.xpeter.msg.DelayedMessage;
+import erki.xpeter.con.AbstractQueuedConnection;
 import erki.xpeter.msg.Message;
 import erki.xpeter.msg.NickChangeMessage;
 import erki.xpeter.msg.RawMessage;
 import erki.xpeter.msg.TextMessage;
+import erki.xpeter.msg.Trace;
 import erki.xpeter.msg.UserJoinedMessage;
 import erki.xpeter.msg.UserLeftMessage;
-import erki.xpeter.util.Delay;
 
 /**
- * This class uses the PircBot api to enable the bot to join IRC servers.
+ * This class uses the PircBot api to enable the bot to join IRC channels. All channels on the same
+ * network share one connection to the server (see {@link IrcSession}) and the lines sent to the
+ * server are rate limited by one {@link OutputScheduler}. Messages are only handed to the scheduler
+ * while it has room for them. Until then they wait in the buffer of the connection.
  * 
  * @author Edgar Kalkowski <eMail@edgar-kalkowski.de>
  */
-public class IrcConnection extends PircBot implements Connection {
+public class IrcConnection extends AbstractQueuedConnection {
     
-    private Bot bot;
+    private String channel;
     
-    private String host, channel;
-    
-    private int port;
-    
-    private Queue<Message> sendQueue = new LinkedList<Message>();
-    
-    private boolean reconnect = false;
+    private final IrcSession session;
     
     private LinkedList<String> userList = new LinkedList<String>();
     
     public IrcConnection(Bot bot, String host, int port, String channel, String nick) {
-        this.bot = bot;
-        this.host = host;
+        super(bot);
         this.channel = channel;
-        this.port = port;
-        setName(nick);
+        this.session = IrcSession.get(host, port, nick);
     }
     
     @Override
@@ -71,6 +63,11 @@ public class IrcConnection extends PircBot implements Connection {
         return channel;
     }
     
+    @Override
+    public String getNick() {
+        return session.getNick();
+    }
+    
     @Override
     public Collection<String> getUserList() {
         LinkedList<String> list = new LinkedList<String>();
@@ -83,177 +80,119 @@ public class IrcConnection extends PircBot implements Connection {
     }
     
     @Override
-    public void send(final Message msg) {
-        
-        if (msg instanceof DelayedMessage) {
-            
-            new Delay((DelayedMessage) msg) {
-                
-                @Override
-                public void delayedAction() {
-                    
-                    synchronized (sendQueue) {
-                        sendQueue.offer(msg);
-                        sendQueue.notify();
-                    }
-                }
-                
-            }.start();
-            
-        } else {
-            
-            synchronized (sendQueue) {
-                sendQueue.offer(msg);
-                sendQueue.notify();
-            }
-        }
-        
+    protected String getServerName() {
+        return "IRC server";
+    }
+    
+    @Override
+    protected void connect() throws IOException, IrcException {
+        session.open(this);
+        Log.info("Channel joined. Waiting for messages.");
     }
     
     @Override
-    public void run() {
-        boolean pause = false;
+    protected void write(List<Message> messages) {
         
-        while (true) {
-            
-            try {
-                Log.info("Trying to connect to " + host + ":" + port + ".");
-                connect(host, port);
-                Log.info("Connection established. Joining " + channel + ".");
-                joinChannel(channel);
-                Log.info("Channel joined. Waiting for messages.");
-                reconnect = false;
-                pause = false;
-                
-                while (!reconnect) {
-                    
-                    synchronized (sendQueue) {
-                        
-                        while (!sendQueue.isEmpty()) {
-                            Message msg = sendQueue.poll();
-                            Log.info("Sending " + msg + " to the server.");
-                            
-                            if (msg instanceof RawMessage) {
-                                sendRawLine(msg.getText());
-                            } else {
-                                
-                                if (msg.getText().contains("\n")) {
-                                    
-                                    for (String line : msg.getText().split("\n")) {
-                                        sendMessage(channel, line);
-                                    }
-                                    
-                                } else {
-                                    sendMessage(channel, msg.getText());
-                                }
-                            }
-                        }
-                        
-                        sendQueue.wait();
-                    }
-                }
-                
-            } catch (NickAlreadyInUseException e) {
-                Log.error(e);
-            } catch (IOException e) {
-                Log.error(e);
-            } catch (IrcException e) {
-                Log.error(e);
-            } catch (Throwable e) {
-                // See that _everything_ goes to the log.
-                Log.error(e);
-            } finally {
-                disconnect();
-                
-                if (pause) {
-                    Log.info("Lost connection to IRC server. Trying to reconnect in 5 min.");
-                    
-                    try {
-                        Thread.sleep(300000);
-                    } catch (InterruptedException e) {
-                    }
-                    
-                } else {
-                    pause = true;
-                    Log.info("Lost connection to IRC server. Trying to reconnect.");
-                }
-            }
+        for (Message msg : messages) {
+            Log.info("Sending " + msg + " to the server.");
+            session.getOutputScheduler().offer(channel, msg);
         }
     }
     
     @Override
-    protected void onJoin(String channel, String sender, String login, String hostname) {
-        super.onJoin(channel, sender, login, hostname);
+    protected long flush() {
+        return session.flush();
+    }
+    
+    @Override
+    protected int getCapacity() {
+        return session.getOutputScheduler().getCapacity();
+    }
+    
+    @Override
+    protected List<Message> takeHeldBack() {
+        return session.getOutputScheduler().drain(channel);
+    }
+    
+    /* The messages only wait for the OutputScheduler now. They are recorded by sent(). */
+    @Override
+    protected void written(List<Message> messages, long start, long end) {
+    }
+    
+    void sent(List<Trace> traces, long start, long end) {
         
-        synchronized (userList) {
-            userList.add(sender);
+        for (Trace trace : traces) {
+            bot.getReplyTracer().record(getShortId(), trace, start, end);
         }
-        
-        Log.info(sender + " has joined the chat.");
-        bot.process(new UserJoinedMessage(sender, this));
+    }
+    
+    /**
+     * Access the scheduler that limits the rate of the lines sent to the server. It also tells how
+     * many lines wait to be sent and how long they had to wait. It is shared by all channels on the
+     * same network.
+     * 
+     * @return The OutputScheduler of this connection.
+     */
+    public OutputScheduler getOutputScheduler() {
+        return session.getOutputScheduler();
     }
     
     @Override
-    protected void onNickChange(String oldNick, String login, String hostname, String newNick) {
-        super.onNickChange(oldNick, login, hostname, newNick);
+    protected void disconnect() {
+        session.release(this);
+    }
+    
+    void userJoined(String nick) {
         
         synchronized (userList) {
-            userList.remove(oldNick);
-            userList.add(newNick);
+            userList.add(nick);
         }
         
-        Log.info(oldNick + " is now known as " + newNick + ".");
-        bot.process(new NickChangeMessage(oldNick, newNick, this));
+        Log.info(nick + " has joined " + channel + ".");
+        bot.process(new UserJoinedMessage(nick, this));
     }
     
-    @Override
-    protected void onPart(String channel, String sender, String login, String hostname) {
-        super.onPart(channel, sender, login, hostname);
+    void nickChanged(String oldNick, String newNick) {
         
         synchronized (userList) {
-            userList.remove(sender);
+            
+            if (!userList.remove(oldNick)) {
+                return;
+            }
+            
+            userList.add(newNick);
         }
         
-        Log.info(sender + " has left.");
-        bot.process(new UserLeftMessage(sender, "", this));
+        Log.info(oldNick + " is now known as " + newNick + ".");
+        bot.process(new NickChangeMessage(oldNick, newNick, this));
     }
     
-    @Override
-    protected void onQuit(String sourceNick, String sourceLogin, String sourceHostname,
-            String reason) {
-        super.onQuit(sourceNick, sourceLogin, sourceHostname, reason);
+    void userLeft(String nick, String reason) {
         
         synchronized (userList) {
-            userList.remove(sourceNick);
+            userList.remove(nick);
         }
         
         if (reason != null && !reason.equals("")) {
-            Log.info(sourceNick + " has left (" + reason + ").");
+            Log.info(nick + " has left " + channel + " (" + reason + ").");
         } else {
-            Log.info(sourceNick + " has left.");
+            Log.info(nick + " has left " + channel + ".");
         }
         
-        bot.process(new UserLeftMessage(sourceNick, reason, this));
+        bot.process(new UserLeftMessage(nick, reason, this));
     }
     
-    @Override
-    protected void onServerResponse(int code, String response) {
-        super.onServerResponse(code, response);
+    void serverResponse(int code, String response) {
         Log.info("Received server response with code " + code + ": " + response);
         bot.process(new RawMessage(code + ": " + response, this));
     }
     
-    @Override
-    protected void onMessage(String channel, String sender, String login, String hostname,
-            String message) {
-        super.onMessage(channel, sender, login, hostname, message);
+    void messageReceived(String sender, String message) {
         Log.info("Received from server: " + message + ".");
         bot.process(new TextMessage(sender, message, this));
     }
     
-    @Override
-    protected void onUserList(String channel, User[] users) {
-        super.onUserList(channel, users);
+    void userListReceived(User[] users) {
         
         synchronized (userList) {
             
@@ -272,27 +211,7 @@ public class IrcConnection extends PircBot implements Connection {
         Log.info("Currently online users: " + userList);
     }
     
-    @Override
-    protected void onKick(String channel, String kickerNick, String kickerLogin,
-            String kickerHostname, String recipientNick, String reason) {
-        super.onKick(channel, kickerNick, kickerLogin, kickerHostname, recipientNick, reason);
-        
-        if (recipientNick.equals(getNick())) {
-            Log.info("I was kicked from the server. Reconnecting.");
-            quitServer();
-        } else {
-            
-            synchronized (userList) {
-                Log.info(recipientNick + " was kicked from the server.");
-                bot.process(new UserLeftMessage(recipientNick, "", this));
-                userList.remove(recipientNick);
-            }
-        }
-    }
-    
-    @Override
-    protected void onDisconnect() {
-        super.onDisconnect();
+    void disconnected() {
         
         synchronized (userList) {
             
@@ -303,9 +222,6 @@ public class IrcConnection extends PircBot implements Connection {
             userList.clear();
         }
         
-        synchronized (sendQueue) {
-            reconnect = true;
-            sendQueue.notify();
-        }
+        reconnect();
     }
 }
@@ -0,0 +1,292 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.con.irc;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jibble.pircbot.IrcException;
+import org.jibble.pircbot.PircBot;
+import org.jibble.pircbot.User;
+
+import erki.api.util.Log;
+
+/**
+ * One connection to an IRC network that is shared by all {@link IrcConnection}s to channels on that
+ * network. The connection is established when the first channel is joined and closed when the last
+ * channel is left. Everything received is handed to the IrcConnection of the channel it belongs to.
+ * The lines sent to the server are rate limited by one {@link OutputScheduler} for all channels.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class IrcSession {
+    
+    private static final HashMap<String, IrcSession> sessions = new HashMap<String, IrcSession>();
+    
+    private final String host;
+    
+    private final int port;
+    
+    private final Client client;
+    
+    private final OutputScheduler output = new OutputScheduler();
+    
+    private final ConcurrentHashMap<String, IrcConnection> channels;
+    
+    private IrcSession(String host, int port, String nick) {
+        this.host = host;
+        this.port = port;
+        this.client = new Client(nick);
+        this.channels = new ConcurrentHashMap<String, IrcConnection>();
+    }
+    
+    /**
+     * Access the session for some network.
+     * 
+     * @param host
+     *        The hostname of the IRC server.
+     * @param port
+     *        The port of the IRC server.
+     * @param nick
+     *        The nickname of the bot.
+     * @return The session that is shared by all channels on that server.
+     */
+    public static IrcSession get(String host, int port, String nick) {
+        
+        synchronized (sessions) {
+            String key = host.toLowerCase() + ":" + port + ":" + nick;
+            IrcSession session = sessions.get(key);
+            
+            if (session == null) {
+                session = new IrcSession(host, port, nick);
+                sessions.put(key, session);
+            }
+            
+            return session;
+        }
+    }
+    
+    /**
+     * Join a channel. If the connection to the server is not yet established it is established
+     * first.
+     * 
+     * @param con
+     *        The connection of the channel to join.
+     * @throws IOException
+     *         If the connection could not be established.
+     * @throws IrcException
+     *         If the server refused the connection.
+     */
+    public synchronized void open(IrcConnection con) throws IOException, IrcException {
+        channels.put(con.getShortId().toLowerCase(), con);
+        
+        if (!client.isConnected()) {
+            Log.info("Trying to connect to " + host + ":" + port + ".");
+            client.connect(host, port);
+            Log.info("Connection established.");
+        }
+        
+        Log.info("Joining " + con.getShortId() + ".");
+        client.joinChannel(con.getShortId());
+    }
+    
+    /**
+     * Leave a channel. The connection to the server is closed if this was the last channel.
+     * 
+     * @param con
+     *        The connection of the channel to leave.
+     */
+    public synchronized void release(IrcConnection con) {
+        channels.remove(con.getShortId().toLowerCase(), con);
+        
+        if (!client.isConnected()) {
+            return;
+        }
+        
+        if (channels.isEmpty()) {
+            client.disconnect();
+        } else {
+            client.partChannel(con.getShortId());
+        }
+    }
+    
+    /**
+     * Send the lines the {@link OutputScheduler} allows to be sent now.
+     * 
+     * @return The time (in ms) until more lines may be sent or 0 if no lines are waiting.
+     */
+    public long flush() {
+        List<OutputScheduler.Line> lines = output.take();
+        
+        for (OutputScheduler.Line line : lines) {
+            long start = System.nanoTime();
+            client.sendRawLine(line.getText());
+            long end = System.nanoTime();
+            IrcConnection con = get(line.getTarget());
+            
+            if (con != null && !line.getTraces().isEmpty()) {
+                con.sent(line.getTraces(), start, end);
+            }
+        }
+        
+        if (!lines.isEmpty() && output.getQueueLength() > 0) {
+            Log.debug("Throttling output to " + host + ": " + output + ".");
+        }
+        
+        return output.getDelay();
+    }
+    
+    /** @return The scheduler that limits the rate of the lines sent to the server. */
+    public OutputScheduler getOutputScheduler() {
+        return output;
+    }
+    
+    /** @return The nickname the bot currently uses on this network. */
+    public String getNick() {
+        return client.getNick();
+    }
+    
+    private IrcConnection get(String channel) {
+        return channels.get(channel.toLowerCase());
+    }
+    
+    /* The methods of PircBot clash with those of the connection so the callbacks live in here. */
+    private class Client extends PircBot {
+        
+        private Client(String nick) {
+            setName(nick);
+        }
+        
+        @Override
+        protected void onJoin(String channel, String sender, String login, String hostname) {
+            super.onJoin(channel, sender, login, hostname);
+            IrcConnection con = get(channel);
+            
+            if (con != null) {
+                con.userJoined(sender);
+            }
+        }
+        
+        @Override
+        protected void onNickChange(String oldNick, String login, String hostname, String newNick) {
+            super.onNickChange(oldNick, login, hostname, newNick);
+            
+            for (IrcConnection con : channels.values()) {
+                con.nickChanged(oldNick, newNick);
+            }
+        }
+        
+        @Override
+        protected void onPart(String channel, String sender, String login, String hostname) {
+            super.onPart(channel, sender, login, hostname);
+            IrcConnection con = get(channel);
+            
+            if (con != null) {
+                con.userLeft(sender, "");
+            }
+        }
+        
+        @Override
+        protected void onQuit(String sourceNick, String sourceLogin, String sourceHostname,
+                String reason) {
+            super.onQuit(sourceNick, sourceLogin, sourceHostname, reason);
+            
+            for (IrcConnection con : channels.values()) {
+                
+                if (con.getUserList().contains(sourceNick)) {
+                    con.userLeft(sourceNick, reason);
+                }
+            }
+        }
+        
+        @Override
+        protected void onServerResponse(int code, String response) {
+            super.onServerResponse(code, response);
+            
+            // Responses that name a channel (like the replies to WHO) only go to that channel.
+            for (String token : response.split(" ")) {
+                
+                if (token.startsWith(":")) {
+                    break;
+                }
+                
+                IrcConnection con = get(token);
+                
+                if (con != null) {
+                    con.serverResponse(code, response);
+                    return;
+                }
+            }
+            
+            for (IrcConnection con : channels.values()) {
+                con.serverResponse(code, response);
+            }
+        }
+        
+        @Override
+        protected void onMessage(String channel, String sender, String login, String hostname,
+                String message) {
+            super.onMessage(channel, sender, login, hostname, message);
+            IrcConnection con = get(channel);
+            
+            if (con != null) {
+                con.messageReceived(sender, message);
+            }
+        }
+        
+        @Override
+        protected void onUserList(String channel, User[] users) {
+            super.onUserList(channel, users);
+            IrcConnection con = get(channel);
+            
+            if (con != null) {
+                con.userListReceived(users);
+            }
+        }
+        
+        @Override
+        protected void onKick(String channel, String kickerNick, String kickerLogin,
+                String kickerHostname, String recipientNick, String reason) {
+            super.onKick(channel, kickerNick, kickerLogin, kickerHostname, recipientNick, reason);
+            IrcConnection con = get(channel);
+            
+            if (con == null) {
+                return;
+            }
+            
+            if (recipientNick.equals(getNick())) {
+                Log.info("I was kicked from " + channel + ". Rejoining.");
+                con.reconnect();
+            } else {
+                Log.info(recipientNick + " was kicked from " + channel + ".");
+                con.userLeft(recipientNick, "");
+            }
+        }
+        
+        @Override
+        protected void onDisconnect() {
+            super.onDisconnect();
+            
+            for (IrcConnection con : channels.values()) {
+                con.disconnected();
+            }
+        }
+    }
+}
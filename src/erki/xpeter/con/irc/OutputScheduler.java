@@ -0,0 +1,275 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.con.irc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import erki.xpeter.msg.Message;
+import erki.xpeter.msg.RawMessage;
+import erki.xpeter.msg.Trace;
+
+/**
+ * Decides which lines an {@link IrcSession} may send when so the bot does not flood the channels
+ * and get throttled or kicked by the server. All channels of a session share one scheduler. Sending
+ * is limited by a token bucket that allows bursts of {@link #BURST} lines and then one line every
+ * {@link #INTERVAL} ms. If more lines are waiting than may be sent at the moment, adjacent lines to
+ * the same channel are merged into one line of up to {@link #MAX_LENGTH} bytes.
+ * <p>
+ * Only a few lines wait in here (see {@link #getCapacity()}). All other messages wait in the
+ * {@link erki.xpeter.con.OutboundBuffer} of their connection where the overflow policy applies and
+ * from where they are saved when the bot exits.
+ * <p>
+ * The length of the queue and the time the lines had to wait can be accessed to see how much the
+ * bot is throttled.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class OutputScheduler {
+    
+    /** The number of lines that may be sent at once. */
+    public static final int BURST = 5;
+    
+    /** The time (in ms) after which another line may be sent. */
+    public static final long INTERVAL = 2000;
+    
+    /**
+     * The maximum length (in bytes) of merged lines. IRC allows 512 bytes per line including the
+     * command, the target and the prefix the server adds when relaying the line.
+     */
+    public static final int MAX_LENGTH = 400;
+    
+    private static final String SEPARATOR = " | ";
+    
+    private final LinkedList<Line> queue = new LinkedList<Line>();
+    
+    private double tokens = BURST;
+    
+    private long refilled = System.nanoTime();
+    
+    private long sent = 0, merged = 0, waited = 0, maxWait = 0;
+    
+    /**
+     * Queue a message for sending. {@link RawMessage}s are sent as they are. The lines of all other
+     * messages are sent to the target channel. The {@link Trace} of the message goes with its last
+     * line.
+     * 
+     * @param target
+     *        The channel the message is sent to.
+     * @param msg
+     *        The message to send.
+     */
+    public synchronized void offer(String target, Message msg) {
+        long now = System.nanoTime();
+        boolean raw = msg instanceof RawMessage;
+        String[] lines = raw ? new String[] { msg.getText() } : msg.getText().split("\n");
+        List<Trace> traces = msg.getTrace() == null ? Collections.<Trace> emptyList()
+                : Collections.singletonList(msg.getTrace());
+        
+        for (int i = 0; i < lines.length; i++) {
+            queue.add(new Line(target, raw, lines[i], now, i == lines.length - 1 ? traces
+                    : Collections.<Trace> emptyList()));
+        }
+    }
+    
+    /**
+     * @return The number of messages that may be {@link #offer(String, Message) offered} now. Once
+     *         a burst worth of lines is waiting no more messages are taken.
+     */
+    public synchronized int getCapacity() {
+        return Math.max(0, BURST - queue.size());
+    }
+    
+    /**
+     * Remove all lines that were offered for some channel but not yet sent, e.g. to save them when
+     * the bot exits.
+     * 
+     * @param target
+     *        The channel.
+     * @return The lines that were removed in the order they were offered. Each line is a message of
+     *         its own.
+     */
+    public synchronized List<Message> drain(String target) {
+        List<Message> messages = new LinkedList<Message>();
+        Iterator<Line> iterator = queue.iterator();
+        
+        while (iterator.hasNext()) {
+            Line line = iterator.next();
+            
+            if (target.equals(line.target)) {
+                iterator.remove();
+                messages.add(line.raw ? new RawMessage(line.text) : new Message(line.text));
+            }
+        }
+        
+        return messages;
+    }
+    
+    /**
+     * Take the lines that may be sent now.
+     * 
+     * @return The raw IRC lines that shall be sent now (maybe none).
+     */
+    public synchronized List<Line> take() {
+        long now = System.nanoTime();
+        tokens = Math.min(BURST, tokens + (now - refilled) / (INTERVAL * 1000000.0));
+        refilled = now;
+        List<Line> lines = new LinkedList<Line>();
+        
+        while (tokens >= 1 && !queue.isEmpty()) {
+            lines.add(next(queue.size() > tokens, now));
+            tokens--;
+        }
+        
+        return lines;
+    }
+    
+    private Line next(boolean coalesce, long now) {
+        Line line = queue.poll();
+        account(line, now);
+        
+        if (line.raw) {
+            return line;
+        }
+        
+        StringBuilder text = new StringBuilder(line.text);
+        int length = length(line.text);
+        List<Trace> traces = line.traces;
+        
+        while (coalesce && !queue.isEmpty() && !queue.peek().raw
+                && line.target.equals(queue.peek().target)) {
+            int added = length(SEPARATOR) + length(queue.peek().text);
+            
+            if (length + added > MAX_LENGTH) {
+                break;
+            }
+            
+            Line following = queue.poll();
+            account(following, now);
+            text.append(SEPARATOR).append(following.text);
+            length += added;
+            merged++;
+            
+            if (!following.traces.isEmpty()) {
+                traces = new ArrayList<Trace>(traces);
+                traces.addAll(following.traces);
+            }
+        }
+        
+        return new Line(line.target, true, "PRIVMSG " + line.target + " :" + text, line.queued,
+                traces);
+    }
+    
+    private void account(Line line, long now) {
+        long wait = now - line.queued;
+        waited += wait;
+        maxWait = Math.max(maxWait, wait);
+        sent++;
+    }
+    
+    private static int length(String text) {
+        return text.getBytes(StandardCharsets.UTF_8).length;
+    }
+    
+    /**
+     * @return The time (in ms) until the next line may be sent or 0 if no lines are waiting.
+     */
+    public synchronized long getDelay() {
+        
+        if (getQueueLength() == 0) {
+            return 0;
+        }
+        
+        return Math.max(1, (long) Math.ceil((1 - tokens) * INTERVAL));
+    }
+    
+    /** @return The number of lines that wait to be sent. */
+    public synchronized int getQueueLength() {
+        return queue.size();
+    }
+    
+    /** @return The number of lines that were sent so far (merged lines count separately). */
+    public synchronized long getSentLines() {
+        return sent;
+    }
+    
+    /** @return The number of lines that were sent merged into the line before them. */
+    public synchronized long getMergedLines() {
+        return merged;
+    }
+    
+    /** @return The average time (in ms) the sent lines had to wait. */
+    public synchronized long getAverageWait() {
+        return sent == 0 ? 0 : waited / sent / 1000000;
+    }
+    
+    /** @return The longest time (in ms) a sent line had to wait. */
+    public synchronized long getMaxWait() {
+        return maxWait / 1000000;
+    }
+    
+    @Override
+    public synchronized String toString() {
+        return getQueueLength() + " lines queued, " + sent + " sent (" + merged
+                + " merged), waited " + getAverageWait() + " ms on average and at most "
+                + getMaxWait() + " ms";
+    }
+    
+    /** A line that waits to be sent or that may be sent now (see {@link #take()}). */
+    public static class Line {
+        
+        /* The channel (for raw lines the channel whose connection offered them). */
+        private final String target;
+        
+        /* Raw lines are sent as they are. */
+        private final boolean raw;
+        
+        private final String text;
+        
+        private final long queued;
+        
+        private final List<Trace> traces;
+        
+        private Line(String target, boolean raw, String text, long queued, List<Trace> traces) {
+            this.target = target;
+            this.raw = raw;
+            this.text = text;
+            this.queued = queued;
+            this.traces = traces;
+        }
+        
+        /** @return The channel whose connection offered this line. */
+        public String getTarget() {
+            return target;
+        }
+        
+        /** @return The raw IRC line. */
+        public String getText() {
+            return text;
+        }
+        
+        /** @return The traces of the messages that are completely sent with this line. */
+        public List<Trace> getTraces() {
+            return traces;
+        }
+    }
+}
@@ -34,12 +34,12 @@ public class PacketListener implements org.jivesoftware.smack.PacketListener {
     
     private Bot bot;
 
-    private WatchDog dog;
+    private Pinger pinger;
     
-    public PacketListener(XmppConnection con, Bot bot, WatchDog dog) {
+    public PacketListener(XmppConnection con, Bot bot, Pinger pinger) {
         this.con = con;
         this.bot = bot;
-        this.dog = dog;
+        this.pinger = pinger;
     }
     
     @Override
@@ -50,7 +50,7 @@ public class PacketListener implements org.jivesoftware.smack.PacketListener {
             String from = message.getFrom().substring(message.getFrom().lastIndexOf('/') + 1);
             TextMessage msg = new TextMessage(from, message.getBody(), con);
             Log.info("Received " + msg + ".");
-            dog.reset();
+            pinger.touch();
             bot.process(msg);
         } else {
             Log.info("Unknown packet received: " + packet);
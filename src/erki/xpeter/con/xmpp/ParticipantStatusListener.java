@@ -17,12 +17,9 @@
 
 package erki.xpeter.con.xmpp;
 
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.util.Collection;
 import java.util.LinkedList;
-
-import javax.swing.Timer;
+import java.util.concurrent.TimeUnit;
 
 import erki.api.util.Log;
 import erki.xpeter.Bot;
@@ -48,12 +45,12 @@ public class ParticipantStatusListener implements
     
     private Collection<String> userList = new LinkedList<String>();
 
-    private WatchDog dog;
+    private Pinger pinger;
     
-    public ParticipantStatusListener(XmppConnection con, Bot bot, WatchDog dog) {
+    public ParticipantStatusListener(XmppConnection con, Bot bot, Pinger pinger) {
         this.con = con;
         this.bot = bot;
-        this.dog = dog;
+        this.pinger = pinger;
     }
     
     @Override
@@ -79,7 +76,7 @@ public class ParticipantStatusListener implements
     
     @Override
     public void joined(String participant) {
-        dog.reset();
+        pinger.touch();
         
         if (getNick(participant).equals(lastNickChangeNewNick)) {
             Log.debug("Though it looks like " + getNick(participant)
@@ -108,7 +105,7 @@ public class ParticipantStatusListener implements
     
     @Override
     public void left(String participant) {
-        dog.reset();
+        pinger.touch();
         Log.debug(getNick(participant) + " left the chat.");
         
         synchronized (userList) {
@@ -140,7 +137,7 @@ public class ParticipantStatusListener implements
     
     @Override
     public void nicknameChanged(String participant, String newNickname) {
-        dog.reset();
+        pinger.touch();
         Log.debug(getNick(participant) + " is now known as " + newNickname + ".");
         lastNickChangeNewNick = newNickname;
         
@@ -152,14 +149,14 @@ public class ParticipantStatusListener implements
         bot.process(new NickChangeMessage(getNick(participant), newNickname, con));
         
         // wait 5 seconds for the join message the protocol sends out and discard it
-        new Timer(5000, new ActionListener() {
+        bot.getScheduler().schedule(new Runnable() {
             
             @Override
-            public void actionPerformed(ActionEvent e) {
+            public void run() {
                 lastNickChangeNewNick = "";
             }
             
-        }).start();
+        }, 5000, TimeUnit.MILLISECONDS);
     }
     
     @Override
@@ -0,0 +1,216 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.con.xmpp;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.filter.PacketTypeFilter;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Packet;
+
+import erki.api.util.Log;
+
+/**
+ * Checks that the connection of an {@link XmppSession} is still alive using XMPP pings
+ * (XEP-0199). If nothing was received from the server for {@link #IDLE} ms a ping is sent. If the
+ * server does not answer within {@link #TIMEOUT} ms the connection is re-established. An error
+ * reply (e.g. from a server that does not support pings) also shows that the connection is alive.
+ * <p>
+ * The checks run on a shared scheduler so no thread is needed per connection. The round trip times
+ * of the pings are recorded and can be accessed.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class Pinger implements Runnable, org.jivesoftware.smack.PacketListener {
+    
+    /** The time (in ms) without anything received after which a ping is sent. */
+    public static final long IDLE = 60000;
+    
+    /** The time (in ms) after which a ping that was not answered causes a reconnect. */
+    public static final long TIMEOUT = 30000;
+    
+    /* How often the scheduled check runs. */
+    private static final long CHECK = 5000;
+    
+    private final XmppSession session;
+    
+    private volatile long lastActivity = System.currentTimeMillis();
+    
+    private XMPPConnection con;
+    
+    private ScheduledFuture<?> task;
+    
+    private String pending;
+    
+    private long sent, lastRtt = -1, maxRtt = 0, rttSum = 0, pings = 0, timeouts = 0;
+    
+    /**
+     * Create a new Pinger.
+     * 
+     * @param session
+     *        The session to reset if a ping times out.
+     */
+    public Pinger(XmppSession session) {
+        this.session = session;
+    }
+    
+    /**
+     * Start pinging an established connection.
+     * 
+     * @param con
+     *        The connection to the server.
+     * @param scheduler
+     *        The scheduler that runs the checks.
+     */
+    public synchronized void start(XMPPConnection con, ScheduledExecutorService scheduler) {
+        stop();
+        this.con = con;
+        touch();
+        con.addPacketListener(this, new PacketTypeFilter(IQ.class));
+        task = scheduler.scheduleWithFixedDelay(this, CHECK, CHECK, TimeUnit.MILLISECONDS);
+    }
+    
+    /** Stop pinging (e.g. because the connection was closed). */
+    public synchronized void stop() {
+        
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        
+        if (con != null) {
+            con.removePacketListener(this);
+            con = null;
+        }
+        
+        pending = null;
+    }
+    
+    /**
+     * Remember that something was received from the server. No ping is sent while the connection is
+     * in use.
+     */
+    public void touch() {
+        lastActivity = System.currentTimeMillis();
+    }
+    
+    @Override
+    public void run() {
+        
+        // Disconnecting must not happen while the lock is held as smack may still deliver packets.
+        XMPPConnection broken = check();
+        
+        if (broken != null) {
+            session.reset(broken);
+        }
+    }
+    
+    private synchronized XMPPConnection check() {
+        long now = System.currentTimeMillis();
+        
+        if (con == null) {
+            return null;
+        }
+        
+        if (pending != null) {
+            
+            if (now - sent > TIMEOUT) {
+                Log.warning("The XMPP server did not answer a ping within " + TIMEOUT / 1000
+                        + " s. Reconnecting.");
+                timeouts++;
+                XMPPConnection broken = con;
+                stop();
+                return broken;
+            }
+            
+        } else if (now - lastActivity >= IDLE && con.isConnected()) {
+            Ping ping = new Ping(con.getServiceName());
+            pending = ping.getPacketID();
+            sent = now;
+            Log.fineDebug("Sending ping " + pending + " to " + con.getServiceName() + ".");
+            con.sendPacket(ping);
+        }
+        
+        return null;
+    }
+    
+    @Override
+    public synchronized void processPacket(Packet packet) {
+        
+        if (pending == null || !pending.equals(packet.getPacketID())) {
+            return;
+        }
+        
+        lastRtt = System.currentTimeMillis() - sent;
+        maxRtt = Math.max(maxRtt, lastRtt);
+        rttSum += lastRtt;
+        pings++;
+        pending = null;
+        touch();
+        Log.fineDebug("Ping answered after " + lastRtt + " ms.");
+    }
+    
+    /** @return The number of answered pings. */
+    public synchronized long getPings() {
+        return pings;
+    }
+    
+    /** @return The round trip time (in ms) of the last answered ping or -1 if there was none. */
+    public synchronized long getRoundTripTime() {
+        return lastRtt;
+    }
+    
+    /** @return The average round trip time (in ms) of all answered pings. */
+    public synchronized long getAverageRoundTripTime() {
+        return pings == 0 ? 0 : rttSum / pings;
+    }
+    
+    /** @return The longest round trip time (in ms) of all answered pings. */
+    public synchronized long getMaxRoundTripTime() {
+        return maxRtt;
+    }
+    
+    /** @return The number of pings that were not answered in time. */
+    public synchronized long getTimeouts() {
+        return timeouts;
+    }
+    
+    @Override
+    public synchronized String toString() {
+        return pings + " pings answered after " + getAverageRoundTripTime()
+                + " ms on average (last " + lastRtt + " ms, at most " + maxRtt + " ms), "
+                + timeouts + " timed out";
+    }
+    
+    /* An XMPP ping as specified in XEP-0199. */
+    private static class Ping extends IQ {
+        
+        private Ping(String to) {
+            setType(IQ.Type.GET);
+            setTo(to);
+        }
+        
+        @Override
+        public String getChildElementXML() {
+            return "<ping xmlns=\"urn:xmpp:ping\"/>";
+        }
+    }
+}
@@ -17,18 +17,9 @@
 
 package erki.xpeter.con.xmpp;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
 import java.util.Collection;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.List;
 
-import org.jivesoftware.smack.ConnectionConfiguration;
 import org.jivesoftware.smack.SASLAuthentication;
 import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.XMPPConnection;
@@ -38,39 +29,34 @@ import org.jivesoftware.smackx.muc.MultiUserChat;
 
 import erki.api.util.Log;
 import erki.xpeter.Bot;
-import erki.xpeter.con.Connection;
-import erki.xpeter.msg.DelayedMessage;
+import erki.xpeter.con.AbstractQueuedConnection;
 import erki.xpeter.msg.Message;
-import erki.xpeter.util.Delay;
 
 /**
- * Establishes a connection to an XMPP server. If the connection is lost it tries to reconnect from
- * time to time. Messages that are to be sent to the server are buffered in case the connection is
- * lost and sent if the connection is re-established.
+ * Joins a chat room on an XMPP server. If the connection is lost it tries to reconnect from time to
+ * time. Messages that are to be sent to the server are buffered in case the connection is lost and
+ * sent if the connection is re-established.
+ * <p>
+ * All rooms on the same server share one login (see {@link XmppSession}). Leaving and re-joining
+ * one room (e.g. after the bot was kicked) does not affect the other rooms.
  * 
  * @author Edgar Kalkowski
  */
-public class XmppConnection implements Connection {
+public class XmppConnection extends AbstractQueuedConnection {
     
-    private static final String PASS_FILE = "config" + File.separator + "passwd.xmpp";
-    
-    /*
-     * Queue messages if the connection is not ready at the moment. The queue is also used as a lock
-     * to synchronize access to itself.
-     */
-    private Queue<Message> sendQueue = new LinkedList<>();
-    
-    private String host, channel, nick, loginName, password;
+    private String host, channel, nick;
     
     private int port;
     
-    private Bot bot;
+    private volatile XMPPConnection con;
     
-    private XMPPConnection con;
+    private MultiUserChat chat;
+    
+    private ConnectionListener connectionListener;
     
     private ParticipantStatusListener statusListener;
     
-    private WatchDog dog;
+    private final XmppSession session;
     
     /**
      * Create a new XmppConnection to an XMPP server.
@@ -85,186 +71,97 @@ public class XmppConnection implements Connection {
      *        The nickname to use when joining the channel.
      */
     public XmppConnection(Bot bot, String host, int port, String channel, String nick) {
-        this.bot = bot;
+        super(bot);
         this.host = host;
         this.port = port;
         this.channel = channel;
         this.nick = nick;
-        dog = new WatchDog(this);
-        dog.start();
+        this.session = XmppSession.get(host, port);
         
         // There seems to be a bug in there so better disable it.
         SASLAuthentication.unsupportSASLMechanism("DIGEST-MD5");
     }
     
     @Override
-    public void run() {
-        boolean pause = false;
+    protected void connect() throws XMPPException {
+        Log.info("Connecting to channel “" + channel + "” on " + host + ":" + port + ".");
+        con = session.open(this, nick, bot.getScheduler());
+        chat = new MultiUserChat(con, channel);
+        Pinger pinger = session.getPinger();
+        PacketListener packetListener = new PacketListener(this, bot, pinger);
+        // chat.addInvitationRejectionListener(new InvitationRejectionListener());
+        chat.addMessageListener(packetListener);
+        // chat.addParticipantListener(packetListener);
+        statusListener = new ParticipantStatusListener(this, bot, pinger);
+        chat.addParticipantStatusListener(statusListener);
+        // chat.addPresenceInterceptor(new PresenceInterceptor());
+        // chat.addSubjectUpdatedListener(new SubjectUpdatedListener());
+        chat.addUserStatusListener(new UserStatusListener(this));
+        // MultiUserChat.addInvitationListener(con, new InvitationListener());
+        connectionListener = new ConnectionListener(this);
+        con.addConnectionListener(connectionListener);
         
-        while (true) {
-            ConnectionListener connectionListener = null;
-            
-            try {
-                Log.info("Connecting to channel “" + channel + "” on " + host + ":" + port + ".");
-                ConnectionConfiguration config = new ConnectionConfiguration(host, port);
-                con = new XMPPConnection(config);
-                con.connect();
-                
-                if (con.isConnected()) {
-                    load();
-                    Log.info("Connection established. Logging in as " + loginName + ".");
-                    con.login(loginName, password, "Daheim");
-                    // Get the password out of memory asap.
-                    loginName = null;
-                    password = null;
-                    System.gc();
-                    
-                    MultiUserChat chat = new MultiUserChat(con, channel);
-                    PacketListener packetListener = new PacketListener(this, bot, dog);
-                    // chat.addInvitationRejectionListener(new InvitationRejectionListener());
-                    chat.addMessageListener(packetListener);
-                    // chat.addParticipantListener(packetListener);
-                    statusListener = new ParticipantStatusListener(this, bot, dog);
-                    chat.addParticipantStatusListener(statusListener);
-                    // chat.addPresenceInterceptor(new PresenceInterceptor());
-                    // chat.addSubjectUpdatedListener(new SubjectUpdatedListener());
-                    chat.addUserStatusListener(new UserStatusListener(this));
-                    // MultiUserChat.addInvitationListener(con, new InvitationListener());
-                    connectionListener = new ConnectionListener(this);
-                    con.addConnectionListener(connectionListener);
-                    
-                    // We don’t want the bot to react on old stuff when he joins.
-                    DiscussionHistory history = new DiscussionHistory();
-                    history.setMaxStanzas(0);
-                    
-                    Log.info("Logged in. Joining chat.");
-                    chat.join(nick, null, history, SmackConfiguration.getPacketReplyTimeout());
-                    pause = false;
-                    
-                    // Wait for messages to send.
-                    while (con.isConnected()) {
-                        
-                        synchronized (sendQueue) {
-                            
-                            while (!sendQueue.isEmpty()) {
-                                Message msg = sendQueue.poll();
-                                Log.info("Sending " + msg + " to the server.");
-                                chat.sendMessage(msg.getText());
-                            }
-                            
-                            try {
-                                sendQueue.wait();
-                            } catch (InterruptedException e) {
-                            }
-                        }
-                    }
-                }
-                
-            } catch (XMPPException e) {
-                Log.error(e);
-            } catch (Throwable t) {
-                Log.error(t);
-            } finally {
-                
-                if (con != null) {
-                    
-                    if (connectionListener != null) {
-                        con.removeConnectionListener(connectionListener);
-                    }
-                    
-                    con.disconnect();
-                }
-                
-                if (pause || !pause) {
-                    Log.info("Lost connection to XMPP server. Trying to reconnect in 5 min.");
-                    
-                    try {
-                        Thread.sleep(300000);
-                    } catch (InterruptedException e) {
-                    }
-                    
-                } else {
-                    pause = true;
-                    Log.info("Lost connection to XMPP server. Trying to reconnect.");
-                }
-            }
-        }
+        // We don’t want the bot to react on old stuff when he joins.
+        DiscussionHistory history = new DiscussionHistory();
+        history.setMaxStanzas(0);
+        
+        Log.info("Logged in. Joining chat.");
+        chat.join(nick, null, history, SmackConfiguration.getPacketReplyTimeout());
     }
     
-    /**
-     * Used by {@link UserStatusListener} to trigger a reconnect if re-joining the chat room after a
-     * kick resulted in some XMPP error (see there for more info).
-     */
-    public void reconnect() {
+    @Override
+    protected boolean isConnected() {
+        return con != null && con.isConnected();
+    }
+    
+    @Override
+    protected void write(List<Message> messages) throws XMPPException {
         
-        synchronized (sendQueue) {
-            
-            if (con != null && con.isConnected()) {
-                con.disconnect();
-            }
-            
-            sendQueue.notify();
+        for (Message msg : messages) {
+            Log.info("Sending " + msg + " to the server.");
+            chat.sendMessage(msg.getText());
         }
     }
     
-    private void load() {
+    @Override
+    protected void disconnect() {
+        XMPPConnection con = this.con;
         
-        try {
-            Log.debug("Trying to load password from " + PASS_FILE + ".");
-            BufferedReader fileIn = new BufferedReader(new InputStreamReader(new FileInputStream(
-                    PASS_FILE), "UTF-8"));
-            String line;
+        if (con != null) {
+            
+            if (connectionListener != null) {
+                con.removeConnectionListener(connectionListener);
+                connectionListener = null;
+            }
             
-            while ((line = fileIn.readLine()) != null) {
-                Log.fineDebug("Read a line from the file.");
+            if (chat != null && con.isConnected()) {
                 
-                if (line.toUpperCase().startsWith("USER=")) {
-                    Log.fineDebug("It was the login name.");
-                    loginName = line.substring("USER=".length());
-                } else if (line.toUpperCase().startsWith("PASSWORD=")) {
-                    Log.fineDebug("It was the password.");
-                    password = line.substring("PASSWORD=".length());
+                try {
+                    chat.leave();
+                } catch (IllegalStateException e) {
+                    // The connection broke meanwhile.
                 }
             }
             
-            Log.debug("Password file found and successfully parsed.");
-        } catch (UnsupportedEncodingException e) {
-            throw new Error(e);
-        } catch (FileNotFoundException e) {
-            Log.warning("Password file " + PASS_FILE + " could not be found.");
-            Log.info("Trying to continue but this is likely not to work!");
-            loginName = nick;
-            password = "default";
-        } catch (IOException e) {
-            throw new Error(e);
+            chat = null;
+            this.con = null;
+            session.release(this);
         }
     }
     
+    /**
+     * Access the {@link Pinger} that checks whether the connection is alive. It also knows the
+     * round trip times of the pings.
+     * 
+     * @return The Pinger of this connection.
+     */
+    public Pinger getPinger() {
+        return session.getPinger();
+    }
+    
     @Override
-    public void send(final Message msg) {
-        
-        if (msg instanceof DelayedMessage) {
-            
-            new Delay((DelayedMessage) msg) {
-                
-                @Override
-                public void delayedAction() {
-                    
-                    synchronized (sendQueue) {
-                        sendQueue.offer(msg);
-                        sendQueue.notify();
-                    }
-                }
-                
-            }.start();
-            
-        } else {
-            
-            synchronized (sendQueue) {
-                sendQueue.offer(msg);
-                sendQueue.notify();
-            }
-        }
+    protected String getServerName() {
+        return "XMPP server";
     }
     
     @Override
@@ -0,0 +1,237 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.con.xmpp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.jivesoftware.smack.ConnectionConfiguration;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException;
+
+import erki.api.util.Log;
+
+/**
+ * One login to an XMPP server that is shared by all {@link XmppConnection}s to chat rooms on that
+ * server. The connection is established when the first room needs it and closed when the last room
+ * releases it. Its liveness is checked by one {@link Pinger} for all rooms.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class XmppSession {
+    
+    private static final String PASS_FILE = "config" + File.separator + "passwd.xmpp";
+    
+    private static final HashMap<String, XmppSession> sessions = new HashMap<String, XmppSession>();
+    
+    private final String host;
+    
+    private final int port;
+    
+    private final Pinger pinger = new Pinger(this);
+    
+    private final HashSet<XmppConnection> rooms = new HashSet<XmppConnection>();
+    
+    private XMPPConnection con;
+    
+    private XmppSession(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+    
+    /**
+     * Access the session for some server.
+     * 
+     * @param host
+     *        The hostname of the XMPP server.
+     * @param port
+     *        The port of the XMPP server.
+     * @return The session that is shared by all rooms on that server.
+     */
+    public static XmppSession get(String host, int port) {
+        
+        synchronized (sessions) {
+            String key = host.toLowerCase() + ":" + port;
+            XmppSession session = sessions.get(key);
+            
+            if (session == null) {
+                session = new XmppSession(host, port);
+                sessions.put(key, session);
+            }
+            
+            return session;
+        }
+    }
+    
+    /**
+     * Access the connection to the server. If it is not yet established it is established and the
+     * bot logs in.
+     * 
+     * @param room
+     *        The room that uses the connection.
+     * @param nick
+     *        The login name to use if none is configured.
+     * @param scheduler
+     *        The scheduler that runs the pings.
+     * @return The established connection.
+     * @throws XMPPException
+     *         If the connection could not be established.
+     */
+    public synchronized XMPPConnection open(XmppConnection room, String nick,
+            ScheduledExecutorService scheduler) throws XMPPException {
+        rooms.add(room);
+        
+        if (con != null && con.isConnected() && con.isAuthenticated()) {
+            Log.debug("Reusing the connection to " + host + ":" + port + ".");
+            return con;
+        }
+        
+        close();
+        Log.info("Connecting to " + host + ":" + port + ".");
+        XMPPConnection fresh = new XMPPConnection(new ConnectionConfiguration(host, port));
+        boolean success = false;
+        
+        try {
+            fresh.connect();
+            
+            if (!fresh.isConnected()) {
+                throw new XMPPException("Could not connect to " + host + ":" + port + ".");
+            }
+            
+            String[] login = load(nick);
+            Log.info("Connection established. Logging in as " + login[0] + ".");
+            fresh.login(login[0], login[1], "Daheim");
+            // Get the password out of memory asap.
+            login = null;
+            System.gc();
+            success = true;
+        } finally {
+            
+            // The room will not release a connection it never got.
+            if (!success) {
+                rooms.remove(room);
+                fresh.disconnect();
+            }
+        }
+        
+        this.con = fresh;
+        pinger.start(fresh, scheduler);
+        return fresh;
+    }
+    
+    /**
+     * Tell that a room no longer uses the connection. The connection is closed if no room uses it
+     * any more.
+     * 
+     * @param room
+     *        The room that left.
+     */
+    public synchronized void release(XmppConnection room) {
+        rooms.remove(room);
+        
+        if (rooms.isEmpty()) {
+            close();
+        }
+    }
+    
+    /**
+     * Close a connection that is broken. All rooms notice that and reconnect.
+     * 
+     * @param broken
+     *        The broken connection. Nothing happens if it was already replaced.
+     */
+    public void reset(XMPPConnection broken) {
+        
+        synchronized (this) {
+            
+            if (con != broken) {
+                return;
+            }
+            
+            pinger.stop();
+            con = null;
+        }
+        
+        // The listeners of the rooms are informed while this happens so the lock is not held.
+        broken.disconnect();
+    }
+    
+    /** @return The Pinger that checks the connection of this session. */
+    public Pinger getPinger() {
+        return pinger;
+    }
+    
+    private void close() {
+        pinger.stop();
+        
+        if (con != null) {
+            con.disconnect();
+            con = null;
+        }
+    }
+    
+    private static String[] load(String nick) {
+        String[] login = new String[2];
+        
+        try {
+            Log.debug("Trying to load password from " + PASS_FILE + ".");
+            BufferedReader fileIn = new BufferedReader(new InputStreamReader(new FileInputStream(
+                    PASS_FILE), "UTF-8"));
+            String line;
+            
+            while ((line = fileIn.readLine()) != null) {
+                Log.fineDebug("Read a line from the file.");
+                
+                if (line.toUpperCase().startsWith("USER=")) {
+                    Log.fineDebug("It was the login name.");
+                    login[0] = line.substring("USER=".length());
+                } else if (line.toUpperCase().startsWith("PASSWORD=")) {
+                    Log.fineDebug("It was the password.");
+                    login[1] = line.substring("PASSWORD=".length());
+                }
+            }
+            
+            fileIn.close();
+            Log.debug("Password file found and successfully parsed.");
+        } catch (UnsupportedEncodingException e) {
+            throw new Error(e);
+        } catch (FileNotFoundException e) {
+            Log.warning("Password file " + PASS_FILE + " could not be found.");
+            Log.info("Trying to continue but this is likely not to work!");
+            login[0] = nick;
+            login[1] = "default";
+        } catch (IOException e) {
+            throw new Error(e);
+        }
+        
+        return login;
+    }
+    
+    @Override
+    public String toString() {
+        return "XmppSession(" + host + ":" + port + ", " + rooms.size() + " rooms)";
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Covers the execution of an {@link erki.xpeter.parsers.Action} whose regular expression matched a
+ * message. Together with the enclosing {@link DispatchEvent} it tells how much of the time was
+ * spent matching.
+ * 
+ * @author Edgar Kalkowski
+ */
+@Name("erki.xpeter.Action")
+@Label("Action Execution")
+@Category("xpeter")
+@Description("An action matched a message and was executed.")
+public class ActionEvent extends XpeterEvent {
+    
+    @Label("Action")
+    @Description("The class of the action.")
+    public String action;
+}
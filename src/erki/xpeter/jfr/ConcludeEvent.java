@@ -0,0 +1,40 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Covers {@link erki.xpeter.msg.Message#conclude()} handing the responses to a message to its
+ * connection.
+ * 
+ * @author Edgar Kalkowski
+ */
+@Name("erki.xpeter.Conclude")
+@Label("Response Hand-off")
+@Category("xpeter")
+@Description("The responses to a message were handed to its connection.")
+public class ConcludeEvent extends XpeterEvent {
+    
+    @Label("Responses")
+    @Description("The number of responses (1 if only the default response was sent).")
+    public int responses;
+}
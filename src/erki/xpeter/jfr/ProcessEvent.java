@@ -0,0 +1,41 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Covers one call of {@link erki.xpeter.Bot#process(erki.xpeter.msg.Message)} by a connection,
+ * i.e. the time from receiving a message until all observers are done with it and its responses
+ * were handed to the connection.
+ * 
+ * @author Edgar Kalkowski
+ */
+@Name("erki.xpeter.Process")
+@Label("Message Processing")
+@Category("xpeter")
+@Description("A connection handed a received message to the bot.")
+public class ProcessEvent extends XpeterEvent {
+    
+    @Label("Observers")
+    @Description("The number of observers the message was routed to.")
+    public int observers;
+}
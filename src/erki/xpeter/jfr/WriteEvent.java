@@ -0,0 +1,40 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Covers a connection writing a batch of queued messages to its server. For IRC this is the
+ * hand-off to the rate limiter that sends the lines later on.
+ * 
+ * @author Edgar Kalkowski
+ */
+@Name("erki.xpeter.Write")
+@Label("Connection Write")
+@Category("xpeter")
+@Description("A connection wrote queued messages to its server.")
+public class WriteEvent extends XpeterEvent {
+    
+    @Label("Messages")
+    @Description("The number of messages written.")
+    public int messages;
+}
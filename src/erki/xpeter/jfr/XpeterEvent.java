@@ -0,0 +1,57 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * The base class of all Java Flight Recorder events of xpeter. They are enabled by default but
+ * carry no stack traces so a continuous recording stays cheap. Without a running recording
+ * creating and committing an event costs next to nothing.
+ * <p>
+ * Events are used like this (filling in the fields only if the event will be recorded at all):
+ * 
+ * <pre>
+ * DispatchEvent event = new DispatchEvent();
+ * event.begin();
+ * // ...
+ * event.end();
+ * 
+ * if (event.shouldCommit()) {
+ *     event.connection = msg.getShortId();
+ *     event.commit();
+ * }
+ * </pre>
+ * 
+ * @author Edgar Kalkowski
+ */
+@Enabled(true)
+@StackTrace(false)
+public abstract class XpeterEvent extends jdk.jfr.Event {
+    
+    @Label("Connection")
+    @Description("The short identifier of the connection (see Connection#getShortId()).")
+    public String connection;
+    
+    @Label("Message Type")
+    @Description("The simple class name of the message.")
+    public String messageType;
+}
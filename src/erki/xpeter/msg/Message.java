@@ -17,11 +17,14 @@
 
 package erki.xpeter.msg;
 
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 
 import erki.api.util.Log;
 import erki.xpeter.Bot;
 import erki.xpeter.con.Connection;
+import erki.xpeter.jfr.ConcludeEvent;
 
 /**
  * Superclass for all messages that can be processed by xpeter. It assumes that every message at
@@ -39,9 +42,12 @@ public class Message {
     
     protected String text;
     
-    protected Message defaultResponse = null;
+    protected volatile Message defaultResponse = null;
     
-    protected LinkedList<Message> responses = new LinkedList<Message>();
+    /* The parsers run in parallel so they may respond concurrently. */
+    protected List<Message> responses = Collections.synchronizedList(new LinkedList<Message>());
+    
+    private volatile Trace trace;
     
     /**
      * Create a new Message object.
@@ -54,6 +60,11 @@ public class Message {
     public Message(String text, Connection connection) {
         this.connection = connection;
         this.text = text;
+        
+        // Messages that come with a connection were just received from it.
+        if (connection != null) {
+            this.trace = new Trace();
+        }
     }
     
     /**
@@ -120,9 +131,27 @@ public class Message {
      *        The message that will be sent as a response to this message.
      */
     public void respond(Message msg) {
+        inherit(msg);
         responses.add(msg);
     }
     
+    /**
+     * Access the trace that follows this message through the bot.
+     * 
+     * @return The trace of this message or {@code null} if it neither was received from a
+     *         connection nor is a response to such a message.
+     */
+    public Trace getTrace() {
+        return trace;
+    }
+    
+    private void inherit(Message response) {
+        
+        if (trace != null && response.trace == null) {
+            response.trace = new Trace(trace);
+        }
+    }
+    
     /**
      * This method is called by {@link Bot} after all parsers had a chance to compute their
      * responses and add them to this messages send queue. <i>It must not be called by any
@@ -130,8 +159,11 @@ public class Message {
      * have no effect!
      */
     public final void conclude() {
+        ConcludeEvent event = new ConcludeEvent();
+        event.begin();
+        Message[] responses = this.responses.toArray(new Message[0]);
         
-        if (!responses.isEmpty()) {
+        if (responses.length > 0) {
             
             for (Message msg : responses) {
                 
@@ -147,12 +179,27 @@ public class Message {
             if (defaultResponse != null) {
                 
                 if (connection != null) {
+                    inherit(defaultResponse);
                     connection.send(defaultResponse);
                 } else {
                     Log.warning("Someone delivered a foul message! Refusing to answer to it!");
                 }
             }
         }
+        
+        event.end();
+        
+        if (event.shouldCommit()) {
+            event.connection = getShortId();
+            event.messageType = getClass().getSimpleName();
+            event.responses = responses.length;
+            
+            if (responses.length == 0 && defaultResponse != null) {
+                event.responses = 1;
+            }
+            
+            event.commit();
+        }
     }
     
     @Override
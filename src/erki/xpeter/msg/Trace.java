@@ -0,0 +1,89 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.msg;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Follows a message received from a chat and the responses to it on their way back out. Every
+ * message a connection receives gets a new trace with a unique id and the time it was received.
+ * Responses added by {@link Message#respond(Message)} get a trace with the same id and receive time
+ * but their own time stamps for the way through their connection. All times are taken from
+ * {@link System#nanoTime()} and are 0 until the corresponding step happened.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class Trace {
+    
+    private static final AtomicLong ids = new AtomicLong();
+    
+    private final long id;
+    
+    private final long received;
+    
+    private volatile long handedOff;
+    
+    private volatile long queued;
+    
+    /** Start a new trace for a message that was just received. */
+    Trace() {
+        this.id = ids.incrementAndGet();
+        this.received = System.nanoTime();
+    }
+    
+    /** Continue a trace for a response. */
+    Trace(Trace request) {
+        this.id = request.id;
+        this.received = request.received;
+    }
+    
+    /** @return The id that is shared by a received message and all responses to it. */
+    public long getId() {
+        return id;
+    }
+    
+    /** @return The time the message that started this trace was received. */
+    public long getReceived() {
+        return received;
+    }
+    
+    /** @return The time the message was handed to its connection for sending. */
+    public long getHandedOff() {
+        return handedOff;
+    }
+    
+    /**
+     * Access the time the message was put into the send queue of its connection. For a
+     * {@link DelayedMessage} this is after its delay.
+     * 
+     * @return The time the message was queued.
+     */
+    public long getQueued() {
+        return queued;
+    }
+    
+    /** Remember that the message was just handed to its connection for sending. */
+    public void markHandedOff() {
+        handedOff = System.nanoTime();
+    }
+    
+    /** Remember that the message was just put into the send queue of its connection. */
+    public void markQueued() {
+        queued = System.nanoTime();
+    }
+}
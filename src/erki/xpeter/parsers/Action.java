@@ -2,11 +2,13 @@ package erki.xpeter.parsers;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import erki.api.util.Log;
 import erki.api.util.Observer;
 import erki.xpeter.Bot;
 import erki.xpeter.BotInterface;
+import erki.xpeter.jfr.ActionEvent;
 import erki.xpeter.msg.Message;
 import erki.xpeter.util.BotApi;
 
@@ -25,7 +27,10 @@ public abstract class Action<T extends Message> implements Observer<T> {
     
     private final boolean mustAddress;
     
-    private BotInterface bot;
+    private Bot bot;
+    
+    /* The compiled form of getRegex() or null if it is not compiled (yet). */
+    private volatile Pattern pattern = null;
     
     /**
      * Create a new Action.
@@ -53,6 +58,7 @@ public abstract class Action<T extends Message> implements Observer<T> {
      */
     public void register(Bot bot) {
         this.bot = bot;
+        getPattern();
         bot.register(this.messageType, this);
     }
     
@@ -65,6 +71,7 @@ public abstract class Action<T extends Message> implements Observer<T> {
      */
     public void deregister(Bot bot) {
         bot.deregister(this.messageType, this);
+        this.bot = null;
     }
     
     /**
@@ -77,6 +84,51 @@ public abstract class Action<T extends Message> implements Observer<T> {
      */
     public abstract String getRegex();
     
+    /**
+     * Access the compiled form of {@link #getRegex()}. The regular expression is only compiled once
+     * (when this action is registered) and the compiled pattern is reused for every message
+     * afterwards. If an action changes its regular expression at runtime it must call
+     * {@link #invalidatePattern()}.
+     * 
+     * @return The compiled regular expression of this action or {@code null} if this action has no
+     *         or an invalid regular expression.
+     */
+    public Pattern getPattern() {
+        Pattern pattern = this.pattern;
+        
+        if (pattern == null) {
+            String regex = getRegex();
+            
+            if (regex == null) {
+                return null;
+            }
+            
+            try {
+                pattern = Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                Log.error(e);
+                return null;
+            }
+            
+            this.pattern = pattern;
+        }
+        
+        return pattern;
+    }
+    
+    /**
+     * Tell this action that the result of {@link #getRegex()} has changed. The new regular
+     * expression is compiled the next time a message is checked against it.
+     */
+    protected void invalidatePattern() {
+        this.pattern = null;
+        
+        // The bot routes messages by the regular expression so it must look at the new one.
+        if (this.bot != null) {
+            this.bot.register(this.messageType, this);
+        }
+    }
+    
     /**
      * Get a human readable description of what this action does.
      * 
@@ -129,12 +181,13 @@ public abstract class Action<T extends Message> implements Observer<T> {
             text = BotApi.trimNick(text, nick);
         }
         
-        if (getRegex() == null) {
+        Pattern pattern = getPattern();
+        
+        if (pattern == null) {
             Log.warning(getClass().getSimpleName() + ": This action is defective!");
             return;
         }
         
-        Pattern pattern = Pattern.compile(getRegex());
         Matcher matcher = pattern.matcher(text);
         
         if (matcher.matches()) {
@@ -144,7 +197,22 @@ public abstract class Action<T extends Message> implements Observer<T> {
                 groups[i] = matcher.group(i + 1);
             }
             
-            execute(groups, message);
+            ActionEvent event = new ActionEvent();
+            event.begin();
+            
+            try {
+                execute(groups, message);
+            } finally {
+                event.end();
+                
+                if (event.shouldCommit()) {
+                    event.connection = message.getShortId();
+                    event.messageType = message.getClass().getSimpleName();
+                    event.action = getClass().getName();
+                    event.commit();
+                }
+            }
+            
         } else {
             Log.debug(getClass().getSimpleName() + ": This action does not match.");
         }
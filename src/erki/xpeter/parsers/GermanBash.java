@@ -27,11 +27,15 @@ import erki.xpeter.msg.DelayedMessage;
 import erki.xpeter.msg.Message;
 import erki.xpeter.msg.TextMessage;
 import erki.xpeter.util.BotApi;
+import erki.xpeter.util.HttpClient;
 
 public class GermanBash implements Parser, Observer<TextMessage> {
     
+    private HttpClient http;
+    
     @Override
     public void init(Bot bot) {
+        http = bot.getHttpClient();
         bot.register(TextMessage.class, this);
     }
     
@@ -107,7 +111,7 @@ public class GermanBash implements Parser, Observer<TextMessage> {
         if (query != null) {
             
             try {
-                String website = BotApi.getWebsite("german-bash.org", query, "UTF-8");
+                String website = http.get("http://german-bash.org/" + query).getBody();
                 
                 if (website.contains("Ein Zitat mit dieser id existiert leider nicht.")) {
                     msg.respond(new Message("Ein Zitat mit dieser Nummer gibt es bei "
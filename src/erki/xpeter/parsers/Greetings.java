@@ -17,8 +17,6 @@
 
 package erki.xpeter.parsers;
 
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -28,8 +26,9 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.LinkedList;
 import java.util.TreeMap;
-
-import javax.swing.Timer;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import erki.api.util.Log;
 import erki.api.util.Observer;
@@ -51,7 +50,9 @@ public class Greetings implements Parser, Observer<TextMessage> {
     private LinkedList<String> cu;
     private LinkedList<String> phrases;
     
-    private TreeMap<String, Timer> timers = new TreeMap<String, Timer>();
+    private TreeMap<String, ScheduledFuture<?>> timers = new TreeMap<String, ScheduledFuture<?>>();
+    
+    private ScheduledExecutorService scheduler;
     
     private static final String GREETINGS_FILE = "config" + File.separator + "greetings";
     
@@ -61,11 +62,12 @@ public class Greetings implements Parser, Observer<TextMessage> {
     public void init(final Bot bot) {
         Log.debug("Initializing.");
         loadGreetings();
+        scheduler = bot.getScheduler();
         bot.register(TextMessage.class, this);
         
         userJoinedObserver = new Observer<UserJoinedMessage>() {
             
-            private Timer timer = null;
+            private ScheduledFuture<?> timer = null;
             
             private LinkedList<String> joins = new LinkedList<String>();
             
@@ -82,39 +84,38 @@ public class Greetings implements Parser, Observer<TextMessage> {
                     return;
                 }
                 
-                synchronized (joins) {
+                Runnable greet = new Runnable() {
                     
-                    if (timer == null && checkTimer(msg.getNick())) {
-                        joins.add(msg.getNick());
+                    @Override
+                    public void run() {
                         
-                        timer = new Timer(3000, new ActionListener() {
+                        synchronized (joins) {
                             
-                            @Override
-                            public void actionPerformed(ActionEvent e) {
-                                
-                                synchronized (joins) {
-                                    
-                                    // only greet if it’s not too many people
-                                    if (joins.size() < 3) {
-                                        int rnd = (int) (Math.random() * hello.size());
-                                        msg.respond(new Message(hello.get(rnd).substring(0, 1)
-                                                .toUpperCase()
-                                                + hello.get(rnd).substring(1)
-                                                + " "
-                                                + BotApi.enumerate(joins) + "!"));
-                                    }
-                                    
-                                    joins.clear();
-                                    timer = null;
-                                }
+                            // only greet if it’s not too many people
+                            if (joins.size() < 3) {
+                                int rnd = (int) (Math.random() * hello.size());
+                                msg.respond(new Message(hello.get(rnd).substring(0, 1)
+                                        .toUpperCase()
+                                        + hello.get(rnd).substring(1)
+                                        + " "
+                                        + BotApi.enumerate(joins) + "!"));
                             }
-                        });
-                        
-                        timer.setRepeats(false);
-                        timer.start();
+                            
+                            joins.clear();
+                            timer = null;
+                        }
+                    }
+                };
+                
+                synchronized (joins) {
+                    
+                    if (timer == null && checkTimer(msg.getNick())) {
+                        joins.add(msg.getNick());
+                        timer = scheduler.schedule(greet, 3000, TimeUnit.MILLISECONDS);
                     } else if (timer != null && checkTimer(msg.getNick())) {
                         joins.add(msg.getNick());
-                        timer.restart();
+                        timer.cancel(false);
+                        timer = scheduler.schedule(greet, 3000, TimeUnit.MILLISECONDS);
                     }
                 }
             }
@@ -420,22 +421,25 @@ public class Greetings implements Parser, Observer<TextMessage> {
     
     private boolean checkTimer(final String name) {
         
-        if (timers.containsKey(name)) {
-            return false;
-        } else {
+        synchronized (timers) {
             
-            Timer timer = new Timer(300000, new ActionListener() {
+            if (timers.containsKey(name)) {
+                return false;
+            } else {
                 
-                @Override
-                public void actionPerformed(ActionEvent e) {
-                    timers.remove(name);
-                }
-            });
-            
-            timer.setRepeats(false);
-            timers.put(name, timer);
-            timer.start();
-            return true;
+                timers.put(name, scheduler.schedule(new Runnable() {
+                    
+                    @Override
+                    public void run() {
+                        
+                        synchronized (timers) {
+                            timers.remove(name);
+                        }
+                    }
+                }, 300000, TimeUnit.MILLISECONDS));
+                
+                return true;
+            }
         }
     }
     
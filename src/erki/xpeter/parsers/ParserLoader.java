@@ -17,17 +17,26 @@
 
 package erki.xpeter.parsers;
 
+import java.util.List;
+import java.util.Locale;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 import erki.api.util.Log;
 import erki.api.util.Observer;
 import erki.xpeter.Bot;
+import erki.xpeter.DispatchMetrics.Observed;
+import erki.xpeter.ReplyTracer.Stages;
+import erki.xpeter.con.Connection;
+import erki.xpeter.con.xmpp.Pinger;
+import erki.xpeter.con.xmpp.XmppConnection;
 import erki.xpeter.msg.DelayedMessage;
 import erki.xpeter.msg.Message;
 import erki.xpeter.msg.TextMessage;
 import erki.xpeter.util.BotApi;
-import erki.xpeter.util.ParserFinder;
+import erki.xpeter.util.LatencyHistogram;
+import erki.xpeter.util.ParserIndex;
 
 /**
  * This parser manages the loading and unloading of parsers at runtime.
@@ -36,6 +45,9 @@ import erki.xpeter.util.ParserFinder;
  */
 public class ParserLoader implements Parser, Observer<TextMessage> {
     
+    /** The number of observers listed by the statistics command. */
+    private static final int STATISTICS = 5;
+    
     private Bot bot;
     
     @Override
@@ -91,6 +103,63 @@ public class ParserLoader implements Parser, Observer<TextMessage> {
             }
         }
         
+        if (text.matches("([wW]elche [pP]arser sind langsam|[wW]er braucht so lange|"
+                + "[pP]arser-?[sS]tatistik)[\\.!\\?]*")) {
+            List<Observed> observers = bot.getMetrics().getObservers();
+            
+            if (observers.isEmpty()) {
+                msg.respond(new DelayedMessage("Bisher hat noch kein Parser etwas getan.", 1500));
+            } else {
+                String response = "Die meiste Zeit brauchen:";
+                TimeUnit ms = TimeUnit.MILLISECONDS;
+                
+                for (Observed o : observers.subList(0, Math.min(STATISTICS, observers.size()))) {
+                    LatencyHistogram l = o.getLatency();
+                    response += String.format(Locale.GERMAN, "\n%s: %d× in %d ms (Ø %.1f ms, "
+                            + "99 %% unter %.1f ms, max %.1f ms), %d Fehler", o.getSimpleName(),
+                            o.getInvocations(), l.getTotal(ms), l.getMean(ms), l.getPercentile(
+                                    99, ms), l.getMax(ms), o.getErrors());
+                }
+                
+                msg.respond(new DelayedMessage(response, 2000));
+            }
+        }
+        
+        if (text.matches("([aA]ntwortzeiten|[wW]ie schnell antwortest [dD]u)[\\.!\\?]*")) {
+            TreeMap<String, Stages> connections = bot.getReplyTracer().getConnections();
+            
+            if (connections.isEmpty()) {
+                msg.respond(new DelayedMessage("Ich habe noch nichts geantwortet.", 1500));
+            } else {
+                String response = "Meine Antwortzeiten (Median / 99 %):";
+                
+                for (Stages s : connections.values()) {
+                    response += String.format(Locale.GERMAN, "\n%s: %d Antworten, insgesamt %s, "
+                            + "davon Verarbeitung %s, Absicht %s, Warteschlange %s, Senden %s",
+                            s.getConnection(), s.getTotal().getCount(), percentiles(s.getTotal()),
+                            percentiles(s.getProcessing()), percentiles(s.getDelay()),
+                            percentiles(s.getQueue()), percentiles(s.getWrite()));
+                }
+                
+                msg.respond(new DelayedMessage(response, 2000));
+            }
+            
+            synchronized (bot.getConnections()) {
+                
+                for (Connection con : bot.getConnections()) {
+                    
+                    if (con instanceof XmppConnection) {
+                        Pinger p = ((XmppConnection) con).getPinger();
+                        msg.respond(new DelayedMessage(String.format(Locale.GERMAN,
+                                "Pings an %s: %d beantwortet nach Ø %d ms (zuletzt %d ms, max %d "
+                                        + "ms), %d ohne Antwort", con.getShortId(), p.getPings(),
+                                p.getAverageRoundTripTime(), p.getRoundTripTime(), p
+                                        .getMaxRoundTripTime(), p.getTimeouts()), 2500));
+                    }
+                }
+            }
+        }
+        
         String match = "([Ll]ade|[Ll]oad) (.*?)";
         
         if (text.matches(match)) {
@@ -106,19 +175,10 @@ public class ParserLoader implements Parser, Observer<TextMessage> {
             
             Log.debug("Recognized match for parser " + parser + ".");
             
-            TreeSet<Class<? extends Parser>> foundParsers = ParserFinder.findParsers(BotApi
-                    .getParserDir());
-            boolean added = false;
+            Class<? extends Parser> clazz = ParserIndex.find(parser);
             
-            for (Class<? extends Parser> clazz : foundParsers) {
-                
-                if (clazz.getSimpleName().equals(parser)) {
-                    bot.add(clazz);
-                    added = true;
-                }
-            }
-            
-            if (added) {
+            if (clazz != null) {
+                bot.add(clazz);
                 msg.respond(new Message("Ok."));
             } else {
                 msg.respond(new DelayedMessage("Ein Parser mit dem Namen " + parser
@@ -166,4 +226,10 @@ public class ParserLoader implements Parser, Observer<TextMessage> {
             }
         }
     }
+    
+    private static String percentiles(LatencyHistogram latency) {
+        TimeUnit ms = TimeUnit.MILLISECONDS;
+        return String.format(Locale.GERMAN, "%.0f / %.0f ms", latency.getPercentile(50, ms),
+                latency.getPercentile(99, ms));
+    }
 }
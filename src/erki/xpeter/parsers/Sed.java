@@ -40,7 +40,7 @@ public class Sed implements Parser, Observer<TextMessage> {
     }
     
     @Override
-    public void inform(TextMessage msg) {
+    public synchronized void inform(TextMessage msg) {
         String text = msg.getText();
         String nick = msg.getNick();
         
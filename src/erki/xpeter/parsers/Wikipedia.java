@@ -18,6 +18,7 @@
 package erki.xpeter.parsers;
 
 import java.io.IOException;
+import java.net.URLEncoder;
 import java.net.UnknownHostException;
 
 import erki.api.util.Log;
@@ -26,6 +27,8 @@ import erki.xpeter.Bot;
 import erki.xpeter.msg.Message;
 import erki.xpeter.msg.TextMessage;
 import erki.xpeter.util.BotApi;
+import erki.xpeter.util.HttpClient;
+import erki.xpeter.util.HttpClient.Response;
 
 /**
  * This parser allows to retrieve information from wikipedia.
@@ -34,8 +37,11 @@ import erki.xpeter.util.BotApi;
  */
 public class Wikipedia implements Parser, Observer<TextMessage> {
     
+    private HttpClient http;
+    
     @Override
     public void init(Bot bot) {
+        http = bot.getHttpClient();
         bot.register(TextMessage.class, this);
     }
     
@@ -63,9 +69,9 @@ public class Wikipedia implements Parser, Observer<TextMessage> {
             Log.info("Making query to wikipedia.");
             
             try {
-                String result = BotApi.getWebsite("de.wikipedia.org",
-                        "/w/api.php?action=query&prop=excerpts&exlength=175&titles=" + query,
-                        "UTF-8");
+                Response result = http.get("https://de.wikipedia.org/w/api.php?"
+                        + "action=query&prop=excerpts&exlength=175&titles="
+                        + URLEncoder.encode(query, "UTF-8"));
                 msg.respond(new Message(parse(result)));
             } catch (UnknownHostException e) {
                 Log.error(e);
@@ -79,10 +85,10 @@ public class Wikipedia implements Parser, Observer<TextMessage> {
         }
     }
     
-    private static String parse(String text) {
+    private static String parse(Response result) {
+        String text = result.getBody();
         
-        if (!text.toUpperCase().contains("HTTP/1.0 200 OK")
-                || !text.toLowerCase().contains("<!-- start content -->")) {
+        if (!result.isOk() || !text.toLowerCase().contains("<!-- start content -->")) {
             return "Ich konnte leider keine passende Seite bei Wikipedia finden.";
         }
         
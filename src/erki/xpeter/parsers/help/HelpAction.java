@@ -1,16 +1,16 @@
 package erki.xpeter.parsers.help;
 
 import java.util.HashSet;
+import java.util.Map.Entry;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.TreeMap;
 
 import erki.api.util.Log;
 import erki.xpeter.msg.DelayedMessage;
 import erki.xpeter.msg.TextMessage;
 import erki.xpeter.parsers.Action;
 import erki.xpeter.parsers.Parser;
-import erki.xpeter.util.BotApi;
-import erki.xpeter.util.ParserFinder;
+import erki.xpeter.util.ParserIndex;
 
 /**
  * This action provides a general help message for the bot that lists all available parsers.
@@ -40,23 +40,22 @@ public class HelpAction extends Action<TextMessage> {
     public void execute(String[] args, TextMessage msg) {
         String response = "Ich kenne folgende Parser: ";
         Set<Parser> loadedParsers = getBot().getParsers();
-        HashSet<Class<? extends Parser>> loadedClasses = new HashSet<>();
+        HashSet<String> loadedClasses = new HashSet<>();
         
         for (Parser p : loadedParsers) {
-            loadedClasses.add(p.getClass());
+            loadedClasses.add(p.getClass().getName());
         }
         
-        TreeSet<Class<? extends Parser>> foundParsers = ParserFinder.findParsers(BotApi
-                .getParserDir());
+        TreeMap<String, String> foundParsers = ParserIndex.getNames();
         Log.debug("Loaded: " + loadedParsers.toString());
         Log.debug("Found: " + foundParsers.toString());
         
-        for (Class<? extends Parser> foundParser : foundParsers) {
+        for (Entry<String, String> foundParser : foundParsers.entrySet()) {
             
-            if (loadedClasses.contains(foundParser)) {
-                response += foundParser.getSimpleName() + " (*), ";
+            if (loadedClasses.contains(foundParser.getValue())) {
+                response += foundParser.getKey() + " (*), ";
             } else {
-                response += foundParser.getSimpleName() + ", ";
+                response += foundParser.getKey() + ", ";
             }
         }
         
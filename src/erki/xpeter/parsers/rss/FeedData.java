@@ -1,5 +1,7 @@
 package erki.xpeter.parsers.rss;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.LinkedList;
@@ -9,8 +11,8 @@ import org.gnu.stealthp.rsslib.RSSItem;
 /**
  * This class wraps all the information available about one rss feed. Especially it stores all items
  * of the feed the bot has already broadcast once. This class does not store the {@link RSSItem}s
- * directly (because that class is not serializable) but rather uses a string representation. So be
- * careful to always use the same string representation, for example {@link RSSItem#toString()}!
+ * directly (because that class is not serializable) but only a fingerprint of their link (see
+ * {@link FingerprintSet}). At most {@link #MAX_KNOWN_ITEMS} items are remembered.
  * 
  * @author Edgar Kalkowski
  */
@@ -18,14 +20,30 @@ public class FeedData implements Serializable {
     
     private static final long serialVersionUID = -6001142169582413565L;
     
-    private final String url;
+    /** The maximum number of items of one feed that are remembered. */
+    public static final int MAX_KNOWN_ITEMS = 1024;
     
-    private final LinkedList<String> knownItems;
+    /* Not final as readObject() must set it. */
+    private String url;
+    
+    private FingerprintSet knownItems;
+    
+    /*
+     * Feeds stored by older versions remembered the result of RSSItem.toString(). Their
+     * fingerprints are kept until the next cleanup.
+     */
+    private FingerprintSet oldItems;
     
     private String title;
     
     private boolean verbose = false;
     
+    /* The validators of the last response of the server (may be null). */
+    private String eTag, lastModified;
+    
+    /* The time between two polls of this feed in ms (0 for feeds stored by older versions). */
+    private long interval;
+    
     /**
      * Create a new FeedData instance.
      * 
@@ -37,7 +55,7 @@ public class FeedData implements Serializable {
      *        The items that are initially marked as already known. Must not be {@code null} (give
      *        an empty list if no items shall be marked as already known initially)!
      */
-    public FeedData(String title, String url, Collection<String> knownItems) {
+    public FeedData(String title, String url, Collection<RSSItem> knownItems) {
         
         if (title == null || url == null || knownItems == null) {
             throw new NullPointerException();
@@ -45,7 +63,21 @@ public class FeedData implements Serializable {
         
         this.url = url;
         this.title = title;
-        this.knownItems = new LinkedList<String>(knownItems);
+        this.knownItems = new FingerprintSet(MAX_KNOWN_ITEMS);
+        
+        for (RSSItem item : knownItems) {
+            add(item);
+        }
+    }
+    
+    /* The link identifies an item as the other fields may be edited after it was published. */
+    private static String getIdentifier(RSSItem item) {
+        
+        if (item.getLink() == null || item.getLink().isEmpty()) {
+            return item.toString();
+        } else {
+            return item.getLink();
+        }
     }
     
     /**
@@ -77,42 +109,48 @@ public class FeedData implements Serializable {
     }
     
     /**
-     * Add an item to the list of already known items.
+     * Add an item to the already known items.
      * 
      * @param item
      *        The item to add. Must not be {@code null}!
      */
-    public void add(String item) {
-        knownItems.add(item);
+    public void add(RSSItem item) {
+        knownItems.add(getIdentifier(item));
     }
     
     /**
      * Check if a rss item is already known to this feed.
      * 
      * @param item
-     *        A string representation of the item to check.
+     *        The item to check.
      * @return {@code true} if the given item is already known or {@code false} otherwise.
      */
-    public boolean isKnown(String item) {
-        return knownItems.contains(item);
+    public boolean isKnown(RSSItem item) {
+        return knownItems.contains(getIdentifier(item))
+                || (oldItems != null && oldItems.contains(item.toString()));
     }
     
     /**
      * Clean up the known items of this feed.
      * 
      * @param items
-     *        All items that are not contained in this collection are deleted from the list of known
-     *        items.
+     *        All items that are not contained in this collection are deleted from the known items.
      */
-    public void cleanup(Collection<? extends String> items) {
-        String[] knownItems = this.knownItems.toArray(new String[0]);
+    public void cleanup(Collection<RSSItem> items) {
+        FingerprintSet current = new FingerprintSet(Math.max(1, items.size()));
         
-        for (String item : knownItems) {
+        for (RSSItem item : items) {
             
-            if (!items.contains(item)) {
-                this.knownItems.remove(item);
+            // Items remembered by an older version are now remembered by their link.
+            if (oldItems != null && oldItems.contains(item.toString())) {
+                add(item);
             }
+            
+            current.add(getIdentifier(item));
         }
+        
+        oldItems = null;
+        knownItems.retainAll(current);
     }
     
     /**
@@ -134,4 +172,75 @@ public class FeedData implements Serializable {
     public void setVerbose(boolean verbose) {
         this.verbose = verbose;
     }
+    
+    /** @return The “ETag” header of the last response of the server or {@code null}. */
+    public String getETag() {
+        return eTag;
+    }
+    
+    /** @return The “Last-Modified” header of the last response of the server or {@code null}. */
+    public String getLastModified() {
+        return lastModified;
+    }
+    
+    /**
+     * Remember the validators of the last response of the server so the next request can ask the
+     * server to only send the feed if it changed.
+     * 
+     * @param eTag
+     *        The “ETag” header of the response (may be {@code null}).
+     * @param lastModified
+     *        The “Last-Modified” header of the response (may be {@code null}).
+     */
+    public void setValidators(String eTag, String lastModified) {
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+    
+    /**
+     * Access the time between two polls of this feed.
+     * 
+     * @param defaultInterval
+     *        The interval to return if none was set yet.
+     * @return The time between two polls of this feed in ms.
+     */
+    public long getInterval(long defaultInterval) {
+        return interval > 0 ? interval : defaultInterval;
+    }
+    
+    /**
+     * Change the time between two polls of this feed.
+     * 
+     * @param interval
+     *        The new interval in ms.
+     */
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+    
+    /* Feeds stored by older versions contain a list of the known items. */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        url = (String) fields.get("url", null);
+        title = (String) fields.get("title", null);
+        verbose = fields.get("verbose", false);
+        eTag = (String) fields.get("eTag", null);
+        lastModified = (String) fields.get("lastModified", null);
+        interval = fields.get("interval", 0L);
+        Object known = fields.get("knownItems", null);
+        
+        if (known instanceof LinkedList) {
+            knownItems = new FingerprintSet(MAX_KNOWN_ITEMS);
+            oldItems = new FingerprintSet(MAX_KNOWN_ITEMS);
+            
+            for (String item : (LinkedList<String>) known) {
+                oldItems.add(item);
+            }
+            
+        } else {
+            knownItems = (FingerprintSet) known;
+            oldItems = (FingerprintSet) fields.get("oldItems", null);
+        }
+    }
 }
@@ -0,0 +1,225 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.parsers.rss;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * A set of 64 bit fingerprints of strings. The fingerprints are stored in an open addressing hash
+ * table of primitive {@code long}s so checking and adding an item takes constant time and only a
+ * few bytes per item. If more than a given number of fingerprints is stored the oldest ones are
+ * forgotten.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class FingerprintSet implements Serializable {
+    
+    private static final long serialVersionUID = 2914837740573616421L;
+    
+    /* Marks an empty slot. No fingerprint is ever 0 (see fingerprint()). */
+    private static final long EMPTY = 0;
+    
+    private final int limit;
+    
+    /* The hash table (at most half full) and the fingerprints in the order they were added. */
+    private transient long[] table;
+    
+    private transient long[] order;
+    
+    private transient int first, size;
+    
+    /**
+     * Create a new, empty FingerprintSet.
+     * 
+     * @param limit
+     *        The maximum number of fingerprints to store.
+     */
+    public FingerprintSet(int limit) {
+        this.limit = limit;
+        init();
+    }
+    
+    private void init() {
+        int capacity = Integer.highestOneBit(Math.max(2, limit) - 1) << 2;
+        table = new long[capacity];
+        order = new long[limit];
+        first = 0;
+        size = 0;
+    }
+    
+    /**
+     * Compute the fingerprint of a string.
+     * 
+     * @param s
+     *        The string.
+     * @return A 64 bit hash of {@code s} that is never 0.
+     */
+    public static long fingerprint(String s) {
+        // FNV-1a followed by the finalizer of MurmurHash3 to spread the bits.
+        long hash = 0xcbf29ce484222325L;
+        
+        for (int i = 0; i < s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == EMPTY ? 1 : hash;
+    }
+    
+    private int slot(long fingerprint) {
+        int mask = table.length - 1;
+        int i = (int) fingerprint & mask;
+        
+        while (table[i] != EMPTY && table[i] != fingerprint) {
+            i = (i + 1) & mask;
+        }
+        
+        return i;
+    }
+    
+    /**
+     * @param item
+     *        Some string.
+     * @return {@code true} if the fingerprint of {@code item} is contained in this set.
+     */
+    public boolean contains(String item) {
+        return table[slot(fingerprint(item))] != EMPTY;
+    }
+    
+    /**
+     * Add the fingerprint of a string to this set. If the set is full the oldest fingerprint is
+     * removed.
+     * 
+     * @param item
+     *        Some string.
+     */
+    public void add(String item) {
+        add(fingerprint(item));
+    }
+    
+    private void add(long fingerprint) {
+        int i = slot(fingerprint);
+        
+        if (table[i] != EMPTY) {
+            return;
+        }
+        
+        if (size == limit) {
+            remove(order[first]);
+            first = (first + 1) % limit;
+            size--;
+            i = slot(fingerprint);
+        }
+        
+        table[i] = fingerprint;
+        order[(first + size) % limit] = fingerprint;
+        size++;
+    }
+    
+    /* Remove a fingerprint from the table (but not from order) by shifting its successors back. */
+    private void remove(long fingerprint) {
+        int mask = table.length - 1;
+        int i = slot(fingerprint);
+        
+        if (table[i] == EMPTY) {
+            return;
+        }
+        
+        int j = i;
+        
+        while (true) {
+            j = (j + 1) & mask;
+            
+            if (table[j] == EMPTY) {
+                break;
+            }
+            
+            int home = (int) table[j] & mask;
+            
+            // Move the entry at j to i unless its home slot lies cyclically in (i, j].
+            if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                table[i] = table[j];
+                i = j;
+            }
+        }
+        
+        table[i] = EMPTY;
+    }
+    
+    /**
+     * Remove all fingerprints from this set that are not contained in another set.
+     * 
+     * @param other
+     *        The fingerprints to keep.
+     */
+    public void retainAll(FingerprintSet other) {
+        long[] kept = new long[size];
+        int count = 0;
+        
+        for (int k = 0; k < size; k++) {
+            long fingerprint = order[(first + k) % limit];
+            
+            if (other.table[other.slot(fingerprint)] != EMPTY) {
+                kept[count++] = fingerprint;
+            }
+        }
+        
+        init();
+        
+        for (int k = 0; k < count; k++) {
+            add(kept[k]);
+        }
+    }
+    
+    /** @return The number of fingerprints in this set. */
+    public int size() {
+        return size;
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        
+        for (int k = 0; k < size; k++) {
+            out.writeLong(order[(first + k) % limit]);
+        }
+    }
+    
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        init();
+        int count = in.readInt();
+        
+        for (int k = 0; k < count; k++) {
+            add(in.readLong());
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "[" + size + " fingerprints]";
+    }
+}
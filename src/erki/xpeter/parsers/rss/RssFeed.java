@@ -102,15 +102,13 @@ public class RssFeed implements Parser, Observer<TextMessage> {
                 
                 RSSChannel channel = handler.getRSSChannel();
                 LinkedList<RSSItem> items = channel.getItems();
-                LinkedList<String> knownItems = new LinkedList<String>();
+                FeedData feed = new FeedData(channel.getTitle(), url, items);
                 
-                for (RSSItem item : items) {
-                    knownItems.add(item.toString());
+                synchronized (feeds) {
+                    feeds.put(url, feed);
+                    storage.add(key, feeds);
                 }
                 
-                FeedData feed = new FeedData(channel.getTitle(), url, knownItems);
-                feeds.put(url, feed);
-                storage.add(key, feeds);
                 msg.respond(new Message("Ok, ist gespeichert."));
             } catch (MalformedURLException e) {
                 Log.error(e);
@@ -143,8 +141,12 @@ public class RssFeed implements Parser, Observer<TextMessage> {
                         + "Auswahl mehr ein!"));
             } else {
                 String oldTitle = feeds.get(matches.get(0)).getTitle();
-                feeds.get(matches.get(0)).setTitle(title);
-                storage.add(key, feeds);
+                
+                synchronized (feeds) {
+                    feeds.get(matches.get(0)).setTitle(title);
+                    storage.add(key, feeds);
+                }
+                
                 msg.respond(new Message("Ok. „" + oldTitle + "“ hat jetzt den Titel „" + title
                         + "“."));
             }
@@ -214,7 +216,9 @@ public class RssFeed implements Parser, Observer<TextMessage> {
                             + matches.get(0) + " nicht mehr angezeigt."));
                 }
                 
-                storage.add(key, feeds);
+                synchronized (feeds) {
+                    storage.add(key, feeds);
+                }
             } else {
                 
                 if (mode.equals("an") || mode.equals("on")) {
@@ -225,7 +229,9 @@ public class RssFeed implements Parser, Observer<TextMessage> {
                             + BotApi.enumerate(matches) + " nicht mehr angezeigt."));
                 }
                 
-                storage.add(key, feeds);
+                synchronized (feeds) {
+                    storage.add(key, feeds);
+                }
             }
         }
         
@@ -242,7 +248,10 @@ public class RssFeed implements Parser, Observer<TextMessage> {
                 
                 if (feed.getTitle().contains(identifier) || feed.getUrl().equals(identifier)) {
                     matches.add(feed.getTitle());
-                    feeds.remove(url);
+                    
+                    synchronized (feeds) {
+                        feeds.remove(url);
+                    }
                 }
             }
             
@@ -250,11 +259,17 @@ public class RssFeed implements Parser, Observer<TextMessage> {
                 msg.respond(new Message("Ich konnte leider keinen passenden Feed finden. :("));
             } else if (matches.size() == 1) {
                 msg.respond(new Message("Ok. Der Feed „" + matches.get(0) + "“ wurde gelöscht."));
-                storage.add(key, feeds);
+                
+                synchronized (feeds) {
+                    storage.add(key, feeds);
+                }
             } else {
                 msg.respond(new Message("Ok. Die Feeds " + BotApi.enumerate(matches)
                         + " wurden gelöscht."));
-                storage.add(key, feeds);
+                
+                synchronized (feeds) {
+                    storage.add(key, feeds);
+                }
             }
         }
     }
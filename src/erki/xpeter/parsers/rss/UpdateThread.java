@@ -1,41 +1,82 @@
 package erki.xpeter.parsers.rss;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
-import java.net.Socket;
 import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLEncoder;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 
 import org.gnu.stealthp.rsslib.RSSChannel;
 import org.gnu.stealthp.rsslib.RSSException;
 import org.gnu.stealthp.rsslib.RSSHandler;
 import org.gnu.stealthp.rsslib.RSSItem;
 import org.gnu.stealthp.rsslib.RSSParser;
+import org.xml.sax.SAXException;
 
 import erki.api.storage.Storage;
 import erki.api.util.Log;
 import erki.xpeter.Bot;
 import erki.xpeter.msg.Message;
+import erki.xpeter.util.DaemonThreadFactory;
+import erki.xpeter.util.HttpClient.Response;
 import erki.xpeter.util.Keys;
 import erki.xpeter.util.StorageKey;
 
 /**
  * This thread periodically checks if there are any new items in some feed. If there are the new
  * items are broadcast through all connections the bot has.
+ * <p>
+ * The feeds are fetched concurrently by a small pool of threads but at most
+ * {@link #REQUESTS_PER_HOST} requests are sent to the same host at once. Feeds of a busy host are
+ * postponed instead of waiting for it. The server is asked to only send a feed if it changed since
+ * the last request (using the “ETag” and “Last-Modified” headers). Every feed is polled in its own
+ * interval that shrinks if the feed had new items and grows if it had none.
  * 
  * @author Edgar Kalkowski
  */
 public class UpdateThread extends Thread {
     
+    /** The interval (in ms) of a feed that was not polled yet. */
+    public static final long DEFAULT_INTERVAL = 200000;
+    
+    /** The shortest interval (in ms) between two polls of a feed. */
+    public static final long MIN_INTERVAL = 60000;
+    
+    /** The longest interval (in ms) between two polls of a feed. */
+    public static final long MAX_INTERVAL = 3600000;
+    
+    /** The number of feeds that are fetched at the same time. */
+    public static final int THREADS = 4;
+    
+    /** The number of requests that may be sent to one host at the same time. */
+    public static final int REQUESTS_PER_HOST = 2;
+    
+    /** The time (in ms) a feed is postponed if its host is busy with other feeds. */
+    public static final long HOST_BUSY_DELAY = 2000;
+    
+    private static final int TIMEOUT = 30000;
+    
     private TreeMap<String, FeedData> feeds;
     
-    private boolean killed = false;
+    private volatile boolean killed = false;
     
     private Bot bot;
     
@@ -43,11 +84,22 @@ public class UpdateThread extends Thread {
     
     private Storage<Keys> storage;
     
+    private final ExecutorService pool = Executors.newFixedThreadPool(THREADS,
+            new DaemonThreadFactory("RssPoll"));
+    
+    private final ConcurrentHashMap<String, Semaphore> hosts = new ConcurrentHashMap<String, Semaphore>();
+    
+    /* The time each feed is due next and the feeds that are currently fetched. */
+    private final ConcurrentHashMap<String, Long> due = new ConcurrentHashMap<String, Long>();
+    
+    private final Set<String> active = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    
     /**
      * Create a new UpdateThread.
      * 
      * @param feeds
-     *        The feeds that shall be checked.
+     *        The feeds that shall be checked. Changes of this map must be synchronized on it.
      * @param bot
      *        The bot instance to whose connections new items shall be broadcast.
      * @param key
@@ -64,61 +116,199 @@ public class UpdateThread extends Thread {
         this.storage = storage;
     }
     
-    @SuppressWarnings("unchecked")
     @Override
     public void run() {
         super.run();
         
         while (!killed) {
-            Set<String> keys = feeds.keySet();
+            List<FeedData> feeds;
+            
+            synchronized (this.feeds) {
+                feeds = new ArrayList<FeedData>(this.feeds.values());
+            }
+            
+            Set<String> urls = new HashSet<String>();
             
-            for (String url : keys) {
-                RSSHandler handler = new RSSHandler();
-                FeedData feed = feeds.get(url);
+            for (FeedData feed : feeds) {
+                urls.add(feed.getUrl());
+            }
+            
+            // Forget the feeds that were removed.
+            due.keySet().retainAll(urls);
+            long now = System.currentTimeMillis();
+            long next = now + MIN_INTERVAL;
+            
+            for (final FeedData feed : feeds) {
+                Long time = due.get(feed.getUrl());
                 
-                try {
-                    RSSParser.parseXmlFile(new URL(url), handler, false);
-                    RSSChannel channel = handler.getRSSChannel();
-                    
-                    for (RSSItem item : (Iterable<RSSItem>) channel.getItems()) {
+                if (time != null && time > now) {
+                    next = Math.min(next, time);
+                } else if (active.add(feed.getUrl())) {
+                    pool.execute(new Runnable() {
                         
-                        if (!feed.isKnown(item.toString())) {
-                            feed.add(item.toString());
-                            storage.add(key, feeds);
-                            
-                            if (feed.isVerbose()) {
-                                bot.broadcast(new Message("[" + feed.getTitle() + "] "
-                                        + item.getTitle() + "\n" + item.getDescription() + " ("
-                                        + getTinyUrl(item.getLink()) + ")"));
-                            } else {
-                                bot.broadcast(new Message("[" + feed.getTitle() + "] "
-                                        + item.getTitle() + " (" + getTinyUrl(item.getLink()) + ")"));
-                            }
+                        @Override
+                        public void run() {
+                            poll(feed);
                         }
-                    }
-                    
-                    // Clean up old items.
-                    LinkedList<String> items = new LinkedList<String>();
-                    
-                    for (RSSItem item : (Iterable<RSSItem>) channel.getItems()) {
-                        items.add(item.toString());
-                    }
-                    
-                    feed.cleanup(items);
-                } catch (RSSException e) {
-                    Log.error(e);
-                } catch (MalformedURLException e) {
-                    Log.error(e);
+                    });
                 }
             }
             
             try {
-                Thread.sleep(200000);
+                Thread.sleep(Math.max(1000, next - now));
             } catch (InterruptedException e) {
             }
         }
     }
     
+    private void poll(FeedData feed) {
+        boolean changed = false;
+        
+        try {
+            URL url = new URL(feed.getUrl());
+            Semaphore host = hosts.get(url.getHost());
+            
+            if (host == null) {
+                hosts.putIfAbsent(url.getHost(), new Semaphore(REQUESTS_PER_HOST));
+                host = hosts.get(url.getHost());
+            }
+            
+            /*
+             * Don’t block a thread of the pool while other feeds of this host are fetched. The
+             * feed is simply due again a little later so feeds of other hosts can go first.
+             */
+            if (!host.tryAcquire()) {
+                Log.debug("Postponing " + feed.getTitle() + " as its host is busy.");
+                due.put(feed.getUrl(), System.currentTimeMillis() + HOST_BUSY_DELAY);
+                return;
+            }
+            
+            try {
+                changed = fetch(feed, url);
+            } finally {
+                host.release();
+            }
+            
+        } catch (MalformedURLException e) {
+            Log.error(e);
+        } finally {
+            active.remove(feed.getUrl());
+        }
+        
+        long interval = feed.getInterval(DEFAULT_INTERVAL);
+        
+        if (changed) {
+            interval = Math.max(MIN_INTERVAL, interval / 2);
+        } else {
+            interval = Math.min(MAX_INTERVAL, interval * 3 / 2);
+        }
+        
+        feed.setInterval(interval);
+        due.put(feed.getUrl(), System.currentTimeMillis() + interval);
+        Log.debug("Polling " + feed.getTitle() + " again in " + interval / 1000 + " s.");
+    }
+    
+    /* Fetch a feed and report its new items. Returns true if there were new items. */
+    private boolean fetch(FeedData feed, URL url) {
+        RSSHandler handler = new RSSHandler();
+        
+        try {
+            URLConnection connection = url.openConnection();
+            
+            if (!(connection instanceof HttpURLConnection)) {
+                RSSParser.parseXmlFile(url, handler, false);
+                return update(feed, handler.getRSSChannel(), null, null);
+            }
+            
+            HttpURLConnection http = (HttpURLConnection) connection;
+            http.setConnectTimeout(TIMEOUT);
+            http.setReadTimeout(TIMEOUT);
+            
+            if (feed.getETag() != null) {
+                http.setRequestProperty("If-None-Match", feed.getETag());
+            }
+            
+            if (feed.getLastModified() != null) {
+                http.setRequestProperty("If-Modified-Since", feed.getLastModified());
+            }
+            
+            int code = http.getResponseCode();
+            
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                Log.debug("The feed " + feed.getTitle() + " did not change.");
+                http.disconnect();
+                return false;
+            } else if (code != HttpURLConnection.HTTP_OK) {
+                Log.warning("The server of the feed " + feed.getTitle() + " answered with "
+                        + code + ".");
+                http.disconnect();
+                return false;
+            }
+            
+            try (InputStream in = http.getInputStream()) {
+                SAXParserFactory.newInstance().newSAXParser().parse(in, handler);
+            }
+            
+            return update(feed, handler.getRSSChannel(), http.getHeaderField("ETag"),
+                    http.getHeaderField("Last-Modified"));
+        } catch (RSSException e) {
+            Log.error(e);
+        } catch (IOException e) {
+            Log.error(e);
+        } catch (SAXException e) {
+            Log.error(e);
+        } catch (ParserConfigurationException e) {
+            Log.error(e);
+        }
+        
+        return false;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private boolean update(FeedData feed, RSSChannel channel, String eTag, String lastModified) {
+        LinkedList<RSSItem> news = new LinkedList<RSSItem>();
+        
+        synchronized (feeds) {
+            
+            if (feeds.get(feed.getUrl()) != feed) {
+                // The feed was deleted in the meantime.
+                return false;
+            }
+            
+            LinkedList<RSSItem> items = channel.getItems();
+            
+            for (RSSItem item : items) {
+                
+                if (!feed.isKnown(item)) {
+                    feed.add(item);
+                    news.add(item);
+                }
+            }
+            
+            // Clean up old items.
+            feed.cleanup(items);
+            
+            if (!news.isEmpty() || !Objects.equals(eTag, feed.getETag())
+                    || !Objects.equals(lastModified, feed.getLastModified())) {
+                feed.setValidators(eTag, lastModified);
+                storage.add(key, feeds);
+            }
+        }
+        
+        for (RSSItem item : news) {
+            
+            if (feed.isVerbose()) {
+                bot.broadcast(new Message("[" + feed.getTitle() + "] " + item.getTitle() + "\n"
+                        + item.getDescription() + " (" + getTinyUrl(item.getLink()) + ")"));
+            } else {
+                bot.broadcast(new Message("[" + feed.getTitle() + "] " + item.getTitle() + " ("
+                        + getTinyUrl(item.getLink()) + ")"));
+            }
+        }
+        
+        return !news.isEmpty();
+    }
+    
     /**
      * Tries to make urls tiny using tinyurl.com.
      * 
@@ -126,36 +316,20 @@ public class UpdateThread extends Thread {
      *        The long ugly url.
      * @return A tiny url or the long url if something about tinyurl.com failed.
      */
-    private static String getTinyUrl(String url) {
+    private String getTinyUrl(String url) {
         
         try {
-            Socket socket = new Socket("tinyurl.com", 80);
-            socket.setSoTimeout(5000);
-            OutputStreamWriter socketOut = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
-            BufferedReader socketIn = new BufferedReader(new InputStreamReader(
-                    socket.getInputStream(), "UTF-8"));
-            socketOut.write("GET api-create.php?url=" + url + " HTTP/1.0\r\n");
-            socketOut.write("Host: tinyurl.com\r\n\r\n");
-            socketOut.flush();
-            String line;
-            boolean header = true;
-            
-            while ((line = socketIn.readLine()) != null) {
-                Log.finestDebug("Received line from server: " + line);
-                
-                if (header) {
-                    
-                    if (line.equals("")) {
-                        header = false;
-                    }
-                    
-                    continue;
-                } else {
-                    return line;
-                }
+            Response response = bot.getHttpClient().get(
+                    "http://tinyurl.com/api-create.php?url=" + URLEncoder.encode(url, "UTF-8"));
+            String tiny = response.getBody().trim();
+            
+            if (response.isOk() && !tiny.isEmpty()) {
+                return tiny;
+            } else {
+                Log.debug("tinyurl.com answered with status " + response.getStatus() + ".");
+                return url;
             }
             
-            return url;
         } catch (UnknownHostException e) {
             Log.error(e);
             return url;
@@ -169,5 +343,6 @@ public class UpdateThread extends Thread {
     public void kill() {
         killed = true;
         interrupt();
+        pool.shutdownNow();
     }
 }
@@ -0,0 +1,207 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.parsers.statistics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Ranks users by some score. The ranking is updated whenever the score of a user changes, so the
+ * best users can be read without looking at all other users and without holding the lock of the
+ * users while the ranking is read.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class Leaderboard {
+    
+    private final ConcurrentSkipListSet<Entry> ranking = new ConcurrentSkipListSet<Entry>();
+    
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    
+    /**
+     * Set the score of a user. Updates of the same user must not happen concurrently.
+     * 
+     * @param name
+     *        The name of the user.
+     * @param score
+     *        The new score of the user.
+     */
+    public void update(String name, double score) {
+        Entry old = entries.get(name);
+        
+        if (old != null && old.score == score) {
+            return;
+        }
+        
+        // Readers skip the entry that is no longer in entries, so the user is never missing.
+        Entry entry = new Entry(name, score);
+        ranking.add(entry);
+        entries.put(name, entry);
+        
+        if (old != null) {
+            ranking.remove(old);
+        }
+    }
+    
+    /**
+     * Remove a user from this leaderboard.
+     * 
+     * @param name
+     *        The name of the user.
+     */
+    public void remove(String name) {
+        Entry old = entries.remove(name);
+        
+        if (old != null) {
+            ranking.remove(old);
+        }
+    }
+    
+    /**
+     * @param name
+     *        The name of some user.
+     * @return {@code true} if the user is ranked by this leaderboard.
+     */
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+    
+    /**
+     * Read the best users.
+     * 
+     * @param count
+     *        The number of ranks to read. Users with the same score share one rank.
+     * @return The best {@code count} ranks (or less if there are not enough users), best first.
+     */
+    public List<Rank> top(int count) {
+        ArrayList<Rank> result = new ArrayList<Rank>();
+        Rank rank = null;
+        
+        for (Entry entry : ranking) {
+            
+            if (entries.get(entry.name) != entry) {
+                continue;
+            }
+            
+            if (rank == null || rank.score != entry.score) {
+                
+                if (result.size() == count) {
+                    break;
+                }
+                
+                rank = new Rank(entry.score);
+                result.add(rank);
+            }
+            
+            rank.names.add(entry.name);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Combine the best ranks of two leaderboards.
+     * 
+     * @param first
+     *        Some ranks as returned by {@link #top(int)}.
+     * @param second
+     *        Some other ranks as returned by {@link #top(int)}.
+     * @param count
+     *        The number of ranks to return.
+     * @return The best {@code count} ranks of both lists, best first.
+     */
+    public static List<Rank> merge(List<Rank> first, List<Rank> second, int count) {
+        ArrayList<Rank> result = new ArrayList<Rank>();
+        int i = 0, j = 0;
+        
+        while (result.size() < count && (i < first.size() || j < second.size())) {
+            
+            if (j == second.size()
+                    || (i < first.size() && first.get(i).score > second.get(j).score)) {
+                result.add(first.get(i++));
+            } else if (i == first.size() || second.get(j).score > first.get(i).score) {
+                result.add(second.get(j++));
+            } else {
+                Rank rank = new Rank(first.get(i).score);
+                rank.names.addAll(first.get(i++).names);
+                rank.names.addAll(second.get(j++).names);
+                Collections.sort(rank.names);
+                result.add(rank);
+            }
+        }
+        
+        return result;
+    }
+    
+    /** All users that share the same score. */
+    public static class Rank {
+        
+        private final double score;
+        
+        private final ArrayList<String> names = new ArrayList<String>();
+        
+        private Rank(double score) {
+            this.score = score;
+        }
+        
+        /**
+         * Create a copy of this rank with a different score.
+         * 
+         * @param offset
+         *        The value that is added to the score.
+         * @return A new rank with the same users.
+         */
+        public Rank shift(double offset) {
+            Rank rank = new Rank(score + offset);
+            rank.names.addAll(names);
+            return rank;
+        }
+        
+        /** @return The score of the users of this rank. */
+        public double getScore() {
+            return score;
+        }
+        
+        /** @return The names of the users of this rank in alphabetical order. */
+        public List<String> getNames() {
+            return Collections.unmodifiableList(names);
+        }
+    }
+    
+    private static class Entry implements Comparable<Entry> {
+        
+        private final String name;
+        
+        private final double score;
+        
+        private Entry(String name, double score) {
+            this.name = name;
+            this.score = score;
+        }
+        
+        /* Higher scores first, then by name. */
+        @Override
+        public int compareTo(Entry o) {
+            int result = Double.compare(o.score, score);
+            return result == 0 ? name.compareTo(o.name) : result;
+        }
+    }
+}
@@ -45,6 +45,27 @@ public class Session implements Serializable, Cloneable {
         start = new Date();
     }
     
+    /**
+     * Create a closed {@code Session} from values that were stored elsewhere (see
+     * {@link SessionArchive}).
+     * 
+     * @param start
+     *        The time this session was started.
+     * @param end
+     *        The time this session was closed.
+     * @param lineCount
+     *        The number of lines said during this session.
+     * @param wordCount
+     *        The number of words said during this session.
+     */
+    Session(long start, long end, int lineCount, int wordCount) {
+        this.start = new Date(start);
+        this.end = new Date(end);
+        this.lineCount = lineCount;
+        this.wordCount = wordCount;
+        this.closed = true;
+    }
+    
     /**
      * Add a line of text the user this session belongs to has said. The method increases
      * {@link #getLineCount()} by one and increases {@link #getWordCount()} according to {@code
@@ -0,0 +1,215 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.parsers.statistics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Keeps the closed {@link Session}s of all users on disk so {@link User} objects only need to hold
+ * their current session and some running totals. The sessions are stored in columns of primitive
+ * values (one memory mapped file for each of user, start, end, lines and words) that are appended
+ * to whenever a session is closed. The names of the users are stored once in an additional text
+ * file and referenced by their line number.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class SessionArchive {
+    
+    private static final int INITIAL_CAPACITY = 1024;
+    
+    /* The user column starts with the number of stored sessions. */
+    private static final int HEADER = 4;
+    
+    private final Column users, starts, ends, lines, words;
+    
+    private final ArrayList<String> names = new ArrayList<String>();
+    
+    private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+    
+    private final Writer namesOut;
+    
+    private int size, capacity;
+    
+    /**
+     * Open a SessionArchive. The archive consists of several files that all start with the given
+     * prefix. If they do not exist they are created.
+     * 
+     * @param prefix
+     *        The common prefix of the files of this archive.
+     * @throws IOException
+     *         If some file could not be opened.
+     */
+    public SessionArchive(String prefix) throws IOException {
+        File namesFile = new File(prefix + ".names");
+        
+        if (namesFile.exists()) {
+            
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(
+                    namesFile), "UTF-8"))) {
+                String name;
+                
+                while ((name = in.readLine()) != null) {
+                    ids.put(name, names.size());
+                    names.add(name);
+                }
+            }
+        }
+        
+        namesOut = new OutputStreamWriter(new FileOutputStream(namesFile, true), "UTF-8");
+        users = new Column(prefix + ".users", 4, HEADER);
+        starts = new Column(prefix + ".starts", 8, 0);
+        ends = new Column(prefix + ".ends", 8, 0);
+        lines = new Column(prefix + ".lines", 4, 0);
+        words = new Column(prefix + ".words", 4, 0);
+        size = users.buffer.getInt(0);
+        capacity = Math.max(INITIAL_CAPACITY, size);
+        map();
+    }
+    
+    private void map() throws IOException {
+        users.map(capacity);
+        starts.map(capacity);
+        ends.map(capacity);
+        lines.map(capacity);
+        words.map(capacity);
+    }
+    
+    /**
+     * Store a closed session of some user.
+     * 
+     * @param user
+     *        The name of the user the session belongs to.
+     * @param session
+     *        The closed session.
+     * @throws IOException
+     *         If the archive could not be enlarged.
+     */
+    public synchronized void append(String user, Session session) throws IOException {
+        Integer id = ids.get(user);
+        
+        if (id == null) {
+            id = names.size();
+            namesOut.write(user + "\n");
+            namesOut.flush();
+            ids.put(user, id);
+            names.add(user);
+        }
+        
+        if (size == capacity) {
+            capacity *= 2;
+            map();
+        }
+        
+        users.buffer.putInt(HEADER + 4 * size, id);
+        starts.buffer.putLong(8 * size, session.getStart().getTime());
+        ends.buffer.putLong(8 * size, session.getEnd().getTime());
+        lines.buffer.putInt(4 * size, session.getLineCount());
+        words.buffer.putInt(4 * size, session.getWordCount());
+        
+        // The session only counts once all columns are written.
+        size++;
+        users.buffer.putInt(0, size);
+    }
+    
+    /** @return The number of sessions stored in this archive. */
+    public synchronized int size() {
+        return size;
+    }
+    
+    /**
+     * Read all archived sessions of a user. This scans the user column of the whole archive and
+     * should therefore only be used for rare queries.
+     * 
+     * @param user
+     *        The name of the user.
+     * @return The sessions of {@code user} in the order they were closed.
+     */
+    public synchronized List<Session> getSessions(String user) {
+        LinkedList<Session> result = new LinkedList<Session>();
+        Integer id = ids.get(user);
+        
+        if (id == null) {
+            return result;
+        }
+        
+        for (int i = 0; i < size; i++) {
+            
+            if (users.buffer.getInt(HEADER + 4 * i) == id) {
+                result.add(new Session(starts.buffer.getLong(8 * i), ends.buffer.getLong(8 * i),
+                        lines.buffer.getInt(4 * i), words.buffer.getInt(4 * i)));
+            }
+        }
+        
+        return result;
+    }
+    
+    /** Write all changes to disk and close the files of this archive. */
+    public synchronized void close() {
+        
+        for (Column column : new Column[] { users, starts, ends, lines, words }) {
+            column.buffer.force();
+            
+            try {
+                column.file.close();
+            } catch (IOException e) {
+                // Closing only fails if the file is already closed.
+            }
+        }
+        
+        try {
+            namesOut.close();
+        } catch (IOException e) {
+            // See above.
+        }
+    }
+    
+    private static class Column {
+        
+        private final RandomAccessFile file;
+        
+        private final int width, header;
+        
+        private MappedByteBuffer buffer;
+        
+        private Column(String filename, int width, int header) throws IOException {
+            this.file = new RandomAccessFile(filename, "rw");
+            this.width = width;
+            this.header = header;
+            map(0);
+        }
+        
+        private void map(int capacity) throws IOException {
+            long length = Math.max(file.length(), header + (long) width * capacity);
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+    }
+}
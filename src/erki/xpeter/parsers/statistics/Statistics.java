@@ -17,10 +17,16 @@
 
 package erki.xpeter.parsers.statistics;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Locale;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import erki.api.storage.Storage;
 import erki.api.util.Log;
@@ -44,12 +50,20 @@ import erki.xpeter.parsers.statistics.actions.UserQuotient;
 import erki.xpeter.parsers.statistics.actions.UserUptime;
 import erki.xpeter.parsers.statistics.actions.UserWords;
 import erki.xpeter.parsers.statistics.actions.Who;
+import erki.xpeter.util.DaemonThreadFactory;
 import erki.xpeter.util.Keys;
 import erki.xpeter.util.StorageKey;
 
 /**
  * This parser gathers statistical information about the participants of the chats the bot has
  * joined and provides a way for the users to query them.
+ * <p>
+ * The statistics are not saved on every line somebody says. Instead the users that changed are
+ * remembered and copied to the storage every {@link #FLUSH_INTERVAL} seconds, when the parser is
+ * unloaded and when the bot shuts down. Saving copies and serializes all users, so it runs on a
+ * thread of this parser instead of the shared scheduler of the bot. Closed sessions are moved from
+ * the users to a {@link SessionArchive}. For the top lists the users are kept in
+ * {@link Leaderboard}s that are updated whenever a user changes.
  * 
  * @author Edgar Kalkowski <eMail@edgar-kalkowski.de>
  */
@@ -60,8 +74,28 @@ public class Statistics extends SuperParser implements Observer<TextMessage> {
     
     private Storage<Keys> storage;
     
+    /** The number of seconds between two saves of the statistics. */
+    public static final int FLUSH_INTERVAL = 60;
+    
+    /** The common prefix of the files of the session archive (next to the storage file). */
+    public static final String ARCHIVE_PREFIX = ".statistics";
+    
     private TreeMap<String, User> users;
     
+    private SessionArchive archive;
+    
+    private Leaderboard words, lines, quotients, offlineUptime, onlineUptime;
+    
+    /*
+     * The copies of the users as they were last saved (with closed sessions) and the names of the
+     * users that changed since then. Both are guarded by the lock of users.
+     */
+    private TreeMap<String, User> saved;
+    
+    private TreeSet<String> dirty;
+    
+    private ScheduledExecutorService flusher;
+    
     private Observer<UserJoinedMessage> userJoinedObserver;
     
     private Observer<UserLeftMessage> userLeftObserver;
@@ -78,13 +112,45 @@ public class Statistics extends SuperParser implements Observer<TextMessage> {
             this.users = new TreeMap<String, User>();
         }
         
+        this.saved = new TreeMap<String, User>();
+        this.dirty = new TreeSet<String>(this.users.keySet());
+        
+        try {
+            File directory = bot.getStorageFile().getAbsoluteFile().getParentFile();
+            this.archive = new SessionArchive(new File(directory, ARCHIVE_PREFIX).getPath());
+            
+            synchronized (this.users) {
+                
+                for (User user : this.users.values()) {
+                    archive(user);
+                }
+            }
+            
+        } catch (IOException e) {
+            Log.error(e);
+            Log.warning("The session archive could not be opened. Closed sessions will be lost.");
+        }
+        
+        this.words = new Leaderboard();
+        this.lines = new Leaderboard();
+        this.quotients = new Leaderboard();
+        this.offlineUptime = new Leaderboard();
+        this.onlineUptime = new Leaderboard();
+        
+        synchronized (this.users) {
+            
+            for (User user : this.users.values()) {
+                rank(user);
+            }
+        }
+        
         this.actions.add(new History(this.users));
         this.actions.add(new LastSaid(this.users));
         this.actions.add(new LastSeen(this.users));
-        this.actions.add(new TopLines(this.users));
-        this.actions.add(new TopQuotient(this.users));
-        this.actions.add(new TopUptime(this.users));
-        this.actions.add(new TopWords(this.users));
+        this.actions.add(new TopLines(this.lines));
+        this.actions.add(new TopQuotient(this.quotients));
+        this.actions.add(new TopUptime(this.offlineUptime, this.onlineUptime));
+        this.actions.add(new TopWords(this.words));
         this.actions.add(new UserLines(this.users));
         this.actions.add(new UserQuotient(this.users));
         this.actions.add(new UserUptime(this.users));
@@ -105,6 +171,17 @@ public class Statistics extends SuperParser implements Observer<TextMessage> {
         // Secondly add some parsers that are not exposed to the user.
         bot.register(TextMessage.class, this);
         
+        // Save the changed users from time to time (destroy() saves them when the bot exits).
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(
+                "Statistics"));
+        this.flusher.scheduleWithFixedDelay(new Runnable() {
+            
+            @Override
+            public void run() {
+                flush();
+            }
+        }, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.SECONDS);
+        
         // Start a new session for a joining user.
         this.userJoinedObserver = new Observer<UserJoinedMessage>() {
             
@@ -122,6 +199,9 @@ public class Statistics extends SuperParser implements Observer<TextMessage> {
                     } else {
                         Statistics.this.users.put(message.getNick(), new User(message.getNick()));
                     }
+                    
+                    rank(Statistics.this.users.get(message.getNick()));
+                    Statistics.this.dirty.add(message.getNick());
                 }
                 
                 Log.debug("Started statistics session for " + message.getNick() + ".");
@@ -144,6 +224,9 @@ public class Statistics extends SuperParser implements Observer<TextMessage> {
                     
                     if (Statistics.this.users.keySet().contains(message.getNick())) {
                         Statistics.this.users.get(message.getNick()).closeSession();
+                        archive(Statistics.this.users.get(message.getNick()));
+                        rank(Statistics.this.users.get(message.getNick()));
+                        Statistics.this.dirty.add(message.getNick());
                         Log.debug("Closed statistics session for " + message.getNick() + ".");
                     } else {
                         Log.warning("User " + message.getNick()
@@ -165,6 +248,9 @@ public class Statistics extends SuperParser implements Observer<TextMessage> {
                     
                     if (Statistics.this.users.keySet().contains(message.getOldNick())) {
                         Statistics.this.users.get(message.getOldNick()).closeSession();
+                        archive(Statistics.this.users.get(message.getOldNick()));
+                        rank(Statistics.this.users.get(message.getOldNick()));
+                        Statistics.this.dirty.add(message.getOldNick());
                         Log.debug("Closed statistics session for " + message.getOldNick() + ".");
                     } else {
                         Log.warning("User " + message.getOldNick() + " is now known as "
@@ -176,6 +262,9 @@ public class Statistics extends SuperParser implements Observer<TextMessage> {
                     } else {
                         Statistics.this.users.put(message.getNewNick(), new User(message.getNewNick()));
                     }
+                    
+                    rank(Statistics.this.users.get(message.getNewNick()));
+                    Statistics.this.dirty.add(message.getNewNick());
                 }
                 
                 Log.debug("Started new statistics session for " + message.getNewNick() + ".");
@@ -192,6 +281,12 @@ public class Statistics extends SuperParser implements Observer<TextMessage> {
         bot.deregister(UserJoinedMessage.class, this.userJoinedObserver);
         bot.deregister(UserLeftMessage.class, this.userLeftObserver);
         bot.deregister(NickChangeMessage.class, this.nickChangeObserver);
+        this.flusher.shutdown();
+        flush();
+        
+        if (this.archive != null) {
+            this.archive.close();
+        }
     }
     
     @Override
@@ -210,21 +305,83 @@ public class Statistics extends SuperParser implements Observer<TextMessage> {
             
             // Count statistics for the user who said something.
             this.users.get(message.getNick()).addLine(message.getText());
+            rank(this.users.get(message.getNick()));
+            this.dirty.add(message.getNick());
+        }
+    }
+    
+    /* Update the leaderboards for a user. Must be called with the lock of users. */
+    private void rank(User user) {
+        String name = user.getName();
+        
+        if (user.getWordCount() > 0) {
+            this.words.update(name, user.getWordCount());
+        }
+        
+        if (user.getLineCount() > 0) {
+            this.lines.update(name, user.getLineCount());
+            this.quotients.update(name, user.getWordCount() / (double) user.getLineCount());
+        }
+        
+        if (user.getLastOnline() == null) {
             
-            TreeMap<String, User> users = new TreeMap<String, User>();
+            // The uptime of online users grows with the current time so rank by the difference.
+            if (!this.onlineUptime.contains(name)) {
+                this.offlineUptime.remove(name);
+                this.onlineUptime.update(name, user.getUptime() - System.currentTimeMillis());
+            }
             
-            synchronized (this.users) {
-                
-                // Close the sessions of all users before saving.
-                for (String user : this.users.keySet()) {
-                    User clone = (User) this.users.get(user).clone();
-                    clone.closeSession();
-                    users.put(user, clone);
-                }
+        } else {
+            this.onlineUptime.remove(name);
+            this.offlineUptime.update(name, user.getUptime());
+        }
+    }
+    
+    /* Move the closed sessions of a user to the archive. Must be called with the lock of users. */
+    private void archive(User user) {
+        
+        if (this.archive == null) {
+            return;
+        }
+        
+        for (Session session : user.takeClosedSessions()) {
+            
+            try {
+                this.archive.append(user.getName(), session);
+            } catch (IOException e) {
+                Log.error(e);
+                Log.warning("A session of " + user.getName() + " could not be archived.");
+            }
+        }
+    }
+    
+    /**
+     * Save the users that changed since the last call of this method. Only those users are copied
+     * (with their sessions closed), all others are saved as they were copied before.
+     */
+    private synchronized void flush() {
+        TreeMap<String, User> users;
+        
+        synchronized (this.users) {
+            
+            if (this.dirty.isEmpty()) {
+                return;
             }
             
-            this.storage.add(storageKey, users);
+            for (String name : this.dirty) {
+                User clone = (User) this.users.get(name).clone();
+                clone.closeSession();
+                this.saved.put(name, clone);
+            }
+            
+            Log.debug("Saving the statistics of " + this.dirty.size() + " changed users.");
+            this.dirty.clear();
+            
+            // The storage keeps the map so it must not be changed by later flushes.
+            users = new TreeMap<String, User>(this.saved);
         }
+        
+        this.storage.add(storageKey, users);
     }
     
     /**
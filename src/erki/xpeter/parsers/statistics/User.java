@@ -17,13 +17,18 @@
 
 package erki.xpeter.parsers.statistics;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Date;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.TreeMap;
 
 /**
- * A user for who statistical information is gathered.
+ * A user for who statistical information is gathered. Only the current (or last) {@link Session}
+ * of a user is kept together with running totals over all sessions. Closed sessions are handed to
+ * a {@link SessionArchive} via {@link #takeClosedSessions()}.
  * 
  * @author Edgar Kalkowski
  */
@@ -33,12 +38,22 @@ public class User implements Serializable, Cloneable, Comparable<User> {
     
     private static final int HISTORY_LIMIT = 10;
     
-    private final String name;
+    /* Not final as readObject() must set it. */
+    private String name;
     
-    private LinkedList<Session> sessions = new LinkedList<Session>();
+    private Session session;
+    
+    /* The totals over all sessions (uptime only over the closed ones). */
+    private long lineCount, wordCount, uptime;
+    
+    /* Whether the closed session has already been returned by takeClosedSessions(). */
+    private boolean archived;
     
     private TreeMap<Long, String> history = new TreeMap<Long, String>();
     
+    /* The closed sessions of a user that was stored by an older version of this class. */
+    private transient LinkedList<Session> oldSessions;
+    
     /**
      * Create a new {@code User}. Automatically creates and starts a first {@link Session} for this
      * user as a new user is only created if that user is online.
@@ -48,16 +63,7 @@ public class User implements Serializable, Cloneable, Comparable<User> {
      */
     public User(String name) {
         this.name = name;
-        sessions.add(new Session());
-    }
-    
-    private Session getSession() {
-        
-        if (sessions.getLast().isClosed()) {
-            sessions.addLast(new Session());
-        }
-        
-        return sessions.getLast();
+        this.session = new Session();
     }
     
     /** @return The nickname of this user. */
@@ -72,7 +78,15 @@ public class User implements Serializable, Cloneable, Comparable<User> {
      *        The line of text this user recently said.
      */
     public void addLine(String line) {
-        getSession().addLine(line);
+        
+        if (session.isClosed()) {
+            startSession();
+        }
+        
+        int words = session.getWordCount();
+        session.addLine(line);
+        lineCount++;
+        wordCount += session.getWordCount() - words;
         
         synchronized (history) {
             
@@ -100,23 +114,11 @@ public class User implements Serializable, Cloneable, Comparable<User> {
     
     /** @return The number of words this user said during all recorded sessions. */
     public long getWordCount() {
-        long wordCount = 0;
-        
-        for (Session session : sessions) {
-            wordCount += session.getWordCount();
-        }
-        
         return wordCount;
     }
     
     /** @return The number of lines this user said during all recorded sessinos. */
     public long getLineCount() {
-        long lineCount = 0;
-        
-        for (Session session : sessions) {
-            lineCount += session.getLineCount();
-        }
-        
         return lineCount;
     }
     
@@ -125,41 +127,60 @@ public class User implements Serializable, Cloneable, Comparable<User> {
      *         online.
      */
     public Date getLastOnline() {
-        return sessions.getLast().getEnd();
+        return session.getEnd();
     }
     
     /** @return The time this user has already been recorded online in ms. */
     public long getUptime() {
-        long uptime = 0;
         
-        for (Session session : sessions) {
-            
-            if (session.getEnd() == null) {
-                uptime += new Date().getTime() - session.getStart().getTime();
-            } else {
-                uptime += session.getEnd().getTime() - session.getStart().getTime();
-            }
+        if (session.isClosed()) {
+            return uptime;
+        } else {
+            return uptime + new Date().getTime() - session.getStart().getTime();
         }
-        
-        return uptime;
     }
     
     /** Starts a new session for this user if no session is already active. */
     public void startSession() {
         
-        if (sessions.getLast().isClosed()) {
-            sessions.add(new Session());
+        if (session.isClosed()) {
+            session = new Session();
+            archived = false;
         }
     }
     
     /** Closes the current session of this user if one is active. */
     public void closeSession() {
         
-        if (!sessions.getLast().isClosed()) {
-            sessions.getLast().close();
+        if (!session.isClosed()) {
+            session.close();
+            uptime += session.getEnd().getTime() - session.getStart().getTime();
         }
     }
     
+    /**
+     * Get the closed sessions of this user that were not yet returned by this method. These are the
+     * last session if it is closed and (once) all sessions of a user that was stored by an older
+     * version of the bot.
+     * 
+     * @return The closed sessions to archive.
+     */
+    public List<Session> takeClosedSessions() {
+        LinkedList<Session> result = new LinkedList<Session>();
+        
+        if (oldSessions != null) {
+            result.addAll(oldSessions);
+            oldSessions = null;
+        }
+        
+        if (session.isClosed() && !archived) {
+            result.add((Session) session.clone());
+            archived = true;
+        }
+        
+        return result;
+    }
+    
     @Override
     public int compareTo(User o) {
         return name.compareTo(o.name);
@@ -194,12 +215,8 @@ public class User implements Serializable, Cloneable, Comparable<User> {
         
         try {
             clone = (User) super.clone();
-            clone.sessions = new LinkedList<Session>();
-            
-            for (Session s : sessions) {
-                clone.sessions.add((Session) s.clone());
-            }
-            
+            clone.session = (Session) session.clone();
+            clone.oldSessions = null;
             clone.history = (TreeMap<Long, String>) history.clone();
             
         } catch (CloneNotSupportedException e) {
@@ -210,4 +227,37 @@ public class User implements Serializable, Cloneable, Comparable<User> {
         
         return clone;
     }
+    
+    /* Users stored before the running totals existed contain the list of all their sessions. */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        name = (String) fields.get("name", null);
+        history = (TreeMap<Long, String>) fields.get("history", null);
+        
+        if (fields.getObjectStreamClass().getField("sessions") == null) {
+            session = (Session) fields.get("session", null);
+            lineCount = fields.get("lineCount", 0L);
+            wordCount = fields.get("wordCount", 0L);
+            uptime = fields.get("uptime", 0L);
+            archived = fields.get("archived", false);
+        } else {
+            LinkedList<Session> sessions = (LinkedList<Session>) fields.get("sessions", null);
+            oldSessions = new LinkedList<Session>();
+            
+            for (Session s : sessions) {
+                lineCount += s.getLineCount();
+                wordCount += s.getWordCount();
+                
+                if (s.isClosed()) {
+                    uptime += s.getEnd().getTime() - s.getStart().getTime();
+                    oldSessions.add(s);
+                }
+            }
+            
+            // A closed last session is already contained in oldSessions.
+            session = sessions.getLast();
+            archived = session.isClosed();
+        }
+    }
 }
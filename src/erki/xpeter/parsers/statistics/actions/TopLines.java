@@ -1,12 +1,12 @@
 package erki.xpeter.parsers.statistics.actions;
 
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.List;
 
 import erki.xpeter.msg.Message;
 import erki.xpeter.msg.TextMessage;
 import erki.xpeter.parsers.Action;
-import erki.xpeter.parsers.statistics.User;
+import erki.xpeter.parsers.statistics.Leaderboard;
+import erki.xpeter.parsers.statistics.Leaderboard.Rank;
 
 /**
  * This {@link Action} echoes the top users with respect to the number of lines they wrote.
@@ -15,17 +15,17 @@ import erki.xpeter.parsers.statistics.User;
  */
 public class TopLines extends Action<TextMessage> {
     
-    private TreeMap<String, User> users;
+    private Leaderboard lines;
     
     /**
      * Create a new TopLines.
      * 
-     * @param users
-     *        The users this bot has gathered statistical information about.
+     * @param lines
+     *        The users ranked by the number of lines they wrote.
      */
-    public TopLines(TreeMap<String, User> users) {
+    public TopLines(Leaderboard lines) {
         super(TextMessage.class, true);
-        this.users = users;
+        this.lines = lines;
     }
     
     @Override
@@ -44,57 +44,36 @@ public class TopLines extends Action<TextMessage> {
         
         try {
             count = Integer.parseInt(args[0]);
-            TreeMap<Long, TreeSet<User>> users = new TreeMap<Long, TreeSet<User>>();
-            
-            synchronized (this.users) {
-                
-                for (String user : this.users.keySet()) {
-                    
-                    if (this.users.get(user).getLineCount() > 0) {
-                        
-                        if (users.containsKey(this.users.get(user).getLineCount())) {
-                            users.get(this.users.get(user).getLineCount())
-                                    .add(this.users.get(user));
-                        } else {
-                            TreeSet<User> list = new TreeSet<User>();
-                            list.add(this.users.get(user));
-                            users.put(this.users.get(user).getLineCount(), list);
-                        }
-                    }
-                }
-            }
-            
-            int size = users.size();
+            List<Rank> ranks = this.lines.top(count);
             String result = "";
             
-            for (int i = 0; i < count && !users.isEmpty(); i++) {
-                User[] list = users.get(users.lastKey()).toArray(new User[0]);
+            for (int i = 0; i < ranks.size(); i++) {
+                List<String> list = ranks.get(i).getNames();
                 String number = "", line = "";
                 
-                if ((i + 1) < 10 && count > 9 && size > 9) {
+                if ((i + 1) < 10 && count > 9 && ranks.size() > 9) {
                     number += "0" + (i + 1);
                 } else {
                     number += (i + 1);
                 }
                 
-                for (int j = 0; j < list.length; j++) {
+                for (int j = 0; j < list.size(); j++) {
                     
-                    if (j < list.length - 2) {
-                        line += list[j].getName() + ", ";
-                    } else if (j < list.length - 1) {
-                        line += list[j].getName() + " und ";
+                    if (j < list.size() - 2) {
+                        line += list.get(j) + ", ";
+                    } else if (j < list.size() - 1) {
+                        line += list.get(j) + " und ";
                     } else {
-                        line += list[j].getName();
+                        line += list.get(j);
                     }
                 }
                 
-                if (list[0].getLineCount() == 1) {
+                if (ranks.get(i).getScore() == 1) {
                     result += number + ". " + line + " mit einer Zeile.\n";
                 } else {
-                    result += number + ". " + line + " mit " + users.lastKey() + " Zeilen.\n";
+                    result += number + ". " + line + " mit " + (long) ranks.get(i).getScore()
+                            + " Zeilen.\n";
                 }
-                
-                users.remove(users.lastKey());
             }
             
             // Be failsafe here.
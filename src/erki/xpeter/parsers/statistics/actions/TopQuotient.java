@@ -1,13 +1,13 @@
 package erki.xpeter.parsers.statistics.actions;
 
 import java.text.NumberFormat;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.List;
 
 import erki.xpeter.msg.Message;
 import erki.xpeter.msg.TextMessage;
 import erki.xpeter.parsers.Action;
-import erki.xpeter.parsers.statistics.User;
+import erki.xpeter.parsers.statistics.Leaderboard;
+import erki.xpeter.parsers.statistics.Leaderboard.Rank;
 
 /**
  * This {@link Action} echoes the users who wrote the most words per line.
@@ -16,17 +16,17 @@ import erki.xpeter.parsers.statistics.User;
  */
 public class TopQuotient extends Action<TextMessage> {
     
-    private TreeMap<String, User> users;
+    private Leaderboard quotients;
     
     /**
      * Create a new TopQuotient.
      * 
-     * @param users
-     *        The users this bot has gathered statistical information about.
+     * @param quotients
+     *        The users ranked by the number of words they wrote per line.
      */
-    public TopQuotient(TreeMap<String, User> users) {
+    public TopQuotient(Leaderboard quotients) {
         super(TextMessage.class, true);
-        this.users = users;
+        this.quotients = quotients;
     }
     
     @Override
@@ -46,60 +46,35 @@ public class TopQuotient extends Action<TextMessage> {
         
         try {
             count = Integer.parseInt(args[0]);
-            TreeMap<Double, TreeSet<User>> users = new TreeMap<Double, TreeSet<User>>();
-            
-            synchronized (this.users) {
-                
-                for (String user : this.users.keySet()) {
-                    
-                    if (this.users.get(user).getLineCount() > 0) {
-                        
-                        if (users.containsKey(this.users.get(user).getWordCount()
-                                / (double) this.users.get(user).getLineCount())) {
-                            TreeSet<User> list = users.get(this.users.get(user).getWordCount()
-                                    / (double) this.users.get(user).getLineCount());
-                            list.add(this.users.get(user));
-                        } else {
-                            TreeSet<User> list = new TreeSet<User>();
-                            list.add(this.users.get(user));
-                            users.put(this.users.get(user).getWordCount()
-                                    / (double) this.users.get(user).getLineCount(), list);
-                        }
-                    }
-                }
-            }
-            
-            int size = users.size();
+            List<Rank> ranks = this.quotients.top(count);
             String result = "";
+            NumberFormat nf = NumberFormat.getNumberInstance();
+            nf.setMinimumFractionDigits(1);
+            nf.setMaximumFractionDigits(3);
             
-            for (int i = 0; i < count && !users.isEmpty(); i++) {
-                User[] list = users.get(users.lastKey()).toArray(new User[0]);
+            for (int i = 0; i < ranks.size(); i++) {
+                List<String> list = ranks.get(i).getNames();
                 String number = "", line = "";
                 
-                if ((i + 1) < 10 && count > 9 && size > 9) {
+                if ((i + 1) < 10 && count > 9 && ranks.size() > 9) {
                     number += "0" + (i + 1);
                 } else {
                     number += (i + 1);
                 }
                 
-                NumberFormat nf = NumberFormat.getNumberInstance();
-                nf.setMinimumFractionDigits(1);
-                nf.setMaximumFractionDigits(3);
-                
-                for (int j = 0; j < list.length; j++) {
+                for (int j = 0; j < list.size(); j++) {
                     
-                    if (j < list.length - 2) {
-                        line += list[j].getName() + ", ";
-                    } else if (j < list.length - 1) {
-                        line += list[j].getName() + " und ";
+                    if (j < list.size() - 2) {
+                        line += list.get(j) + ", ";
+                    } else if (j < list.size() - 1) {
+                        line += list.get(j) + " und ";
                     } else {
-                        line += list[j].getName();
+                        line += list.get(j);
                     }
                 }
                 
-                result += number + ". " + line + " mit " + nf.format(users.lastKey())
+                result += number + ". " + line + " mit " + nf.format(ranks.get(i).getScore())
                         + " Wörtern pro Zeile.\n";
-                users.remove(users.lastKey());
             }
             
             if (result.length() > 0 && result.charAt(result.length() - 1) == '\n') {
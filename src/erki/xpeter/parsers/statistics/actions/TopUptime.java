@@ -1,13 +1,14 @@
 package erki.xpeter.parsers.statistics.actions;
 
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.List;
 
 import erki.xpeter.msg.Message;
 import erki.xpeter.msg.TextMessage;
 import erki.xpeter.parsers.Action;
+import erki.xpeter.parsers.statistics.Leaderboard;
+import erki.xpeter.parsers.statistics.Leaderboard.Rank;
 import erki.xpeter.parsers.statistics.Statistics;
-import erki.xpeter.parsers.statistics.User;
 
 /**
  * This {@link Action} echoes the users with the most uptime.
@@ -16,17 +17,21 @@ import erki.xpeter.parsers.statistics.User;
  */
 public class TopUptime extends Action<TextMessage> {
     
-    private TreeMap<String, User> users;
+    private Leaderboard offline, online;
     
     /**
      * Create a new TopUptime.
      * 
-     * @param users
-     *        The users this bot has gathered statistical information about.
+     * @param offline
+     *        The users that are offline ranked by their uptime.
+     * @param online
+     *        The users that are online ranked by their uptime minus the current time (which is the
+     *        same order as their uptime).
      */
-    public TopUptime(TreeMap<String, User> users) {
+    public TopUptime(Leaderboard offline, Leaderboard online) {
         super(TextMessage.class, true);
-        this.users = users;
+        this.offline = offline;
+        this.online = online;
     }
     
     @Override
@@ -45,50 +50,39 @@ public class TopUptime extends Action<TextMessage> {
         
         try {
             count = Integer.parseInt(args[0]);
-            TreeMap<Long, TreeSet<User>> users = new TreeMap<Long, TreeSet<User>>();
+            List<Rank> online = new ArrayList<Rank>();
+            long now = System.currentTimeMillis();
             
-            synchronized (this.users) {
-                
-                for (String user : this.users.keySet()) {
-                    
-                    if (users.containsKey(this.users.get(user).getUptime())) {
-                        TreeSet<User> list = users.get(this.users.get(user).getUptime());
-                        list.add(this.users.get(user));
-                    } else {
-                        TreeSet<User> list = new TreeSet<User>();
-                        list.add(this.users.get(user));
-                        users.put(this.users.get(user).getUptime(), list);
-                    }
-                }
+            for (Rank rank : this.online.top(count)) {
+                online.add(rank.shift(now));
             }
             
-            int size = users.size();
+            List<Rank> ranks = Leaderboard.merge(this.offline.top(count), online, count);
             String result = "";
             
-            for (int i = 0; i < count && !users.isEmpty(); i++) {
-                User[] list = users.get(users.lastKey()).toArray(new User[0]);
+            for (int i = 0; i < ranks.size(); i++) {
+                List<String> list = ranks.get(i).getNames();
                 String number = "", line = "";
                 
-                if ((i + 1) < 10 && count > 9 && size > 9) {
+                if ((i + 1) < 10 && count > 9 && ranks.size() > 9) {
                     number += "0" + (i + 1);
                 } else {
                     number += (i + 1);
                 }
                 
-                for (int j = 0; j < list.length; j++) {
+                for (int j = 0; j < list.size(); j++) {
                     
-                    if (j < list.length - 2) {
-                        line += list[j].getName() + ", ";
-                    } else if (j < list.length - 1) {
-                        line += list[j].getName() + " und ";
+                    if (j < list.size() - 2) {
+                        line += list.get(j) + ", ";
+                    } else if (j < list.size() - 1) {
+                        line += list.get(j) + " und ";
                     } else {
-                        line += list[j].getName();
+                        line += list.get(j);
                     }
                 }
                 
-                result += number + ". " + line + " mit " + Statistics.formatTime(users.lastKey())
-                        + ".\n";
-                users.remove(users.lastKey());
+                result += number + ". " + line + " mit "
+                        + Statistics.formatTime((long) ranks.get(i).getScore()) + ".\n";
             }
             
             if (result.length() > 0 && result.charAt(result.length() - 1) == '\n') {
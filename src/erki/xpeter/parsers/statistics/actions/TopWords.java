@@ -1,12 +1,12 @@
 package erki.xpeter.parsers.statistics.actions;
 
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.List;
 
 import erki.xpeter.msg.Message;
 import erki.xpeter.msg.TextMessage;
 import erki.xpeter.parsers.Action;
-import erki.xpeter.parsers.statistics.User;
+import erki.xpeter.parsers.statistics.Leaderboard;
+import erki.xpeter.parsers.statistics.Leaderboard.Rank;
 
 /**
  * This {@link Action} echoes the users that wrote the most words.
@@ -15,17 +15,17 @@ import erki.xpeter.parsers.statistics.User;
  */
 public class TopWords extends Action<TextMessage> {
     
-    private TreeMap<String, User> users;
+    private Leaderboard words;
     
     /**
      * Create a new TopWords.
      * 
-     * @param users
-     *        All users the bot has statistical information about.
+     * @param words
+     *        The users ranked by the number of words they wrote.
      */
-    public TopWords(TreeMap<String, User> users) {
+    public TopWords(Leaderboard words) {
         super(TextMessage.class, true);
-        this.users = users;
+        this.words = words;
     }
     
     @Override
@@ -44,58 +44,36 @@ public class TopWords extends Action<TextMessage> {
         
         try {
             count = Integer.parseInt(args[0]);
-            TreeMap<Long, TreeSet<User>> users = new TreeMap<Long, TreeSet<User>>();
-            
-            synchronized (this.users) {
-                
-                for (String user : this.users.keySet()) {
-                    
-                    if (this.users.get(user).getWordCount() > 0) {
-                        
-                        if (users.containsKey(this.users.get(user).getWordCount())) {
-                            TreeSet<User> list = users.get(this.users.get(user).getWordCount());
-                            list.add(this.users.get(user));
-                        } else {
-                            TreeSet<User> list = new TreeSet<User>();
-                            list.add(this.users.get(user));
-                            users.put(this.users.get(user).getWordCount(), list);
-                        }
-                    }
-                }
-            }
-            
-            int size = users.size();
+            List<Rank> ranks = this.words.top(count);
             String result = "";
             
-            for (int i = 0; i < count && !users.isEmpty(); i++) {
-                User[] list = users.get(users.lastKey()).toArray(new User[0]);
+            for (int i = 0; i < ranks.size(); i++) {
+                List<String> list = ranks.get(i).getNames();
                 String number = "", line = "";
                 
-                if ((i + 1) < 10 && count > 9 && size > 9) {
+                if ((i + 1) < 10 && count > 9 && ranks.size() > 9) {
                     number += "0" + (i + 1);
                 } else {
                     number += (i + 1);
                 }
                 
-                for (int j = 0; j < list.length; j++) {
+                for (int j = 0; j < list.size(); j++) {
                     
-                    if (j < list.length - 2) {
-                        line += list[j].getName() + ", ";
-                    } else if (j < list.length - 1) {
-                        line += list[j].getName() + " und ";
+                    if (j < list.size() - 2) {
+                        line += list.get(j) + ", ";
+                    } else if (j < list.size() - 1) {
+                        line += list.get(j) + " und ";
                     } else {
-                        line += list[j].getName();
+                        line += list.get(j);
                     }
                 }
                 
-                if (list[0].getWordCount() == 1) {
+                if (ranks.get(i).getScore() == 1) {
                     result += number + ". " + line + " mit einem Wort.\n";
-                    
                 } else {
-                    result += number + ". " + line + " mit " + users.lastKey() + " Wörtern.\n";
+                    result += number + ". " + line + " mit " + (long) ranks.get(i).getScore()
+                            + " Wörtern.\n";
                 }
-                
-                users.remove(users.lastKey());
             }
             
             // Be failsafe here.
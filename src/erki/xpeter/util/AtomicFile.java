@@ -0,0 +1,78 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * A text file that is replaced as a whole so readers never see half of it. The text is written to a
+ * temporary file next to the target which then takes the place of the target.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class AtomicFile {
+    
+    private final File file;
+    
+    private final File tmp;
+    
+    /**
+     * Create a new AtomicFile.
+     * 
+     * @param file
+     *        The file that shall be replaced.
+     */
+    public AtomicFile(File file) {
+        this.file = file;
+        this.tmp = new File(file.getPath() + ".tmp");
+    }
+    
+    /**
+     * Start writing the new content. The target is not touched until {@link #commit()} is called.
+     * 
+     * @return A writer for the new content (encoded in UTF-8) that must be closed before calling
+     *         {@link #commit()}.
+     * @throws IOException
+     *         if the temporary file could not be created.
+     */
+    public PrintWriter openWriter() throws IOException {
+        return new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+    }
+    
+    /**
+     * Replace the target by the content written so far.
+     * 
+     * @throws IOException
+     *         if the target could not be replaced.
+     */
+    public void commit() throws IOException {
+        
+        // Renaming does not replace existing files on every platform.
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not replace " + file + ".");
+            }
+        }
+    }
+}
@@ -17,19 +17,12 @@
 
 package erki.xpeter.util;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.Collection;
 import java.util.Iterator;
 
-import erki.api.util.Log;
-
 /**
  * This class contains static helper methods that are convenient for many parser implementations. If
  * these methods are used consistently in all parser implementations it ensures that the bot always
@@ -39,6 +32,8 @@ import erki.api.util.Log;
  */
 public class BotApi {
     
+    private static final HttpClient httpClient = new HttpClient();
+    
     /**
      * Retrieves the raw output for a given query from a webserver.
      * 
@@ -48,35 +43,24 @@ public class BotApi {
      *        This can be a query to send to the webserver (starting with a forward slash) or the
      *        empty string if no special query shall be made.
      * @param charset
-     *        The character set used to send and receive data from the server.
-     * @return the raw output of the server.
+     *        The character set used to decode the response if the server does not name one.
+     * @return A status line like “HTTP/1.0 200 OK” followed by the body of the response with its
+     *         line breaks removed. Unlike before the headers of the response are not included.
      * @throws UnknownHostException
      *         if the hostname can not be resolved.
      * @throws IOException
-     *         if an error occurred writing to or reading from the socket.
+     *         if the server could not be reached, a timeout expired or the response was too
+     *         large.
+     * @deprecated Use the {@link HttpClient} of the bot (see
+     *             {@link erki.xpeter.BotInterface#getHttpClient()}) which tells the status apart
+     *             from the body.
      */
+    @Deprecated
     public static String getWebsite(String host, String query, String charset)
             throws UnknownHostException, IOException {
-        Socket socket = new Socket(host, 80);
-        BufferedReader socketIn = new BufferedReader(new InputStreamReader(socket.getInputStream(),
-                charset));
-        PrintWriter socketOut = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),
-                charset));
-        Log.debug("Making request “" + query + "” to " + host + ".");
-        socketOut.write("GET " + query + " HTTP/1.0\r\nHost:" + host
-                + "\r\nUser-Agent: xpeter\r\n\r\n");
-        socketOut.flush();
-        
-        String result = "", line;
-        Log.debug("Waiting for results.");
-        
-        while ((line = socketIn.readLine()) != null) {
-            result += line;
-        }
-        
-        Log.debug("Results received.");
-        socket.close();
-        return result;
+        HttpClient.Response response = httpClient.get("http://" + host + query, charset);
+        String status = "HTTP/1.0 " + response.getStatus() + (response.isOk() ? " OK" : "");
+        return status + response.getBody().replace("\r", "").replace("\n", "");
     }
     
     /**
@@ -0,0 +1,56 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates numbered daemon threads for the thread pools of the bot. Daemon threads are used so the
+ * pools never keep the bot alive on their own. The threads get the context class loader of the
+ * thread that created the factory instead of the one that happens to start them, so a pool shared
+ * by the whole bot is never mistaken for part of a parser.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+    
+    private final String name;
+    
+    private final AtomicInteger counter = new AtomicInteger();
+    
+    private final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+    
+    /**
+     * Create a new DaemonThreadFactory.
+     * 
+     * @param name
+     *        The name of the created threads. A running number is appended to it.
+     */
+    public DaemonThreadFactory(String name) {
+        this.name = name;
+    }
+    
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setContextClassLoader(loader);
+        return thread;
+    }
+}
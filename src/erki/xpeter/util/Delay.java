@@ -17,6 +17,11 @@
 
 package erki.xpeter.util;
 
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import erki.xpeter.BotInterface;
 import erki.xpeter.con.Connection;
 import erki.xpeter.msg.DelayedMessage;
 
@@ -26,13 +31,20 @@ import erki.xpeter.msg.DelayedMessage;
  * code to be executed after the delay has passed. As executing code takes time, too, it cannot be
  * guaranteed in any way that the given code will be executed at some <i>exact</i> point of time but
  * it is guaranteed that it is only executed after the delay has passed.
+ * <p>
+ * A Delay does not start a thread of its own but is run by a shared scheduler (see
+ * {@link BotInterface#getScheduler()}) so thousands of pending delays are cheap.
  * 
  * @author Edgar Kalkowski
  */
-public abstract class Delay extends Thread {
+public abstract class Delay implements Runnable {
     
     private long destTime;
     
+    private ScheduledFuture<?> future;
+    
+    private boolean cancelled = false;
+    
     /**
      * Create a new Delay that executes {@link #delayedAction()} once if {@code
      * System#currentTimeMillis() == #destTime}.
@@ -54,18 +66,41 @@ public abstract class Delay extends Thread {
         this(msg.getTimeOfCreation() + msg.getDelay());
     }
     
-    @Override
-    public void run() {
-        super.run();
+    /**
+     * Schedule this delay. {@link #delayedAction()} is executed by the given scheduler once the
+     * delay has passed. Nothing happens if this delay was already cancelled.
+     * 
+     * @param scheduler
+     *        The scheduler that shall execute this delay.
+     */
+    public synchronized void schedule(ScheduledExecutorService scheduler) {
         
-        while (destTime > System.currentTimeMillis()) {
-            
-            try {
-                Thread.sleep(destTime - System.currentTimeMillis());
-            } catch (InterruptedException e) {
-            }
+        if (!cancelled) {
+            long delay = Math.max(0, destTime - System.currentTimeMillis());
+            future = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Cancel this delay if {@link #delayedAction()} was not yet executed. A delay that is cancelled
+     * before it was scheduled will not be scheduled anymore.
+     * 
+     * @return {@code true} if the delayed action will never be executed because of this call,
+     *         {@code false} if it already was executed (or is being executed right now) or this
+     *         delay was already cancelled.
+     */
+    public synchronized boolean cancel() {
+        
+        if (cancelled) {
+            return false;
         }
         
+        cancelled = true;
+        return future == null || future.cancel(false);
+    }
+    
+    @Override
+    public void run() {
         delayedAction();
     }
     
@@ -0,0 +1,121 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.util;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+
+import erki.api.util.Observer;
+import erki.xpeter.con.Connection;
+import erki.xpeter.msg.DelayedMessage;
+import erki.xpeter.msg.Message;
+
+/**
+ * Keeps track of the {@link DelayedMessage}s a {@link Connection} waits for. Every message is
+ * scheduled as a {@link Delay} on the shared scheduler of the bot and handed to an observer (which
+ * typically puts it into the send queue of the connection) once it is due. All pending messages can
+ * be cancelled at once if the connection goes down.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class DelayedMessages {
+    
+    private final ScheduledExecutorService scheduler;
+    
+    private final Observer<Message> target;
+    
+    private final Map<Delay, DelayedMessage> pending = new ConcurrentHashMap<Delay, DelayedMessage>();
+    
+    /**
+     * Create a new DelayedMessages instance.
+     * 
+     * @param scheduler
+     *        The scheduler used to wait for the messages.
+     * @param target
+     *        The observer that is informed about each message once its delay has passed.
+     */
+    public DelayedMessages(ScheduledExecutorService scheduler, Observer<Message> target) {
+        this.scheduler = scheduler;
+        this.target = target;
+    }
+    
+    /**
+     * Wait for a message to become due and hand it to the target observer afterwards.
+     * 
+     * @param msg
+     *        The delayed message.
+     */
+    public void schedule(final DelayedMessage msg) {
+        Delay delay = new Delay(msg) {
+            
+            @Override
+            public void delayedAction() {
+                
+                if (pending.remove(this) != null) {
+                    target.inform(msg);
+                }
+            }
+        };
+        
+        pending.put(delay, msg);
+        delay.schedule(scheduler);
+    }
+    
+    /**
+     * Cancel all messages that are not yet due.
+     * 
+     * @return The cancelled messages in the order they would have become due. The target observer
+     *         will never be informed about any of them.
+     */
+    public List<DelayedMessage> cancel() {
+        LinkedList<DelayedMessage> cancelled = new LinkedList<DelayedMessage>();
+        
+        for (Delay delay : pending.keySet()) {
+            DelayedMessage msg = pending.remove(delay);
+            
+            /*
+             * Whoever removes a message from pending owns it. A delay that already runs finds
+             * nothing anymore, so the message is returned even if the delay cannot be cancelled.
+             */
+            if (msg != null) {
+                delay.cancel();
+                int i = 0;
+                
+                while (i < cancelled.size() && due(cancelled.get(i)) <= due(msg)) {
+                    i++;
+                }
+                
+                cancelled.add(i, msg);
+            }
+        }
+        
+        return cancelled;
+    }
+    
+    /** @return The number of messages that are currently waiting to become due. */
+    public int size() {
+        return pending.size();
+    }
+    
+    private static long due(DelayedMessage msg) {
+        return msg.getTimeOfCreation() + msg.getDelay();
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import erki.api.util.Log;
+
+/**
+ * A small HTTP client shared by all parsers via {@link erki.xpeter.BotInterface#getHttpClient()}.
+ * It builds on {@link HttpURLConnection} which already keeps idle connections alive in a pool,
+ * speaks TLS for {@code https} urls and decodes chunked responses. On top of that this class adds
+ * connect, read and overall timeouts (so a slow webserver cannot block a parser thread forever),
+ * transparent gzip compression and a limit on the size of a response. The body is decoded
+ * incrementally into a {@link StringBuilder}.
+ * <p>
+ * Responses are always read completely and their streams closed so the underlying connection can
+ * be reused by the next request to the same host.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class HttpClient {
+    
+    /** The default time in milliseconds to wait for a connection to be established. */
+    public static final int CONNECT_TIMEOUT = 5000;
+    
+    /** The default time in milliseconds to wait for data on an established connection. */
+    public static final int READ_TIMEOUT = 10000;
+    
+    /** The default time in milliseconds a complete request may take. */
+    public static final int TOTAL_TIMEOUT = 20000;
+    
+    /** The default maximum number of characters of a response body. */
+    public static final int MAX_LENGTH = 2 << 20;
+    
+    private static final String USER_AGENT = "xpeter";
+    
+    private final int connectTimeout, readTimeout, totalTimeout, maxLength;
+    
+    /**
+     * Create a new client using the default timeouts and size limit.
+     */
+    public HttpClient() {
+        this(CONNECT_TIMEOUT, READ_TIMEOUT, TOTAL_TIMEOUT, MAX_LENGTH);
+    }
+    
+    /**
+     * Create a new client.
+     * 
+     * @param connectTimeout
+     *        The time in milliseconds to wait for a connection to be established.
+     * @param readTimeout
+     *        The time in milliseconds to wait for data on an established connection.
+     * @param totalTimeout
+     *        The time in milliseconds a complete request may take.
+     * @param maxLength
+     *        The maximum number of characters of a response body. Longer responses are aborted.
+     */
+    public HttpClient(int connectTimeout, int readTimeout, int totalTimeout, int maxLength) {
+        
+        if (connectTimeout <= 0 || readTimeout <= 0 || totalTimeout <= 0 || maxLength <= 0) {
+            throw new IllegalArgumentException("Timeouts and maximum length must be positive!");
+        }
+        
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.totalTimeout = totalTimeout;
+        this.maxLength = maxLength;
+    }
+    
+    /**
+     * Fetch a website. If the server does not name the charset of the response UTF-8 is assumed.
+     * 
+     * @param url
+     *        The url to fetch (either {@code http} or {@code https}).
+     * @return The response of the server.
+     * @throws IOException
+     *         if the server could not be reached, a timeout expired or the response was too
+     *         large.
+     */
+    public Response get(String url) throws IOException {
+        return get(url, "UTF-8");
+    }
+    
+    /**
+     * Fetch a website.
+     * 
+     * @param url
+     *        The url to fetch (either {@code http} or {@code https}).
+     * @param charset
+     *        The charset used to decode the response if the server does not name one.
+     * @return The response of the server.
+     * @throws IOException
+     *         if the server could not be reached, a timeout expired or the response was too
+     *         large.
+     */
+    public Response get(String url, String charset) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(totalTimeout);
+        URLConnection con = new URL(url).openConnection();
+        
+        if (!(con instanceof HttpURLConnection)) {
+            throw new IOException("Not an http url: " + url);
+        }
+        
+        HttpURLConnection http = (HttpURLConnection) con;
+        http.setConnectTimeout(connectTimeout);
+        http.setReadTimeout(readTimeout);
+        http.setInstanceFollowRedirects(true);
+        http.setRequestProperty("User-Agent", USER_AGENT);
+        http.setRequestProperty("Accept-Encoding", "gzip");
+        Log.debug("Making request to " + url + ".");
+        
+        int status;
+        InputStream in;
+        
+        try {
+            status = http.getResponseCode();
+            in = status >= 400 ? http.getErrorStream() : http.getInputStream();
+        } catch (IOException e) {
+            http.disconnect();
+            throw e;
+        }
+        
+        if (in == null) {
+            return new Response(status, "");
+        }
+        
+        try {
+            
+            if ("gzip".equalsIgnoreCase(http.getContentEncoding())) {
+                in = new GZIPInputStream(in);
+            }
+            
+            Reader reader = new InputStreamReader(in, charset(http.getContentType(), charset));
+            StringBuilder body = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+            
+            while ((read = reader.read(buffer)) != -1) {
+                
+                if (System.nanoTime() - deadline > 0) {
+                    http.disconnect();
+                    throw new SocketTimeoutException("Request to " + url + " took longer than "
+                            + totalTimeout + " ms.");
+                }
+                
+                if (body.length() + read > maxLength) {
+                    http.disconnect();
+                    throw new IOException("Response from " + url + " is longer than " + maxLength
+                            + " characters.");
+                }
+                
+                body.append(buffer, 0, read);
+            }
+            
+            Log.debug("Received " + body.length() + " characters from " + url + ".");
+            return new Response(status, body.toString());
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Find the charset named in a Content-Type header.
+     * 
+     * @param contentType
+     *        The value of the Content-Type header or {@code null}.
+     * @param fallback
+     *        The charset to use if the header does not name a supported one.
+     * @return The charset of the response.
+     */
+    private static Charset charset(String contentType, String fallback) {
+        
+        if (contentType != null) {
+            
+            for (String param : contentType.split(";")) {
+                param = param.trim();
+                
+                if (param.toLowerCase(Locale.ENGLISH).startsWith("charset=")) {
+                    String name = param.substring("charset=".length()).replace("\"", "").trim();
+                    
+                    try {
+                        return Charset.forName(name);
+                    } catch (IllegalCharsetNameException e) {
+                        Log.debug("Illegal charset " + name + ".");
+                    } catch (UnsupportedCharsetException e) {
+                        Log.debug("Unsupported charset " + name + ".");
+                    }
+                }
+            }
+        }
+        
+        return Charset.forName(fallback);
+    }
+    
+    /**
+     * The response of a webserver to a request made by {@link HttpClient}.
+     * 
+     * @author Edgar Kalkowski
+     */
+    public static class Response {
+        
+        private final int status;
+        
+        private final String body;
+        
+        private Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+        
+        /**
+         * Access the HTTP status code of this response.
+         * 
+         * @return The status code sent by the server.
+         */
+        public int getStatus() {
+            return status;
+        }
+        
+        /**
+         * Check if the request was successful.
+         * 
+         * @return {@code true} if the status code is in the range 200–299.
+         */
+        public boolean isOk() {
+            return status >= 200 && status < 300;
+        }
+        
+        /**
+         * Access the decoded body of this response (without any headers).
+         * 
+         * @return The body of the response.
+         */
+        public String getBody() {
+            return body;
+        }
+    }
+}
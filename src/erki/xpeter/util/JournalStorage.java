@@ -0,0 +1,358 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import erki.api.storage.JavaObjectStorage;
+import erki.api.storage.Key;
+import erki.api.storage.Storage;
+import erki.api.util.Log;
+
+/**
+ * A {@link Storage} that does not rewrite all stored objects whenever one of them changes. Every
+ * call of {@link #add(Key, Object)} or {@link #remove(Key)} only appends a small record containing
+ * the changed entry to a journal file. The records are forced to disk at most every
+ * {@link #SYNC_INTERVAL} ms by a background thread so many changes share one {@code fsync}.
+ * <p>
+ * If the journal grows larger than {@link #COMPACT_SIZE} bytes and larger than the snapshot, all
+ * entries are written to a new snapshot and the journal is emptied. On startup the snapshot is
+ * loaded and the records of the journal are replayed on top of it. An incomplete record at the end
+ * of the journal (e.g. if the bot was killed while writing it) is discarded.
+ * <p>
+ * The snapshot has the same format as the file of a {@link JavaObjectStorage}, so an existing
+ * storage file can simply be used with this class. The journal is kept in a second file with the
+ * suffix “.journal”. After {@link #compact()} or {@link #close()} the snapshot alone is a valid
+ * file for a {@link JavaObjectStorage} again.
+ * 
+ * @param <E>
+ *        The enum type that contains the identifiers of the stored items.
+ * @author Edgar Kalkowski
+ */
+public class JournalStorage<E extends Enum<E>> extends Storage<E> {
+    
+    /** The maximum time (in ms) appended records may wait before they are forced to disk. */
+    public static final int SYNC_INTERVAL = 1000;
+    
+    /** The minimal size (in bytes) of the journal before it is compacted into the snapshot. */
+    public static final long COMPACT_SIZE = 1 << 20;
+    
+    /*
+     * The constructor of Storage calls load() before the field initializers of this class would run,
+     * so these fields are only set in load(). They are guarded by the lock of data.
+     */
+    private RandomAccessFile journal;
+    
+    private ScheduledExecutorService syncer;
+    
+    private boolean unsynced;
+    
+    private long snapshotSize;
+    
+    /**
+     * Create a new JournalStorage and load the snapshot and the journal if they exist.
+     * 
+     * @param filename
+     *        The name of the snapshot file. The journal is stored next to it.
+     */
+    public JournalStorage(String filename) {
+        super(filename);
+    }
+    
+    private File getJournalFile() {
+        return new File(filename + ".journal");
+    }
+    
+    @Override
+    public <T> void add(Key<T, E> key, T value) {
+        
+        synchronized (data) {
+            data.put(key, value);
+            append(key, true, value);
+        }
+    }
+    
+    @Override
+    public <T> void remove(Key<T, E> key) {
+        
+        synchronized (data) {
+            
+            if (data.containsKey(key)) {
+                data.remove(key);
+                append(key, false, null);
+            }
+        }
+    }
+    
+    /**
+     * Write all entries to a new snapshot and empty the journal. This also happens automatically if
+     * the journal becomes too large.
+     */
+    public void compact() {
+        save();
+    }
+    
+    /**
+     * Write all entries to a new snapshot and close the journal. Changes made afterwards are only
+     * kept in memory.
+     */
+    public void close() {
+        
+        synchronized (data) {
+            
+            if (journal == null) {
+                return;
+            }
+            
+            save();
+            syncer.shutdown();
+            
+            try {
+                journal.close();
+            } catch (IOException e) {
+                Log.error(e);
+            }
+            
+            journal = null;
+        }
+    }
+    
+    /* Each record is its length, its CRC32 and the serialized key, a presence flag and the value. */
+    private void append(Key<?, E> key, boolean present, Object value) {
+        
+        if (journal == null) {
+            Log.warning("The journal of " + filename + " is already closed. The change of " + key
+                    + " is lost.");
+            return;
+        }
+        
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            bytes.write(new byte[8]);
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(key);
+            out.writeBoolean(present);
+            
+            if (present) {
+                out.writeObject(value);
+            }
+            
+            out.close();
+            byte[] record = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(record, 8, record.length - 8);
+            ByteBuffer.wrap(record).putInt(record.length - 8).putInt((int) crc.getValue());
+            journal.write(record);
+            unsynced = true;
+            
+            if (journal.getFilePointer() > Math.max(COMPACT_SIZE, snapshotSize)) {
+                Log.debug("Compacting the journal of " + filename + ".");
+                save();
+            }
+            
+        } catch (IOException e) {
+            throw new RuntimeException("Could not store data!", e);
+        }
+    }
+    
+    private void sync() {
+        
+        synchronized (data) {
+            
+            if (!unsynced || journal == null) {
+                return;
+            }
+            
+            unsynced = false;
+        }
+        
+        try {
+            journal.getChannel().force(false);
+        } catch (IOException e) {
+            Log.error(e);
+            Log.warning("The journal of " + filename + " could not be forced to disk.");
+        }
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void load() {
+        File snapshot = new File(filename);
+        
+        if (snapshot.exists()) {
+            
+            try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(
+                    new FileInputStream(snapshot)))) {
+                data = (TreeMap<Key<?, E>, Object>) in.readObject();
+            } catch (IOException e) {
+                throw new RuntimeException("An i/o error occurred while trying to load data from "
+                        + filename + ". This could mean that the user accidentally gave the name "
+                        + "of some other (perhaps important?) file! I cannot continue and "
+                        + "probably overwrite that file.", e);
+            } catch (ClassNotFoundException e) {
+                throw new RuntimeException("When trying to load data from " + filename
+                        + " some class file was not found. I cannot continue and probably "
+                        + "overwrite that file.", e);
+            }
+            
+            snapshotSize = snapshot.length();
+        }
+        
+        try {
+            long valid = replay();
+            journal = new RandomAccessFile(getJournalFile(), "rw");
+            
+            if (valid < journal.length()) {
+                Log.warning("Discarding " + (journal.length() - valid)
+                        + " bytes of an incomplete record at the end of " + getJournalFile() + ".");
+                journal.setLength(valid);
+            }
+            
+            journal.seek(valid);
+        } catch (IOException e) {
+            throw new RuntimeException("The journal " + getJournalFile() + " could not be opened!",
+                    e);
+        }
+        
+        syncer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Journal"));
+        syncer.scheduleWithFixedDelay(new Runnable() {
+            
+            @Override
+            public void run() {
+                sync();
+            }
+        }, SYNC_INTERVAL, SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+    
+    /* Apply all complete records of the journal to data and return the length of those records. */
+    @SuppressWarnings("unchecked")
+    private long replay() throws IOException {
+        File file = getJournalFile();
+        long length = file.length();
+        long valid = 0;
+        int count = 0;
+        
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                file)))) {
+            
+            while (true) {
+                int size, checksum;
+                
+                try {
+                    size = in.readInt();
+                    checksum = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                
+                if (size < 0 || valid + 8 + size > length) {
+                    break;
+                }
+                
+                byte[] record = new byte[size];
+                in.readFully(record);
+                CRC32 crc = new CRC32();
+                crc.update(record);
+                
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                
+                try (ObjectInputStream entry = new ObjectInputStream(new ByteArrayInputStream(
+                        record))) {
+                    Key<?, E> key = (Key<?, E>) entry.readObject();
+                    
+                    if (entry.readBoolean()) {
+                        data.put(key, entry.readObject());
+                    } else {
+                        data.remove(key);
+                    }
+                    
+                } catch (ClassNotFoundException e) {
+                    throw new RuntimeException("When trying to replay the journal " + file
+                            + " some class file was not found. I cannot continue and probably "
+                            + "overwrite that file.", e);
+                }
+                
+                valid += 8 + size;
+                count++;
+            }
+            
+        } catch (FileNotFoundException e) {
+            return 0;
+        }
+        
+        if (count > 0) {
+            Log.info("Replayed " + count + " records from " + file + ".");
+        }
+        
+        return valid;
+    }
+    
+    @Override
+    protected void save() {
+        
+        synchronized (data) {
+            File snapshot = new File(filename);
+            File temp = new File(filename + ".tmp");
+            
+            try {
+                
+                try (FileOutputStream file = new FileOutputStream(temp)) {
+                    ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(file));
+                    out.writeObject(data);
+                    out.flush();
+                    file.getFD().sync();
+                }
+                
+                Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                snapshotSize = snapshot.length();
+                
+                // Replaying old records on the new snapshot would do no harm if we crash here.
+                journal.setLength(0);
+                journal.seek(0);
+                journal.getChannel().force(true);
+                unsynced = false;
+            } catch (IOException e) {
+                throw new RuntimeException("Could not store data!", e);
+            }
+        }
+    }
+}
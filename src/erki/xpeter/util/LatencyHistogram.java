@@ -0,0 +1,165 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations that can be recorded from many threads at once without locking. Like
+ * HdrHistogram it uses buckets whose width grows with the recorded values: every power of two is
+ * split into {@value #SUB_BUCKETS} buckets, so percentiles are accurate to about 6 % no matter if
+ * they are measured in microseconds or in minutes, and the whole histogram is a fixed array of
+ * counters.
+ * <p>
+ * Reading the histogram while it is recorded to yields a result that may be off by the values
+ * recorded in the meantime, which is fine for monitoring.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class LatencyHistogram {
+    
+    private static final int SUB_BITS = 4;
+    
+    /** The number of buckets every power of two is split into. */
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+    
+    private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BITS) * SUB_BUCKETS);
+    
+    private final AtomicLong count = new AtomicLong();
+    
+    private final AtomicLong total = new AtomicLong();
+    
+    private final AtomicLong max = new AtomicLong();
+    
+    private static int index(long value) {
+        
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + mantissa;
+    }
+    
+    /* The largest value that falls into a bucket. */
+    private static long highest(int index) {
+        
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+    
+    /**
+     * Record a duration.
+     * 
+     * @param nanos
+     *        The duration in nanoseconds. Negative values are recorded as 0.
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        buckets.incrementAndGet(index(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        long current;
+        
+        while (nanos > (current = max.get())) {
+            
+            if (max.compareAndSet(current, nanos)) {
+                break;
+            }
+        }
+    }
+    
+    /** @return The number of recorded durations. */
+    public long getCount() {
+        return count.get();
+    }
+    
+    /**
+     * Access the sum of all recorded durations.
+     * 
+     * @param unit
+     *        The unit of the result.
+     * @return The sum of all durations.
+     */
+    public long getTotal(TimeUnit unit) {
+        return unit.convert(total.get(), TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * Access the mean of all recorded durations.
+     * 
+     * @param unit
+     *        The unit of the result.
+     * @return The mean duration or 0 if nothing was recorded yet.
+     */
+    public double getMean(TimeUnit unit) {
+        long n = count.get();
+        return n == 0 ? 0 : (double) total.get() / n / unit.toNanos(1);
+    }
+    
+    /**
+     * Access the longest recorded duration.
+     * 
+     * @param unit
+     *        The unit of the result.
+     * @return The longest duration or 0 if nothing was recorded yet.
+     */
+    public double getMax(TimeUnit unit) {
+        return (double) max.get() / unit.toNanos(1);
+    }
+    
+    /**
+     * Access a percentile of the recorded durations.
+     * 
+     * @param percentile
+     *        The percentile between 0 and 100 (e.g. 99 for the duration that 99 % of all recorded
+     *        durations did not exceed).
+     * @param unit
+     *        The unit of the result.
+     * @return The percentile (rounded up to the end of its bucket but never more than the
+     *         longest duration) or 0 if nothing was recorded yet.
+     */
+    public double getPercentile(double percentile, TimeUnit unit) {
+        long n = count.get();
+        
+        if (n == 0) {
+            return 0;
+        }
+        
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            
+            if (seen >= rank) {
+                return (double) Math.min(highest(i), max.get()) / unit.toNanos(1);
+            }
+        }
+        
+        return getMax(unit);
+    }
+}
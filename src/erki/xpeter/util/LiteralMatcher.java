@@ -0,0 +1,154 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds out which of a fixed set of literal strings occur in a text. All literals are searched at
+ * once in a single pass over the text (using the algorithm of Aho and Corasick) so the time needed
+ * does not depend on the number of literals.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class LiteralMatcher {
+    
+    private final int literalCount;
+    
+    /* The goto function of every state, the failure function and the matching literals. */
+    private final List<Map<Character, Integer>> transitions;
+    
+    private final int[] failure;
+    
+    private final int[][] outputs;
+    
+    /**
+     * Create a new LiteralMatcher.
+     * 
+     * @param literals
+     *        The literals to search for. The i-th literal will be reported by {@link #match(String)}
+     *        at index i of the result. {@code null} or empty literals are never reported.
+     */
+    public LiteralMatcher(List<String> literals) {
+        this.literalCount = literals.size();
+        List<Map<Character, Integer>> transitions = new ArrayList<Map<Character, Integer>>();
+        List<int[]> outputs = new ArrayList<int[]>();
+        transitions.add(new HashMap<Character, Integer>());
+        outputs.add(new int[0]);
+        
+        // Build the trie of all literals.
+        for (int i = 0; i < literals.size(); i++) {
+            String literal = literals.get(i);
+            
+            if (literal == null || literal.isEmpty()) {
+                continue;
+            }
+            
+            int state = 0;
+            
+            for (int j = 0; j < literal.length(); j++) {
+                Integer next = transitions.get(state).get(literal.charAt(j));
+                
+                if (next == null) {
+                    next = transitions.size();
+                    transitions.add(new HashMap<Character, Integer>());
+                    outputs.add(new int[0]);
+                    transitions.get(state).put(literal.charAt(j), next);
+                }
+                
+                state = next;
+            }
+            
+            outputs.set(state, append(outputs.get(state), i));
+        }
+        
+        // Compute the failure function breadth first.
+        this.failure = new int[transitions.size()];
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        
+        for (int child : transitions.get(0).values()) {
+            queue.add(child);
+        }
+        
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            
+            for (Map.Entry<Character, Integer> edge : transitions.get(state).entrySet()) {
+                int child = edge.getValue();
+                int fallback = this.failure[state];
+                
+                while (fallback != 0 && !transitions.get(fallback).containsKey(edge.getKey())) {
+                    fallback = this.failure[fallback];
+                }
+                
+                Integer target = transitions.get(fallback).get(edge.getKey());
+                this.failure[child] = target != null && target != child ? target : 0;
+                
+                for (int literal : outputs.get(this.failure[child])) {
+                    outputs.set(child, append(outputs.get(child), literal));
+                }
+                
+                queue.add(child);
+            }
+        }
+        
+        this.transitions = transitions;
+        this.outputs = outputs.toArray(new int[0][]);
+    }
+    
+    private static int[] append(int[] array, int value) {
+        int[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = value;
+        return result;
+    }
+    
+    /**
+     * Search for all literals in a text.
+     * 
+     * @param text
+     *        The text to search.
+     * @return An array that contains {@code true} at index i if the i-th literal occurs somewhere in
+     *         {@code text}.
+     */
+    public boolean[] match(String text) {
+        boolean[] found = new boolean[literalCount];
+        int state = 0;
+        
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            Integer next;
+            
+            while ((next = transitions.get(state).get(c)) == null && state != 0) {
+                state = failure[state];
+            }
+            
+            state = next == null ? 0 : next;
+            
+            for (int literal : outputs[state]) {
+                found[literal] = true;
+            }
+        }
+        
+        return found;
+    }
+}
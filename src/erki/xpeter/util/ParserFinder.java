@@ -31,6 +31,8 @@ import erki.xpeter.parsers.Parser;
 
 /**
  * This class searches the current directory for classes implementing the {@link Parser} interface.
+ * Classes are loaded but not initialized. As this has to look at every class it is slow and only
+ * used to build the {@link ParserIndex} and as a fallback if there is none.
  * 
  * @author Edgar Kalkowski
  */
@@ -57,7 +59,8 @@ public class ParserFinder {
                 Class<?> clazz = null;
                 
                 try {
-                    clazz = Class.forName(path + className);
+                    clazz = Class.forName(path + className, false,
+                            ParserFinder.class.getClassLoader());
                 } catch (ClassNotFoundException e) {
                     continue;
                 }
@@ -129,7 +132,8 @@ public class ParserFinder {
                         Class<?> clazz = null;
                         
                         try {
-                            clazz = Class.forName(name);
+                            clazz = Class.forName(name, false,
+                                    ParserFinder.class.getClassLoader());
                         } catch (ClassNotFoundException e) {
                             Log.error(e);
                             Log.warning("Could not read class " + name + ". Trying to continue.");
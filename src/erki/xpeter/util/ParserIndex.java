@@ -0,0 +1,238 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import erki.api.util.Log;
+import erki.xpeter.parsers.Parser;
+
+/**
+ * Resolves parsers through an index of parser class names instead of crawling the classpath. The
+ * index is a {@code META-INF/services/erki.xpeter.parsers.Parser} file in the format used by
+ * {@link java.util.ServiceLoader} that is generated by running {@link #main(String[])} as part of
+ * the build (see {@code build.xml}). Index files of all jars on the classpath are merged, so
+ * parsers packaged separately only need to ship their own index.
+ * <p>
+ * Listing parsers does not load any class and resolving a parser by name only loads that single
+ * class. If no index can be found at all (e.g. when the bot was compiled by an IDE instead of ant)
+ * this class falls back to {@link ParserFinder}.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class ParserIndex {
+    
+    /** The location of the index files on the classpath. */
+    public static final String RESOURCE = "META-INF/services/" + Parser.class.getName();
+    
+    private ParserIndex() {
+    }
+    
+    /**
+     * Read all index files on the classpath.
+     * 
+     * @return A map from the simple names of all indexed parsers to their fully qualified class
+     *         names or {@code null} if there is no index.
+     */
+    private static TreeMap<String, String> read() {
+        TreeMap<String, String> result = new TreeMap<>();
+        Enumeration<URL> urls;
+        
+        try {
+            urls = ParserIndex.class.getClassLoader().getResources(RESOURCE);
+        } catch (IOException e) {
+            Log.error(e);
+            return null;
+        }
+        
+        if (!urls.hasMoreElements()) {
+            return null;
+        }
+        
+        while (urls.hasMoreElements()) {
+            URL url = urls.nextElement();
+            
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(url.openStream(),
+                    "UTF-8"))) {
+                String line;
+                
+                while ((line = in.readLine()) != null) {
+                    
+                    if (line.contains("#")) {
+                        line = line.substring(0, line.indexOf('#'));
+                    }
+                    
+                    line = line.trim();
+                    
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    
+                    String simpleName = line.substring(line.lastIndexOf('.') + 1);
+                    String previous = result.put(simpleName, line);
+                    
+                    if (previous != null && !previous.equals(line)) {
+                        Log.warning("Parser name " + simpleName + " is used by " + previous
+                                + " and " + line + ". Using the latter.");
+                    }
+                }
+                
+            } catch (IOException e) {
+                Log.error(e);
+                Log.warning("Could not read parser index " + url + ". Trying to continue.");
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Access the names of all available parsers.
+     * 
+     * @return A map from the simple names of all available parsers to their fully qualified class
+     *         names, sorted by simple name.
+     */
+    public static TreeMap<String, String> getNames() {
+        TreeMap<String, String> names = read();
+        
+        if (names == null) {
+            Log.warning("No parser index found. Searching the classpath instead.");
+            names = new TreeMap<>();
+            
+            for (Class<? extends Parser> clazz : ParserFinder.findParsers(BotApi.getParserDir())) {
+                names.put(clazz.getSimpleName(), clazz.getName());
+            }
+        }
+        
+        return names;
+    }
+    
+    /**
+     * Find a parser by its simple class name. Only the class of the requested parser is loaded.
+     * 
+     * @param name
+     *        The simple name of the parser class (e.g. “ParserLoader”).
+     * @return The class object of the parser or {@code null} if there is no such parser.
+     */
+    public static Class<? extends Parser> find(String name) {
+        String className = getNames().get(name);
+        return className == null ? null : load(className);
+    }
+    
+    /**
+     * Load all available parsers.
+     * 
+     * @return The class objects of all available parsers sorted by their names.
+     */
+    public static TreeSet<Class<? extends Parser>> findAll() {
+        TreeSet<Class<? extends Parser>> result = new TreeSet<Class<? extends Parser>>(
+                new Comparator<Class<?>>() {
+                    
+                    @Override
+                    public int compare(Class<?> o1, Class<?> o2) {
+                        return o1.getCanonicalName().compareTo(o2.getCanonicalName());
+                    }
+                });
+        
+        for (String className : getNames().values()) {
+            Class<? extends Parser> clazz = load(className);
+            
+            if (clazz != null) {
+                result.add(clazz);
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Load a parser class without initializing it.
+     * 
+     * @param className
+     *        The fully qualified name of the parser class as returned by {@link #getNames()}.
+     * @return The class object of the parser or {@code null} if it could not be loaded.
+     */
+    public static Class<? extends Parser> load(String className) {
+        
+        try {
+            return Class.forName(className, false, ParserIndex.class.getClassLoader())
+                    .asSubclass(Parser.class);
+        } catch (ClassNotFoundException e) {
+            Log.warning("Indexed parser " + className + " could not be found.");
+            return null;
+        } catch (ClassCastException e) {
+            Log.warning("Indexed class " + className + " is no parser.");
+            return null;
+        } catch (LinkageError e) {
+            Log.error(e);
+            Log.warning("Indexed parser " + className + " could not be loaded.");
+            return null;
+        }
+    }
+    
+    /**
+     * Generates the parser index at build time. The given folder of compiled classes (which must
+     * be on the classpath) is searched for instantiable parsers and their names are written to
+     * {@link #RESOURCE} inside that folder.
+     * 
+     * @param args
+     *        The folder containing the compiled classes.
+     * @throws IOException
+     *         if the index could not be written.
+     */
+    public static void main(String[] args) throws IOException {
+        
+        if (args.length != 1) {
+            System.err.println("Usage: java erki.xpeter.util.ParserIndex <class folder>");
+            System.exit(1);
+        }
+        
+        File folder = new File(args[0]).getAbsoluteFile();
+        File index = new File(folder, RESOURCE);
+        index.getParentFile().mkdirs();
+        int count = 0;
+        
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(index),
+                "UTF-8"))) {
+            out.println("# Generated at build time by " + ParserIndex.class.getName() + ".");
+            
+            for (Class<? extends Parser> clazz : ParserFinder.findParsers(folder)) {
+                
+                if (!clazz.isInterface() && !Modifier.isAbstract(clazz.getModifiers())
+                        && Modifier.isPublic(clazz.getModifiers())) {
+                    out.println(clazz.getName());
+                    count++;
+                }
+            }
+        }
+        
+        System.out.println("Indexed " + count + " parsers in " + index + ".");
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.util;
+
+/**
+ * Extracts literal text from regular expressions. This is used to quickly rule out regular
+ * expressions that cannot match some text before actually running them.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class RegexLiterals {
+    
+    private RegexLiterals() {
+    }
+    
+    /**
+     * Find a piece of literal text that every text matching a regular expression must contain. The
+     * analysis is conservative: only literals outside of groups and character classes that are
+     * neither optional nor part of an alternative are considered and if the expression uses
+     * anything unusual (like inline flags or quoting) no literal is returned at all.
+     * 
+     * @param regex
+     *        The regular expression to analyse.
+     * @return The longest literal that is contained in every match of {@code regex} or {@code null}
+     *         if no such literal could be found.
+     */
+    public static String requiredLiteral(String regex) {
+        
+        if (regex == null) {
+            return null;
+        }
+        
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        boolean quantifiable = false;
+        int i = 0;
+        
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            
+            if (c == '?' || c == '*' || c == '{' || c == '+') {
+                
+                if (!quantifiable) {
+                    // A lazy or possessive modifier of the previous quantifier.
+                    i++;
+                    continue;
+                }
+                
+                // The last character of the run is repeated or optional so the run ends here.
+                if (c != '+' && run.length() > 0) {
+                    run.setLength(run.length() - 1);
+                }
+                
+                best = longer(best, run);
+                run.setLength(0);
+                quantifiable = false;
+                
+                if (c == '{') {
+                    int end = regex.indexOf('}', i);
+                    
+                    if (end < 0) {
+                        return null;
+                    }
+                    
+                    i = end;
+                }
+                
+                i++;
+            } else if (c == '|') {
+                // An alternative on the top level: nothing is required for sure.
+                return null;
+            } else if (c == '(') {
+                
+                if (regex.startsWith("(?", i) && !regex.startsWith("(?:", i)) {
+                    // Inline flags or lookarounds might change how literals match.
+                    return null;
+                }
+                
+                int end = skip(regex, i, '(', ')');
+                
+                if (end < 0) {
+                    return null;
+                }
+                
+                best = longer(best, run);
+                run.setLength(0);
+                quantifiable = true;
+                i = end;
+            } else if (c == '[') {
+                int end = skip(regex, i, '[', ']');
+                
+                if (end < 0) {
+                    return null;
+                }
+                
+                best = longer(best, run);
+                run.setLength(0);
+                quantifiable = true;
+                i = end;
+            } else if (c == '\\') {
+                
+                if (i + 1 >= regex.length()) {
+                    return null;
+                }
+                
+                char escaped = regex.charAt(i + 1);
+                
+                if (escaped == 'Q' || escaped == 'E') {
+                    return null;
+                }
+                
+                int end = escapeEnd(regex, i);
+                
+                if (end < 0) {
+                    return null;
+                }
+                
+                if (!Character.isLetterOrDigit(escaped)) {
+                    run.append(escaped);
+                } else {
+                    /*
+                     * Some class like \d, an assertion like \b or an escape like \x41 or \u00e4
+                     * that is not decoded here.
+                     */
+                    best = longer(best, run);
+                    run.setLength(0);
+                }
+                
+                quantifiable = true;
+                i = end;
+            } else if (c == '.' || c == '^' || c == '$') {
+                best = longer(best, run);
+                run.setLength(0);
+                quantifiable = c == '.';
+                i++;
+            } else {
+                run.append(c);
+                quantifiable = true;
+                i++;
+            }
+        }
+        
+        best = longer(best, run);
+        return best.isEmpty() ? null : best;
+    }
+    
+    private static String longer(String best, CharSequence run) {
+        return run.length() > best.length() ? run.toString() : best;
+    }
+    
+    /*
+     * Returns the index after the closing bracket that belongs to the opening bracket at position
+     * start or -1 if there is none.
+     */
+    private static int skip(String regex, int start, char open, char close) {
+        int depth = 0;
+        int i = start;
+        
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            
+            if (c == '\\') {
+                
+                if (regex.startsWith("\\Q", i)) {
+                    // Brackets inside quotes don’t count.
+                    int end = regex.indexOf("\\E", i + 2);
+                    i = end < 0 ? regex.length() : end + 2;
+                } else {
+                    i = escapeEnd(regex, i);
+                    
+                    if (i < 0) {
+                        return -1;
+                    }
+                }
+                
+                continue;
+            }
+            
+            if (c == '[' && open == '(') {
+                // Brackets inside character classes don’t count.
+                int end = skip(regex, i, '[', ']');
+                
+                if (end < 0) {
+                    return -1;
+                }
+                
+                i = end;
+                continue;
+            }
+            
+            if (c == open) {
+                
+                if (open == '[' && depth > 0 && i > start) {
+                    // Nested classes like [a-z&&[^e]].
+                    depth++;
+                } else if (open != '[' || i == start) {
+                    depth++;
+                }
+                
+            } else if (c == close && !(open == '[' && isFirstInClass(regex, start, i))) {
+                depth--;
+                
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            
+            i++;
+        }
+        
+        return -1;
+    }
+    
+    /*
+     * Returns the index after the escape sequence whose backslash is at position start or -1 if it
+     * is incomplete. Escapes like \x41, \u00e4, \0101 or \cA span more than two characters and
+     * must be skipped as a whole so their digits are not mistaken for literal text. Back
+     * references take all following digits, which may be more than Java takes but never less.
+     */
+    private static int escapeEnd(String regex, int start) {
+        
+        if (start + 1 >= regex.length()) {
+            return -1;
+        }
+        
+        int i = start + 2;
+        
+        switch (regex.charAt(start + 1)) {
+        case 'x':
+            
+            if (regex.startsWith("{", i)) {
+                return closing(regex, i, '}');
+            }
+            
+            return hex(regex, i, 2);
+        case 'u':
+            return hex(regex, i, 4);
+        case '0':
+            return octal(regex, i);
+        case 'c':
+            return i < regex.length() ? i + 1 : -1;
+        case 'p':
+        case 'P':
+        case 'N':
+            
+            if (regex.startsWith("{", i)) {
+                return closing(regex, i, '}');
+            }
+            
+            return i < regex.length() ? i + 1 : -1;
+        case 'k':
+            return regex.startsWith("<", i) ? closing(regex, i, '>') : -1;
+        default:
+            
+            if (Character.isDigit(regex.charAt(start + 1))) {
+                
+                while (i < regex.length() && Character.isDigit(regex.charAt(i))) {
+                    i++;
+                }
+            }
+            
+            return i;
+        }
+    }
+    
+    /* Returns the index after the next close character from position start on or -1. */
+    private static int closing(String regex, int start, char close) {
+        int end = regex.indexOf(close, start);
+        return end < 0 ? -1 : end + 1;
+    }
+    
+    /* Returns the index after count hex digits from position start on or -1. */
+    private static int hex(String regex, int start, int count) {
+        
+        if (start + count > regex.length()) {
+            return -1;
+        }
+        
+        for (int i = start; i < start + count; i++) {
+            
+            if (Character.digit(regex.charAt(i), 16) < 0) {
+                return -1;
+            }
+        }
+        
+        return start + count;
+    }
+    
+    /* Returns the index after the (up to three) octal digits from position start on or -1. */
+    private static int octal(String regex, int start) {
+        int max = start < regex.length() && regex.charAt(start) <= '3' ? 3 : 2;
+        int i = start;
+        
+        while (i < regex.length() && i - start < max && regex.charAt(i) >= '0'
+                && regex.charAt(i) <= '7') {
+            i++;
+        }
+        
+        return i == start ? -1 : i;
+    }
+    
+    /* A closing bracket directly at the start of a character class is a literal. */
+    private static boolean isFirstInClass(String regex, int start, int i) {
+        return i == start + 1 || (i == start + 2 && regex.charAt(start + 1) == '^');
+    }
+}
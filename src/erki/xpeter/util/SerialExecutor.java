@@ -0,0 +1,91 @@
+/*
+ * © Copyright 2008–2010 by Edgar Kalkowski <eMail@edgar-kalkowski.de>
+ * 
+ * This file is part of the chatbot xpeter.
+ * 
+ * The chatbot xpeter is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+
+package erki.xpeter.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import erki.api.util.Log;
+
+/**
+ * Runs tasks one after another in the order they were submitted, using the threads of some other
+ * executor. Many SerialExecutors can share one thread pool while each of them keeps its own order.
+ * 
+ * @author Edgar Kalkowski
+ */
+public class SerialExecutor implements Executor {
+    
+    private final Executor executor;
+    
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    
+    private final AtomicBoolean running = new AtomicBoolean();
+    
+    /**
+     * Create a new SerialExecutor.
+     * 
+     * @param executor
+     *        The executor whose threads run the tasks.
+     */
+    public SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+    
+    @Override
+    public void execute(Runnable task) {
+        tasks.offer(task);
+        schedule();
+    }
+    
+    private void schedule() {
+        
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        
+        executor.execute(new Runnable() {
+            
+            @Override
+            public void run() {
+                
+                try {
+                    Runnable task;
+                    
+                    while ((task = tasks.poll()) != null) {
+                        
+                        try {
+                            task.run();
+                        } catch (Throwable e) {
+                            // See that _everything_ goes to the log.
+                            Log.error(e);
+                        }
+                    }
+                    
+                } finally {
+                    running.set(false);
+                    
+                    // A task may have been added after the queue was found empty.
+                    if (!tasks.isEmpty()) {
+                        schedule();
+                    }
+                }
+            }
+        });
+    }
+}
@@ -26,21 +26,23 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.util.LinkedList;
-import java.util.TreeSet;
+import java.util.TreeMap;
 
 import erki.api.storage.JavaObjectStorage;
 import erki.api.storage.Storage;
 import erki.api.util.CommandLineParser;
 import erki.api.util.Level;
 import erki.api.util.Log;
+import erki.xpeter.con.AbstractQueuedConnection;
+import erki.xpeter.con.ReconnectPolicy;
 import erki.xpeter.con.erkitalk.ErkiTalkConnection;
 import erki.xpeter.con.irc.IrcConnection;
 import erki.xpeter.con.skype.SkypeConnection;
 import erki.xpeter.con.xmpp.XmppConnection;
 import erki.xpeter.parsers.Parser;
-import erki.xpeter.util.BotApi;
+import erki.xpeter.util.JournalStorage;
 import erki.xpeter.util.Keys;
-import erki.xpeter.util.ParserFinder;
+import erki.xpeter.util.ParserIndex;
 import erki.xpeter.util.StorageKey;
 
 /**
@@ -84,7 +86,22 @@ public class xpeter {
         System.out.println("                 channels. You should specify at least one connection");
         System.out.println("                 on the command line or in your .botrc file. Use one");
         System.out.println("                 -c switch for each connection you want the bot to");
-        System.out.println("                 establish.");
+        System.out.println("                 establish. Options that change how the bot");
+        System.out.println("                 reconnects can be appended like");
+        System.out.println("                 irc://#chan@server:6667?min=5000&max=60000.");
+        System.out.println("                 Valid options are “initial” (delay of the first");
+        System.out.println("                 try, default 0), “min” (delay of the second try,");
+        System.out.println("                 default 10000), “max” (maximum delay, default");
+        System.out.println("                 300000), “jitter” (random variation of the delays,");
+        System.out.println("                 default 0.2), “threshold” (failed tries after which");
+        System.out.println("                 only every “cooldown” ms is tried, defaults 10 and");
+        System.out.println("                 1800000), “queue” (maximum number of messages");
+        System.out.println("                 buffered in memory, default 1000), “overflow”");
+        System.out.println("                 (“drop-oldest”, “drop-broadcasts” or “spill” to a");
+        System.out.println("                 file, the default) and “spill” (size of that file");
+        System.out.println("                 in bytes, default 4194304). Delays are in ms.");
+        System.out.println("                 Unsent messages are kept in that file when the bot");
+        System.out.println("                 exits.");
         System.out.println("  --config       Specify a config file to use. This defaults to be");
         System.out.println("                 a file called .botrc in the main directory of the");
         System.out.println("                 program (the directory that also contains the src,");
@@ -93,6 +110,23 @@ public class xpeter {
         System.out.println("                 store various information. This defaults to be a");
         System.out.println("                 file called .storage in the program’s main");
         System.out.println("                 directory.");
+        System.out.println("  --storage-backend  How the storage file is written. “java” (the");
+        System.out.println("                 default) rewrites the whole file on every change,");
+        System.out.println("                 “journal” only appends the changes to a journal");
+        System.out.println("                 file next to it. An existing storage file can be");
+        System.out.println("                 used with both backends.");
+        System.out.println("  --metrics      Specify a file to which statistics about how long");
+        System.out.println("                 each parser needed to react to messages and the");
+        System.out.println("                 ping round trip times of XMPP connections are");
+        System.out.println("                 written every five minutes.");
+        System.out.println("  --replies      Specify a file to which percentiles of the time");
+        System.out.println("                 between receiving a message and writing the reply");
+        System.out.println("                 are written every five minutes (per connection and");
+        System.out.println("                 split into processing, intended delay, queueing and");
+        System.out.println("                 writing).");
+        System.out.println("  --chrome-trace  Specify a file to which the latest replies are");
+        System.out.println("                 written every five minutes in the Chrome trace");
+        System.out.println("                 format (for chrome://tracing or Perfetto).");
         System.out.println();
         System.out.println("All command line options can also be specified in a file called");
         System.out.println(".botrc located in the directory where the bot is executed. Beware");
@@ -126,9 +160,8 @@ public class xpeter {
         if (args.contains("l", "list")) {
             System.out.println("The following parsers are available:");
             
-            for (Class<? extends Parser> parser : ParserFinder.findParsers(new File(".")
-                    .getAbsoluteFile())) {
-                System.out.println(parser.getSimpleName());
+            for (String parser : ParserIndex.getNames().keySet()) {
+                System.out.println(parser);
             }
             
             return;
@@ -140,7 +173,8 @@ public class xpeter {
         }
         
         String nick = "xpeter", configFile = ".botrc", storageFile = ".storage";
-        String parsers = null, logfile = null;
+        String parsers = null, logfile = null, storageBackend = "java", metrics = null;
+        String replies = null, chromeTrace = null;
         LinkedList<Class<? extends Parser>> chosenParsers = new LinkedList<>();
         LinkedList<Con> cons = new LinkedList<>();
         
@@ -174,6 +208,14 @@ public class xpeter {
                         parsers = line.substring("parsers=".length());
                     } else if (line.toLowerCase().startsWith("logfile=")) {
                         logfile = line.substring("logfile=".length());
+                    } else if (line.toLowerCase().startsWith("storage-backend=")) {
+                        storageBackend = line.substring("storage-backend=".length());
+                    } else if (line.toLowerCase().startsWith("metrics=")) {
+                        metrics = line.substring("metrics=".length());
+                    } else if (line.toLowerCase().startsWith("replies=")) {
+                        replies = line.substring("replies=".length());
+                    } else if (line.toLowerCase().startsWith("chrome-trace=")) {
+                        chromeTrace = line.substring("chrome-trace=".length());
                     } else {
                         System.err.println("WARNING: Invalid line in config file: " + line);
                     }
@@ -243,6 +285,22 @@ public class xpeter {
             logfile = args.pop("logfile");
         }
         
+        if (args.contains("storage-backend")) {
+            storageBackend = args.pop("storage-backend");
+        }
+        
+        if (args.contains("metrics")) {
+            metrics = args.pop("metrics");
+        }
+        
+        if (args.contains("replies")) {
+            replies = args.pop("replies");
+        }
+        
+        if (args.contains("chrome-trace")) {
+            chromeTrace = args.pop("chrome-trace");
+        }
+        
         // Redirect log from stdout to specified logfile.
         if (logfile != null) {
             
@@ -266,26 +324,22 @@ public class xpeter {
         
         Log.info("This is xpeter version " + VERSION + ".");
         
-        TreeSet<Class<? extends Parser>> foundParsers = ParserFinder.findParsers(BotApi
-                .getParserDir());
-        
         if (parsers != null && parsers.equals("*")) {
             Log.debug("Using all found parsers.");
-            chosenParsers.addAll(foundParsers);
+            chosenParsers.addAll(ParserIndex.findAll());
         } else if (parsers != null) {
+            TreeMap<String, String> foundParsers = ParserIndex.getNames();
             
             for (String p : parsers.split(",")) {
-                boolean foundMatching = false;
+                Class<? extends Parser> c = null;
                 
-                for (Class<? extends Parser> c : foundParsers) {
-                    
-                    if (c.getSimpleName().equals(p)) {
-                        chosenParsers.add(c);
-                        foundMatching = true;
-                    }
+                if (foundParsers.containsKey(p)) {
+                    c = ParserIndex.load(foundParsers.get(p));
                 }
                 
-                if (!foundMatching) {
+                if (c != null) {
+                    chosenParsers.add(c);
+                } else {
                     Log.warning("Parser “" + p + "” could not be found!");
                 }
             }
@@ -301,7 +355,20 @@ public class xpeter {
             System.exit(17);
         }
         
-        Storage<Keys> storage = new JavaObjectStorage<>(storageFile);
+        Storage<Keys> storage;
+        
+        if (storageBackend.equalsIgnoreCase("journal")) {
+            Log.info("Using a journal for the storage file " + storageFile + ".");
+            storage = new JournalStorage<>(storageFile);
+        } else {
+            
+            if (!storageBackend.equalsIgnoreCase("java")) {
+                Log.warning("Unknown storage backend “" + storageBackend
+                        + "”. Using the default backend.");
+            }
+            
+            storage = new JavaObjectStorage<>(storageFile);
+        }
         
         // Remove deprecated entries.
         @SuppressWarnings("deprecation")
@@ -311,31 +378,61 @@ public class xpeter {
             storage.remove(oldKey);
         }
         
-        Bot bot = new Bot(chosenParsers, storage);
+        final Bot bot = new Bot(chosenParsers, storage, new File(storageFile));
+        
+        // One hook so the parsers, the connections and the storage are saved in this order.
+        Runtime.getRuntime().addShutdownHook(new Thread("Shutdown") {
+            
+            @Override
+            public void run() {
+                bot.shutdown();
+            }
+        });
+        
+        if (metrics != null) {
+            bot.getMetrics().dumpPeriodically(new File(metrics), DispatchMetrics.DUMP_INTERVAL);
+        }
+        
+        if (replies != null || chromeTrace != null) {
+            bot.getReplyTracer().dumpPeriodically(replies != null ? new File(replies) : null,
+                    chromeTrace != null ? new File(chromeTrace) : null,
+                    DispatchMetrics.DUMP_INTERVAL);
+        }
         
         for (Con con : cons) {
+            AbstractQueuedConnection connection;
             
             if (con.protocol.equals("irc")) {
                 Log.info("Creating an IRC connection to " + con.host + ":" + con.port + ".");
-                bot.add(new IrcConnection(bot, con.host, con.port, con.channel, nick));
+                connection = new IrcConnection(bot, con.host, con.port, con.channel, nick);
             } else if (con.protocol.equals("erki") || con.protocol.equals("erkitalk")) {
                 Log.info("Creating an ErkiTalk connection to " + con.host + ":" + con.port + ".");
-                bot.add(new ErkiTalkConnection(bot, con.host, con.port, nick));
+                connection = new ErkiTalkConnection(bot, con.host, con.port, nick);
             } else if (con.protocol.equals("skype")) {
                 Log.info("Creating a Skype connection to " + con.host + ":" + con.port + ".");
-                bot.add(new SkypeConnection(bot, con.host, con.port, nick));
+                connection = new SkypeConnection(bot, con.host, con.port, nick);
             } else if (con.protocol.equals("jabber") || con.protocol.equals("xmpp")) {
                 Log.info("Creating an XMPP connection to " + con.channel + "@" + con.host + ":"
                         + con.port + ".");
-                bot.add(new XmppConnection(bot, con.host, con.port, con.channel, nick));
+                connection = new XmppConnection(bot, con.host, con.port, con.channel, nick);
+            } else {
+                continue;
+            }
+            
+            if (con.policy != ReconnectPolicy.DEFAULT) {
+                Log.info("Reconnecting with " + con.policy + ".");
+                connection.setReconnectPolicy(con.policy);
             }
+            
+            bot.add(connection);
         }
     }
     
     /**
-     * Parses a line that matches {@code <protocol>://[<channel>@]<server>:<port>} into an instance
-     * of {@link Con} and checks that all connection parameters are valid. If something is invalid a
-     * fatal error message is printed and the program aborted.
+     * Parses a line that matches {@code <protocol>://[<channel>@]<server>:<port>[?<options>]} into
+     * an instance of {@link Con} and checks that all connection parameters are valid. The options
+     * are parsed by {@link ReconnectPolicy#parse(String)}. If something is invalid a fatal error
+     * message is printed and the program aborted.
      * 
      * @param cons
      *        The list of connections to which the new connection is appended if it is valid.
@@ -343,6 +440,21 @@ public class xpeter {
      *        A line of text that specifies a connection (see above).
      */
     private static void parseCon(LinkedList<Con> cons, String line) {
+        ReconnectPolicy policy = ReconnectPolicy.DEFAULT;
+        
+        if (line.contains("?")) {
+            
+            try {
+                policy = ReconnectPolicy.parse(line.substring(line.indexOf('?') + 1));
+            } catch (IllegalArgumentException e) {
+                System.err.println("FATAL ERROR!");
+                System.err.println("Invalid connection options: " + line);
+                System.err.println(e.getMessage());
+                System.exit(6);
+            }
+            
+            line = line.substring(0, line.indexOf('?'));
+        }
         
         if (!line.contains(":")) {
             System.err.println("FATAL ERROR!");
@@ -399,7 +511,7 @@ public class xpeter {
             server = line.substring(line.indexOf(':') + 3, line.lastIndexOf(':'));
         }
         
-        cons.add(new Con(server, port, protocol, channel));
+        cons.add(new Con(server, port, protocol, channel, policy));
     }
 }
 
@@ -415,12 +527,14 @@ class Con {
     public int port;
     public String protocol;
     public String channel;
+    public ReconnectPolicy policy;
     
-    public Con(String host, int port, String protocol, String channel) {
+    public Con(String host, int port, String protocol, String channel, ReconnectPolicy policy) {
         this.host = host;
         this.port = port;
         this.protocol = protocol;
         this.channel = channel;
+        this.policy = policy;
         
         if (!protocol.equals("irc") && !protocol.equals("jabber") && !protocol.equals("xmpp")
                 && !protocol.equals("erkitalk") && !protocol.equals("skype")) {